@@ -0,0 +1,134 @@
+package com.example.v2.bench.chat;
+
+import com.example.v2.chat.ChatResponse;
+import com.example.v2.chat.CustomOpenAiChatClient;
+import com.example.v2.chat.Prompt;
+import com.example.v2.metadata.ToolMetadataService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CustomOpenAiChatClient} 自身的JSON开销：构造并序列化请求体、解析响应（普通响应与SSE流）。
+ * HTTP层换成返回固定响应的内存实现，不涉及网络。
+ * 用 GC profiler 查看每次调用分配的字节数 (gc.alloc.rate.norm)：
+ * <pre>mvn -Pbench test-compile exec:exec -Djmh.args="ChatClientCodecBenchmark -prof gc"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatClientCodecBenchmark {
+
+    private static final String TOOL_CALL_RESPONSE = """
+        {"id":"chatcmpl-1","object":"chat.completion","created":1700000000,"model":"gpt-3.5-turbo",
+         "choices":[{"index":0,"finish_reason":"tool_calls","message":{"role":"assistant","content":null,
+           "tool_calls":[{"id":"call_1","type":"function","function":{"name":"open_account","arguments":"{\\"occupation\\":\\"工程师\\"}"}}]}}],
+         "usage":{"prompt_tokens":412,"completion_tokens":18,"total_tokens":430}}
+        """;
+
+    private static final String REPLY_RESPONSE = """
+        {"id":"chatcmpl-2","object":"chat.completion","created":1700000000,"model":"gpt-3.5-turbo",
+         "choices":[{"index":0,"finish_reason":"stop","message":{"role":"assistant","content":"好的，已经为您开户成功。您还可以继续办理股票购买等业务，如有需要随时告诉我。"}}],
+         "usage":{"prompt_tokens":230,"completion_tokens":36,"total_tokens":266}}
+        """;
+
+    @Param({"4", "32"})
+    public int historySize;
+
+    private CustomOpenAiChatClient toolCallClient;
+    private CustomOpenAiChatClient replyClient;
+    private CustomOpenAiChatClient streamClient;
+    private CustomOpenAiChatClient streamToolCallClient;
+    private Prompt prompt;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ToolMetadataService metadataService = ChatFixtures.metadataService();
+        toolCallClient = client(metadataService, TOOL_CALL_RESPONSE, MediaType.APPLICATION_JSON);
+        replyClient = client(metadataService, REPLY_RESPONSE, MediaType.APPLICATION_JSON);
+        streamClient = client(metadataService, eventStream(), MediaType.TEXT_EVENT_STREAM);
+        streamToolCallClient = client(metadataService, toolCallEventStream(), MediaType.TEXT_EVENT_STREAM);
+        prompt = ChatFixtures.extractionPrompt(metadataService.getBusinessToolNames(), historySize);
+    }
+
+    @Benchmark
+    public ChatResponse callWithToolCall() {
+        return toolCallClient.call(prompt);
+    }
+
+    @Benchmark
+    public ChatResponse callWithReply() {
+        return replyClient.call(prompt);
+    }
+
+    @Benchmark
+    public ChatResponse streamReply() {
+        return streamClient.stream(prompt, delta -> {});
+    }
+
+    @Benchmark
+    public ChatResponse streamToolCall() {
+        return streamToolCallClient.stream(prompt, delta -> {});
+    }
+
+    private static CustomOpenAiChatClient client(ToolMetadataService metadataService, String body, MediaType contentType) {
+        return new CustomOpenAiChatClient("bench-key", Map::of, metadataService, new RestTemplate(canned(body.getBytes(StandardCharsets.UTF_8), contentType)));
+    }
+
+    /**
+     * 每个请求都照常写出请求体，然后返回同一份固定的响应。
+     */
+    private static ClientHttpRequestFactory canned(byte[] body, MediaType contentType) {
+        return (uri, method) -> {
+            MockClientHttpRequest request = new MockClientHttpRequest(method, uri);
+            MockClientHttpResponse response = new MockClientHttpResponse(body, HttpStatus.OK);
+            response.getHeaders().setContentType(contentType);
+            request.setResponse(response);
+            return request;
+        };
+    }
+
+    private static String eventStream() {
+        String reply = "好的，已经为您开户成功。您还可以继续办理股票购买等业务，如有需要随时告诉我。";
+        StringBuilder events = new StringBuilder();
+        for (int i = 0; i < reply.length(); i += 4) {
+            String chunk = reply.substring(i, Math.min(reply.length(), i + 4));
+            events.append("data: {\"id\":\"chatcmpl-3\",\"object\":\"chat.completion.chunk\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"")
+                .append(chunk).append("\"},\"finish_reason\":null}]}\n\n");
+        }
+        events.append("data: {\"id\":\"chatcmpl-3\",\"object\":\"chat.completion.chunk\",\"choices\":[],")
+            .append("\"usage\":{\"prompt_tokens\":230,\"completion_tokens\":36,\"total_tokens\":266}}\n\n");
+        events.append("data: [DONE]\n\n");
+        return events.toString();
+    }
+
+    /**
+     * 工具调用的参数按片段到达：第一个事件带id和名称，之后每个事件带一段参数。
+     */
+    private static String toolCallEventStream() {
+        String arguments = "{\"education\":\"本科\",\"occupation\":\"工程师\",\"address\":\"杭州市西湖区\"}";
+        StringBuilder events = new StringBuilder();
+        events.append("data: {\"id\":\"chatcmpl-4\",\"object\":\"chat.completion.chunk\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":null,")
+            .append("\"tool_calls\":[{\"index\":0,\"id\":\"call_1\",\"type\":\"function\",\"function\":{\"name\":\"open_account\",\"arguments\":\"\"}}]},\"finish_reason\":null}]}\n\n");
+        for (int i = 0; i < arguments.length(); i += 8) {
+            String chunk = arguments.substring(i, Math.min(arguments.length(), i + 8)).replace("\"", "\\\"");
+            events.append("data: {\"id\":\"chatcmpl-4\",\"object\":\"chat.completion.chunk\",\"choices\":[{\"index\":0,\"delta\":{")
+                .append("\"tool_calls\":[{\"index\":0,\"function\":{\"arguments\":\"").append(chunk).append("\"}}]},\"finish_reason\":null}]}\n\n");
+        }
+        events.append("data: {\"id\":\"chatcmpl-4\",\"object\":\"chat.completion.chunk\",\"choices\":[],")
+            .append("\"usage\":{\"prompt_tokens\":412,\"completion_tokens\":18,\"total_tokens\":430}}\n\n");
+        events.append("data: [DONE]\n\n");
+        return events.toString();
+    }
+}
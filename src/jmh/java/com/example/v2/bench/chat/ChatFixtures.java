@@ -0,0 +1,44 @@
+package com.example.v2.bench.chat;
+
+import com.example.v2.chat.ChatOptions;
+import com.example.v2.chat.ChatStage;
+import com.example.v2.chat.Prompt;
+import com.example.v2.chat.SystemMessage;
+import com.example.v2.metadata.Tool;
+import com.example.v2.metadata.ToolMetadataService;
+import com.example.v2.state.ChatMessage;
+import com.example.v2.tool.ModifySlotTool;
+import com.example.v2.tool.OpenAccountService;
+import com.example.v2.tool.StockPurchaseService;
+import com.example.v2.tool.WeatherToolService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * LLM客户端相关基准共用的样本：真实的工具注册表，以及一次意图识别调用的提示词。
+ */
+final class ChatFixtures {
+
+    private ChatFixtures() {}
+
+    static ToolMetadataService metadataService() {
+        return new ToolMetadataService(Stream.of(OpenAccountService.class, StockPurchaseService.class, WeatherToolService.class, ModifySlotTool.class)
+            .map(type -> ToolMetadataService.ToolMetadata.from(type.getAnnotation(Tool.class)))
+            .toList());
+    }
+
+    static Prompt extractionPrompt(Set<String> tools, int historySize) {
+        List<Object> messages = new ArrayList<>();
+        messages.add(new SystemMessage("你是一个智能助手，负责从对话中识别用户意图并提取参数。如果无法识别，不要调用任何工具。"));
+        for (int i = 0; i < historySize; i++) {
+            messages.add(i % 2 == 0
+                ? ChatMessage.user("我想开个户，我是本科学历，第 " + i + " 轮")
+                : ChatMessage.assistant("好的，请问您的职业是什么呢？"));
+        }
+        messages.add(ChatMessage.user("我是一名工程师"));
+        return new Prompt(messages, new ChatOptions(tools, ChatStage.EXTRACTION));
+    }
+}
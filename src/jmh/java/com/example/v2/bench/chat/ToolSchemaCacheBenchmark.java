@@ -0,0 +1,54 @@
+package com.example.v2.bench.chat;
+
+import com.example.v2.chat.ToolSchemaCache;
+import com.example.v2.metadata.ToolCategory;
+import com.example.v2.metadata.ToolMetadataService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求中 tools 参数的构建开销。
+ * cached：同一个工具集合实例反复取用；combined：每次新建集合（对话流每轮拼候选工具时就是这样）；
+ * rebuild：工具注册表热加载后整体重建缓存的代价。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ToolSchemaCacheBenchmark {
+
+    private ToolMetadataService metadataService;
+    private ToolSchemaCache cache;
+    private Set<String> businessTools;
+    private Set<String> digressionTools;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metadataService = ChatFixtures.metadataService();
+        cache = new ToolSchemaCache(metadataService);
+        businessTools = metadataService.getBusinessToolNames();
+        digressionTools = metadataService.getToolNames(ToolCategory.DIGRESSION);
+    }
+
+    @Benchmark
+    public String cached() {
+        return cache.toolsJson(businessTools);
+    }
+
+    @Benchmark
+    public String combined() {
+        Set<String> tools = new LinkedHashSet<>(digressionTools);
+        tools.add("open_account");
+        return cache.toolsJson(tools);
+    }
+
+    @Benchmark
+    public ToolSchemaCache rebuild() {
+        return new ToolSchemaCache(metadataService);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.v2.bench.dialogue;
+
+import com.example.v2.V2Application;
+import com.example.v2.chat.ChatClient;
+import com.example.v2.chat.MeteredChatClient;
+import com.example.v2.state.ChatHistory;
+import com.example.v2.state.ChatMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+import java.util.Arrays;
+
+/**
+ * 启动不带Web服务器的完整应用上下文，用 {@link ScriptedChatClient} 替代真实的LLM客户端。
+ * 除LLM之外的组件（状态存储、历史压缩、信箱、指标、工具调度）都是生产配置。
+ */
+final class DialogueEngineFixture {
+
+    private DialogueEngineFixture() {}
+
+    /**
+     * 作为额外的配置源注册到上下文中（不加 @Configuration，避免被组件扫描到其他场景里）。
+     */
+    static class ScriptedChatClientConfig {
+
+        @Bean
+        @Primary
+        ChatClient scriptedChatClient(MeterRegistry meterRegistry) {
+            // 与生产配置一样套上指标装饰器，它的开销也算在引擎开销里
+            return new MeteredChatClient(new ScriptedChatClient(), meterRegistry);
+        }
+    }
+
+    /**
+     * @param properties 额外的配置项，形如 "--key=value"；以命令行参数传入，优先于 application.properties。
+     */
+    static ConfigurableApplicationContext start(String... properties) {
+        String[] args = Arrays.copyOf(properties, properties.length + 2);
+        // 基准输出里只保留告警，业务日志的格式化和队列开销也随之不计入
+        args[properties.length] = "--logging.level.root=WARN";
+        args[properties.length + 1] = "--logging.level.com.example.v2=WARN";
+        return new SpringApplicationBuilder(V2Application.class, ScriptedChatClientConfig.class)
+            .web(WebApplicationType.NONE)
+            .bannerMode(Banner.Mode.OFF)
+            .run(args);
+    }
+
+    /**
+     * 与脚本规则都不匹配的若干轮闲聊，用来把对话历史撑到指定长度。
+     */
+    static ChatHistory smallTalk(int turns) {
+        ChatHistory history = ChatHistory.empty();
+        for (int i = 0; i < turns; i++) {
+            history = history
+                .append(ChatMessage.user("随便聊聊，这是第 " + i + " 轮，最近工作有点忙"))
+                .append(ChatMessage.assistant(DialogueScript.REPLY));
+        }
+        return history;
+    }
+}
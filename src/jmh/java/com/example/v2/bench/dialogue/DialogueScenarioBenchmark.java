@@ -0,0 +1,69 @@
+package com.example.v2.bench.dialogue;
+
+import com.example.v2.service.DialogueFlowService;
+import com.example.v2.state.ChatHistory;
+import com.example.v2.state.DialogueState;
+import com.example.v2.state.DialogueStateService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 端到端驱动 {@link DialogueFlowService#processMessage} 的脚本化场景，LLM由 {@link ScriptedChatClient} 代替。
+ * 每次操作是一个新会话走完整个场景；会话开始前先放入 historyTurns 轮闲聊历史，观察开销随历史长度的变化。
+ * 场景没有按预期结束（例如脚本与流程不再吻合）时基准以异常结束。
+ * 分配速率用 gc 分析器查看（gc.alloc.rate.norm 即每个场景分配的字节数）：
+ * <pre>mvn -Pbench test-compile exec:exec -Djmh.args="DialogueScenarioBenchmark -prof gc"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DialogueScenarioBenchmark {
+
+    @Param
+    public DialogueScript.Scenario scenario;
+
+    @Param({"0", "16", "64"})
+    public int historyTurns;
+
+    private ConfigurableApplicationContext context;
+    private DialogueFlowService flow;
+    private DialogueStateService stateService;
+    private ChatHistory seedHistory;
+    private final AtomicLong conversations = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = DialogueEngineFixture.start();
+        flow = context.getBean(DialogueFlowService.class);
+        stateService = context.getBean(DialogueStateService.class);
+        seedHistory = DialogueEngineFixture.smallTalk(historyTurns);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public DialogueFlowService.DialogueResponse scenario() {
+        String conversationId = "bench-" + conversations.incrementAndGet();
+        if (!seedHistory.isEmpty()) {
+            stateService.saveState(conversationId, new DialogueState(conversationId, null, null, new HashMap<>(), null, seedHistory));
+        }
+        DialogueFlowService.DialogueResponse response = null;
+        for (String message : scenario.messages()) {
+            response = flow.processMessage(message, conversationId);
+        }
+        if (!response.isTaskFinished()) {
+            throw new IllegalStateException(scenario + " 未按预期结束，最后的回复: " + response.reply());
+        }
+        return response;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.v2.bench.dialogue;
+
+import com.example.v2.tool.ModifySlotTool;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * 基准和压测共用的对话脚本：模拟LLM的判定规则，以及按这些规则能走完的几个业务场景。
+ * 进程内的 {@link ScriptedChatClient} 和HTTP层的模拟服务都按它应答，因此两边驱动的是同一套流程。
+ */
+public final class DialogueScript {
+
+    /** 非意图识别的调用（闲聊、结果总结、历史摘要）一律返回的回复 */
+    public static final String REPLY = "好的，已经为您处理完毕。如果还有其他需要，随时告诉我。";
+
+    /**
+     * 一次脚本化的工具调用。
+     * @param arguments JSON格式的参数。
+     */
+    public record ToolCall(String name, String arguments) {}
+
+    private record Rule(String keyword, String tool, String arguments) {}
+
+    // 按顺序匹配，命中且工具在候选中的规则生效；每个工具只取第一条命中的规则
+    private static final List<Rule> RULES = List.of(
+        new Rule("填错", ModifySlotTool.NAME, "{\"slot_name\":\"education\",\"slot_value\":\"硕士\"}"),
+        new Rule("天气", "check_weather", "{\"city\":\"杭州\"}"),
+        new Rule("买", "stock_purchase", "{\"ticker\":\"600519\",\"quantity\":100}"),
+        new Rule("开户", "open_account", "{}"),
+        new Rule("本科", "open_account", "{\"education\":\"本科\"}"),
+        new Rule("工程师", "open_account", "{\"occupation\":\"工程师\"}"),
+        new Rule("西湖区", "open_account", "{\"address\":\"杭州市西湖区\"}")
+    );
+
+    public enum Scenario {
+        /** 开户：依次补齐三个槽位后确认 */
+        OPEN_ACCOUNT("我想开户", "本科", "工程师", "杭州市西湖区", "对的"),
+        /** 买股票：识别出意图时前置条件不满足，先转入开户子任务，开户后恢复买股票并确认 */
+        STOCK_PURCHASE_PRECONDITION("我想买100股茅台", "本科", "工程师", "杭州市西湖区", "没错", "对的"),
+        /** 开户途中问天气，回答后回到主线 */
+        WEATHER_DIGRESSION("我想开户", "本科", "今天天气怎么样", "工程师", "杭州市西湖区", "对的"),
+        /** 确认阶段修改一个槽位后再确认 */
+        MODIFY_SLOT("我想开户", "本科", "工程师", "杭州市西湖区", "学历填错了，应该是硕士", "对的"),
+        /** 一条消息里同时查天气和买股票（并行工具调用）：天气当场回答，买股票进入主线 */
+        PARALLEL_TOOLS("帮我查下天气，再买100股茅台", "本科", "工程师", "杭州市西湖区", "没错", "对的");
+
+        private final List<String> messages;
+
+        Scenario(String... messages) {
+            this.messages = List.of(messages);
+        }
+
+        /**
+         * 用户依次发送的消息；最后一条之后任务应当结束。
+         */
+        public List<String> messages() {
+            return messages;
+        }
+    }
+
+    private DialogueScript() {}
+
+    /**
+     * 意图识别：按最新一条用户消息中的关键词匹配，规则的工具必须在本次候选中。
+     * @return 没有命中时为空，表示不调用任何工具。
+     */
+    public static Optional<ToolCall> match(String userMessage, Set<String> tools) {
+        return matchAll(userMessage, tools).stream().findFirst();
+    }
+
+    /**
+     * 与 {@link #match} 相同，但返回所有命中的工具（模拟服务商的并行工具调用），按规则顺序排列。
+     */
+    public static List<ToolCall> matchAll(String userMessage, Set<String> tools) {
+        if (userMessage == null || tools == null) return List.of();
+        List<ToolCall> calls = new ArrayList<>(1);
+        Set<String> matched = new HashSet<>();
+        for (Rule rule : RULES) {
+            if (userMessage.contains(rule.keyword()) && tools.contains(rule.tool()) && matched.add(rule.tool())) {
+                calls.add(new ToolCall(rule.tool(), rule.arguments()));
+            }
+        }
+        return calls;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.v2.bench.dialogue;
+
+import com.example.v2.service.DialogueFlowService;
+import com.example.v2.state.DialogueState;
+import com.example.v2.state.DialogueStateService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单轮对话的开销随历史长度的变化：开户任务进行到一半时问一句天气（本地判定意图 + 一次工具调用 + 按模板渲染结果，不经过LLM）。
+ * 脚本客户端没有I/O，合并模式下整轮都在调用线程上同步执行，因此单线程下每轮的平均耗时就是这一轮的CPU时间；
+ * 每轮分配的字节数用 gc 分析器查看。每次调用前都把状态重置回同一个起点。
+ * <pre>mvn -Pbench test-compile exec:exec -Djmh.args="DialogueTurnBenchmark -prof gc"</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(1)
+@Fork(1)
+public class DialogueTurnBenchmark {
+
+    private static final String CONVERSATION_ID = "bench-turn";
+
+    @Param({"0", "4", "16", "64", "256"})
+    public int historyTurns;
+
+    private ConfigurableApplicationContext context;
+    private DialogueFlowService flow;
+    private DialogueStateService stateService;
+    private DialogueState baseState;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 关闭后台滚动摘要：否则摘要在下一轮被应用，各次调用面对的历史不再相同
+        context = DialogueEngineFixture.start("--dialogue.history.keep-turns=100000");
+        flow = context.getBean(DialogueFlowService.class);
+        stateService = context.getBean(DialogueStateService.class);
+        Map<String, Object> collected = new HashMap<>(Map.of("education", "本科", "userId", CONVERSATION_ID));
+        baseState = new DialogueState(CONVERSATION_ID, "open_account",
+            new LinkedHashSet<>(List.of("education", "occupation", "address")), collected,
+            DialogueState.Status.GATHERING_INFO, DialogueEngineFixture.smallTalk(historyTurns));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public DialogueFlowService.DialogueResponse digressionTurn() {
+        // 流程会原地补充槽位，每次从一份新的槽位表开始
+        stateService.saveState(CONVERSATION_ID, new DialogueState(baseState.conversationId(), baseState.intentName(),
+            baseState.requiredSlots(), new HashMap<>(baseState.collectedSlots()), baseState.status(), baseState.chatHistory()));
+        DialogueFlowService.DialogueResponse response = flow.processMessage("今天天气怎么样", CONVERSATION_ID);
+        if (response.isTaskFinished()) {
+            throw new IllegalStateException("偏离处理后任务不应结束: " + response.reply());
+        }
+        return response;
+    }
+}
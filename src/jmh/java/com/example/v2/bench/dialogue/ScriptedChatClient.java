@@ -0,0 +1,58 @@
+package com.example.v2.bench.dialogue;
+
+import com.example.v2.chat.AssistantMessage;
+import com.example.v2.chat.ChatResponse;
+import com.example.v2.chat.ChatStage;
+import com.example.v2.chat.Prompt;
+import com.example.v2.chat.StreamingChatClient;
+import com.example.v2.state.ChatMessage;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 确定性的进程内 ChatClient，代替真实的LLM驱动对话引擎，使基准只度量我们自己的开销。
+ * 意图识别阶段按 {@link DialogueScript} 的规则返回工具调用；其他阶段返回固定的回复，流式模式下按几个字一段推送。
+ */
+final class ScriptedChatClient implements StreamingChatClient {
+
+    private static final int STREAM_CHUNK = 4;
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        ChatStage stage = prompt.options().stage();
+        if (stage == ChatStage.EXTRACTION || stage == ChatStage.DIGRESSION_CHECK) {
+            return new ChatResponse(extract(prompt));
+        }
+        return new ChatResponse(new AssistantMessage(DialogueScript.REPLY, null));
+    }
+
+    @Override
+    public ChatResponse stream(Prompt prompt, Consumer<String> onDelta) {
+        ChatResponse response = call(prompt);
+        String content = response.result().content();
+        if (content != null) {
+            for (int i = 0; i < content.length(); i += STREAM_CHUNK) {
+                onDelta.accept(content.substring(i, Math.min(content.length(), i + STREAM_CHUNK)));
+            }
+        }
+        return response;
+    }
+
+    private static AssistantMessage extract(Prompt prompt) {
+        List<DialogueScript.ToolCall> calls = DialogueScript.matchAll(lastUserMessage(prompt.messages()), prompt.options().functions());
+        if (calls.isEmpty()) return new AssistantMessage(null, null);
+        return new AssistantMessage(null, calls.stream()
+            .map(call -> new AssistantMessage.ToolCall("call_" + call.name(), "function", new AssistantMessage.Function(call.name(), call.arguments())))
+            .toList());
+    }
+
+    private static String lastUserMessage(List<Object> messages) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof ChatMessage message && message.role() == ChatMessage.Role.USER) {
+                return message.content();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.v2.bench.load;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 压测工具的命令行参数，形如 --key=value；只写 --flag 时值为 true。时长支持 800ms、2s、1m 这样的写法。
+ */
+final class CommandLine {
+
+    private final Map<String, String> options = new HashMap<>();
+
+    private CommandLine() {}
+
+    static CommandLine parse(String[] args) {
+        CommandLine commandLine = new CommandLine();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("无法识别的参数: " + arg);
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                commandLine.options.put(arg.substring(2), "true");
+            } else {
+                commandLine.options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return commandLine;
+    }
+
+    String get(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    int getInt(String key, int defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    double getDouble(String key, double defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    boolean getBoolean(String key, boolean defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    Duration getDuration(String key, Duration defaultValue) {
+        String value = options.get(key);
+        return value == null ? defaultValue : DurationStyle.detectAndParse(value);
+    }
+}
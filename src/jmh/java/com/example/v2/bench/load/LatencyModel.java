@@ -0,0 +1,59 @@
+package com.example.v2.bench.load;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 模拟服务在返回第一个字节之前等待的时间。
+ * LLM接口的延迟通常近似对数正态分布，并带有少量极慢的请求（重尾），这里分别建模。
+ */
+@FunctionalInterface
+interface LatencyModel {
+
+    long sampleMillis();
+
+    static LatencyModel none() {
+        return () -> 0;
+    }
+
+    static LatencyModel fixed(Duration latency) {
+        long millis = latency.toMillis();
+        return () -> millis;
+    }
+
+    /**
+     * @param median 中位数。
+     * @param sigma 对数标准差；0.5 时 p99 约为中位数的 3.2 倍。
+     */
+    static LatencyModel logNormal(Duration median, double sigma) {
+        double mu = Math.log(median.toMillis());
+        return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * 以 probability 的概率额外叠加一段Pareto分布的延迟（最小为 scale，alpha 越小尾部越重）。
+     */
+    default LatencyModel withHeavyTail(double probability, Duration scale, double alpha) {
+        if (probability <= 0) return this;
+        long scaleMillis = scale.toMillis();
+        return () -> {
+            long latency = sampleMillis();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < probability) {
+                latency += Math.round(scaleMillis / Math.pow(1 - random.nextDouble(), 1 / alpha));
+            }
+            return latency;
+        };
+    }
+
+    static LatencyModel from(CommandLine args) {
+        LatencyModel base = switch (args.get("latency", "lognormal")) {
+            case "none" -> none();
+            case "fixed" -> fixed(args.getDuration("median", Duration.ofMillis(800)));
+            case "lognormal" -> logNormal(args.getDuration("median", Duration.ofMillis(800)), args.getDouble("sigma", 0.5));
+            default -> throw new IllegalArgumentException("未知的延迟模型: " + args.get("latency", null));
+        };
+        return base.withHeavyTail(args.getDouble("tail-probability", 0.0),
+            args.getDuration("tail-scale", Duration.ofSeconds(3)), args.getDouble("tail-alpha", 1.5));
+    }
+}
@@ -0,0 +1,327 @@
+package com.example.v2.bench.load;
+
+import com.example.v2.bench.dialogue.DialogueScript;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 端到端负载生成器：若干个虚拟用户并发地走 {@link DialogueScript.Scenario} 中的对话场景，
+ * 每个场景是一个新会话，消息依次发给 /chat（或 /chat/stream），收到回复后才发下一条。
+ * 结束时按请求统计 p50/p90/p99/最大延迟、吞吐量和按状态码分类的错误率；流式模式另外统计首个片段的延迟。
+ * 某条消息失败时放弃该会话，开始下一个场景。
+ * <pre>
+ * mvn -Pbench test-compile exec:exec -Dbench.main=com.example.v2.bench.load.LoadGenerator \
+ *     -Dbench.args="--target=http://localhost:8080 --users=200 --duration=2m --warmup=20s"
+ * mvn -Pbench test-compile exec:exec -Dbench.main=com.example.v2.bench.load.LoadGenerator \
+ *     -Dbench.args="--target=http://localhost:8080 --rate=20 --duration=2m --warmup=20s"
+ * </pre>
+ * 参数：--mode=chat|stream，--think-time 每条消息之间的停顿，--timeout 单个请求的超时。
+ * <p>
+ * 默认是闭环：每个虚拟用户等上一个会话结束才开始下一个，服务变慢时发出的请求随之变少，测到的延迟偏乐观
+ * （coordinated omission）。--rate 大于0时改为开环：按固定的到达率每秒开始 rate 个新会话，与服务的快慢无关，
+ * 最多 --max-conversations 个会话同时进行，超出的排队等待。会话第一条消息的延迟从计划的到达时间算起，
+ * 包含在负载生成器里排队的时间；会话内的后续消息仍然等收到上一条回复、停顿 think-time 后再发。
+ * 计划在测量期内到达、却到结束时还没能发出的会话记为失败。
+ * <p>
+ * 比较 /chat 的两种执行模式时，两边处理对话的线程总数要相同：ASYNC 模式下对话跑在 dialogueExecutor 上，
+ * 等待LLM时同样阻塞线程，所以 SYNC 的 --server.tomcat.threads.max 应等于 ASYNC 的 Tomcat 线程数加
+ * --dialogue.executor.size；只比较 Tomcat 线程数会把 ASYNC 多出的线程误当成异步的收益。
+ * 模拟服务的延迟要足够长（例如 --median=3s），让瓶颈落在线程上而不是CPU上，再用相同的 --users 各跑一遍。
+ * <p>
+ * 脚本中过半的消息由本地意图识别和槽位解析直接应答，不调用LLM，所以即使模拟服务的中位延迟是3秒，
+ * 线程充足时整体 p50 也只有几十毫秒；线程不足时这些快消息排在慢消息后面，p50 会接近LLM的延迟。
+ */
+public final class LoadGenerator {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * 单个虚拟用户的记录，结束后汇总。只记录预热期之后发出的请求。
+     */
+    private static final class Recorder {
+        long[] latencies = new long[1024];
+        long[] firstTokenLatencies = new long[1024];
+        int count;
+        int firstTokenCount;
+        long conversations;
+        long maxStartLagMicros; // 开环模式下会话实际开始比计划晚的最大值
+        final Map<String, Long> errors = new TreeMap<>();
+
+        void success(long latencyMicros) {
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latencyMicros;
+        }
+
+        void firstToken(long latencyMicros) {
+            if (firstTokenCount == firstTokenLatencies.length) firstTokenLatencies = Arrays.copyOf(firstTokenLatencies, firstTokenCount * 2);
+            firstTokenLatencies[firstTokenCount++] = latencyMicros;
+        }
+
+        void error(String kind) {
+            errors.merge(kind, 1L, Long::sum);
+        }
+    }
+
+    private final HttpClient client;
+    private final URI endpoint;
+    private final boolean streaming;
+    private final Duration thinkTime;
+    private final Duration timeout;
+
+    private LoadGenerator(URI target, boolean streaming, Duration thinkTime, Duration timeout) {
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(5)).build();
+        this.endpoint = target.resolve(streaming ? "/chat/stream" : "/chat");
+        this.streaming = streaming;
+        this.thinkTime = thinkTime;
+        this.timeout = timeout;
+    }
+
+    public static void main(String[] argv) throws Exception {
+        CommandLine args = CommandLine.parse(argv);
+        int users = args.getInt("users", 50);
+        Duration duration = args.getDuration("duration", Duration.ofSeconds(60));
+        Duration warmup = args.getDuration("warmup", Duration.ofSeconds(10));
+        LoadGenerator generator = new LoadGenerator(
+            URI.create(args.get("target", "http://localhost:8080")),
+            "stream".equals(args.get("mode", "chat")),
+            args.getDuration("think-time", Duration.ZERO),
+            args.getDuration("timeout", Duration.ofSeconds(60))
+        );
+
+        double rate = args.getDouble("rate", 0);
+        if (rate > 0) {
+            System.out.printf("目标 %s，开环 %.1f 个会话/秒，预热 %s，测量 %s%n", generator.endpoint, rate, warmup, duration);
+        } else {
+            System.out.printf("目标 %s，%d 个并发用户，预热 %s，测量 %s%n", generator.endpoint, users, warmup, duration);
+        }
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long deadline = measureFrom + duration.toNanos();
+
+        List<Recorder> recorders;
+        if (rate > 0) {
+            recorders = generator.runOpenLoop(rate, args.getInt("max-conversations", 4096), start, measureFrom, deadline);
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(users);
+            List<Future<Recorder>> futures = new ArrayList<>();
+            for (int i = 0; i < users; i++) {
+                int user = i;
+                futures.add(executor.submit(() -> generator.runUser(user, measureFrom, deadline)));
+            }
+            recorders = new ArrayList<>();
+            for (Future<Recorder> future : futures) recorders.add(future.get());
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        report(recorders, (System.nanoTime() - measureFrom) / 1e9, generator.streaming, rate > 0);
+    }
+
+    private Recorder runUser(int user, long measureFrom, long deadline) {
+        Recorder recorder = new Recorder();
+        DialogueScript.Scenario[] scenarios = DialogueScript.Scenario.values();
+        for (long n = 0; System.nanoTime() < deadline; n++) {
+            DialogueScript.Scenario scenario = scenarios[(int) ((user + n) % scenarios.length)];
+            boolean completed = runConversation(scenario, "load-" + user + "-" + n, System.nanoTime(), measureFrom, deadline, recorder);
+            if (completed && System.nanoTime() >= measureFrom) recorder.conversations++;
+        }
+        return recorder;
+    }
+
+    /**
+     * 开环：第 n 个会话计划在 start + n/rate 到达，由负载生成器按时开始，不等其他会话结束。
+     * 每个工作线程一个 Recorder，结束后汇总。
+     */
+    private List<Recorder> runOpenLoop(double rate, int maxConversations, long start, long measureFrom, long deadline)
+            throws InterruptedException {
+        List<Recorder> recorders = new CopyOnWriteArrayList<>();
+        ThreadLocal<Recorder> local = ThreadLocal.withInitial(() -> {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            return recorder;
+        });
+        DialogueScript.Scenario[] scenarios = DialogueScript.Scenario.values();
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        ExecutorService executor = Executors.newFixedThreadPool(maxConversations);
+        for (long n = 0; ; n++) {
+            long intended = start + (long) (n * intervalNanos);
+            if (intended >= deadline) break;
+            for (long wait; (wait = intended - System.nanoTime()) > 0; ) LockSupport.parkNanos(wait);
+            DialogueScript.Scenario scenario = scenarios[(int) (n % scenarios.length)];
+            String conversationId = "load-open-" + n;
+            executor.execute(() -> {
+                Recorder recorder = local.get();
+                long now = System.nanoTime();
+                if (intended >= measureFrom) recorder.maxStartLagMicros = Math.max(recorder.maxStartLagMicros, (now - intended) / 1000);
+                if (now >= deadline) {
+                    // 会话在负载生成器里排到了结束：计入失败，否则过载时最慢的部分恰好被漏掉
+                    if (intended >= measureFrom) recorder.error("not sent (generator backlog)");
+                    return;
+                }
+                boolean completed = runConversation(scenario, conversationId, intended, measureFrom, deadline, recorder);
+                if (completed && System.nanoTime() >= measureFrom) recorder.conversations++;
+            });
+        }
+        executor.shutdown();
+        if (!executor.awaitTermination(timeout.toSeconds() + 10, TimeUnit.SECONDS)) executor.shutdownNow();
+        return recorders;
+    }
+
+    /**
+     * 依次发出一个会话的所有消息，任何一条失败即放弃该会话。
+     * @param firstSent 第一条消息的计划发送时间，延迟从这里算起；之后的消息在收到上一条回复、停顿 think-time 后发出。
+     * @return 所有消息都成功时为 true。
+     */
+    private boolean runConversation(DialogueScript.Scenario scenario, String conversationId, long firstSent,
+                                    long measureFrom, long deadline, Recorder recorder) {
+        long sent = firstSent;
+        for (String message : scenario.messages()) {
+            if (System.nanoTime() >= deadline) return false;
+            Recorder target = sent >= measureFrom ? recorder : null;
+            if (!send(conversationId, message, sent, target)) return false;
+            pause(thinkTime);
+            sent = System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * @param recorder 为null时（预热期）不记录。
+     * @return 请求成功时为 true。
+     */
+    private boolean send(String conversationId, String message, long sent, Recorder recorder) {
+        try {
+            byte[] body = MAPPER.writeValueAsBytes(Map.of("message", message, "conversationId", conversationId));
+            HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+            if (streaming) return sendStreaming(request, sent, recorder);
+
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                if (recorder != null) recorder.error("HTTP " + response.statusCode());
+                return false;
+            }
+            if (recorder != null) recorder.success(micros(sent));
+            return true;
+        } catch (HttpTimeoutException e) {
+            if (recorder != null) recorder.error("timeout");
+        } catch (IOException e) {
+            if (recorder != null) recorder.error(e.getClass().getSimpleName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * 读取SSE事件流：第一个 token 或 done 事件记为首个片段的延迟，以 done 事件结束为成功，error 事件为失败。
+     */
+    private boolean sendStreaming(HttpRequest request, long sent, Recorder recorder) throws IOException, InterruptedException {
+        HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() != 200) {
+                if (recorder != null) recorder.error("HTTP " + response.statusCode());
+                return false;
+            }
+            boolean firstToken = true;
+            for (String line : (Iterable<String>) lines::iterator) {
+                if (!line.startsWith("event:")) continue;
+                String event = line.substring(6).trim();
+                if (firstToken && (event.equals("token") || event.equals("done"))) {
+                    firstToken = false;
+                    if (recorder != null) recorder.firstToken(micros(sent));
+                }
+                if (event.equals("done")) {
+                    if (recorder != null) recorder.success(micros(sent));
+                    return true;
+                }
+                if (event.equals("error")) {
+                    if (recorder != null) recorder.error("error event");
+                    return false;
+                }
+            }
+            if (recorder != null) recorder.error("stream closed");
+            return false;
+        }
+    }
+
+    private static void report(List<Recorder> recorders, double seconds, boolean streaming, boolean openLoop) {
+        long[] latencies = merge(recorders, r -> Arrays.copyOf(r.latencies, r.count));
+        Map<String, Long> errors = new TreeMap<>();
+        long conversations = 0;
+        for (Recorder recorder : recorders) {
+            recorder.errors.forEach((kind, count) -> errors.merge(kind, count, Long::sum));
+            conversations += recorder.conversations;
+        }
+        long failed = errors.values().stream().mapToLong(Long::longValue).sum();
+        long total = latencies.length + failed;
+
+        System.out.printf("%n测量时长 %.1fs，请求 %d，成功 %d，失败 %d (%.2f%%)%n", seconds, total, latencies.length, failed, total == 0 ? 0 : 100.0 * failed / total);
+        System.out.printf("吞吐量 %.1f 请求/秒，完成会话 %.1f 个/秒%n", latencies.length / seconds, conversations / seconds);
+        printLatencies("延迟", latencies);
+        if (streaming) printLatencies("首个片段延迟", merge(recorders, r -> Arrays.copyOf(r.firstTokenLatencies, r.firstTokenCount)));
+        if (openLoop) {
+            // 滞后明显时负载生成器本身是瓶颈（--max-conversations 太小或CPU不够），延迟中包含了这部分排队
+            long lag = recorders.stream().mapToLong(r -> r.maxStartLagMicros).max().orElse(0);
+            System.out.printf("会话开始的最大滞后 %.1fms%n", lag / 1000.0);
+        }
+        errors.forEach((kind, count) -> System.out.printf("  %-24s %d (%.2f%%)%n", kind, count, 100.0 * count / total));
+    }
+
+    private static long[] merge(List<Recorder> recorders, Function<Recorder, long[]> values) {
+        long[] merged = recorders.stream().map(values).flatMapToLong(Arrays::stream).toArray();
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private static void printLatencies(String label, long[] sorted) {
+        if (sorted.length == 0) {
+            System.out.printf("%s: 无数据%n", label);
+            return;
+        }
+        System.out.printf("%s (ms): p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n", label,
+            percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99), percentile(sorted, 0.999),
+            sorted[sorted.length - 1] / 1000.0);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000.0;
+    }
+
+    private static long micros(long sentNanos) {
+        return (System.nanoTime() - sentNanos) / 1000;
+    }
+
+    private static void pause(Duration duration) {
+        if (duration.isZero()) return;
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
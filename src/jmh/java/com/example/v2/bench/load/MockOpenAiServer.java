@@ -0,0 +1,268 @@
+package com.example.v2.bench.load;
+
+import com.example.v2.bench.dialogue.DialogueScript;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地的OpenAI兼容模拟服务，只实现 POST /v1/chat/completions，用于在不访问真实API的情况下压测完整的HTTP链路。
+ * <ul>
+ *   <li>应答：请求带 tools 时按 {@link DialogueScript} 的规则返回工具调用（可能有多个），否则返回固定文本；支持 stream 模式 (SSE)；</li>
+ *   <li>延迟：首字节前按 {@link LatencyModel} 采样等待，流式模式下每个片段之间再间隔 chunk-interval；</li>
+ *   <li>故障：按比例返回 429 (带 Retry-After) 和 500/502/503。</li>
+ * </ul>
+ * 启动模拟服务，再让应用指向它：
+ * <pre>
+ * mvn -Pbench test-compile exec:exec -Dbench.main=com.example.v2.bench.load.MockOpenAiServer \
+ *     -Dbench.args="--port=18181 --latency=lognormal --median=800ms --sigma=0.5 --tail-probability=0.01 --rate-429=0.02 --rate-5xx=0.01"
+ * java -jar target/v2-0.0.1-SNAPSHOT.jar --openai.api.url=http://localhost:18181/v1/chat/completions
+ * </pre>
+ * 负载由 {@link LoadGenerator} 产生。
+ */
+public final class MockOpenAiServer implements AutoCloseable {
+
+    private static final String PATH = "/v1/chat/completions";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LatencyModel latency;
+    private final double rate429;
+    private final double rate5xx;
+    private final Duration chunkInterval;
+    private final int chunkSize;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+
+    public MockOpenAiServer(int port, LatencyModel latency, double rate429, double rate5xx, Duration chunkInterval, int chunkSize) throws IOException {
+        this.latency = latency;
+        this.rate429 = rate429;
+        this.rate5xx = rate5xx;
+        this.chunkInterval = chunkInterval;
+        this.chunkSize = chunkSize;
+        // 延迟通过阻塞等待模拟，每个在途请求占一个线程
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.createContext(PATH, this::handle);
+        server.setExecutor(executor);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        CommandLine args = CommandLine.parse(argv);
+        MockOpenAiServer server = new MockOpenAiServer(
+            args.getInt("port", 18181),
+            LatencyModel.from(args),
+            args.getDouble("rate-429", 0.0),
+            args.getDouble("rate-5xx", 0.0),
+            args.getDuration("chunk-interval", Duration.ofMillis(20)),
+            args.getInt("chunk-size", 4)
+        );
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.printf("模拟服务已启动: http://localhost:%d%s%n", server.port(), PATH);
+        while (true) {
+            Thread.sleep(10_000);
+            System.out.println(server.stats());
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    public String stats() {
+        return String.format("请求 %d，429 %d，5xx %d", requests.sum(), rateLimited.sum(), serverErrors.sum());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            requests.increment();
+            JsonNode request;
+            try (InputStream body = exchange.getRequestBody()) {
+                request = mapper.readTree(body);
+            }
+
+            double fault = ThreadLocalRandom.current().nextDouble();
+            if (fault < rate429) {
+                rateLimited.increment();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                sendError(exchange, 429, "rate_limit_exceeded", "Rate limit reached for requests");
+                return;
+            }
+            sleep(latency.sampleMillis());
+            if (fault < rate429 + rate5xx) {
+                serverErrors.increment();
+                int[] statuses = {500, 502, 503};
+                sendError(exchange, statuses[ThreadLocalRandom.current().nextInt(statuses.length)], "server_error", "The server had an error while processing your request");
+                return;
+            }
+
+            List<DialogueScript.ToolCall> toolCalls = DialogueScript.matchAll(lastUserMessage(request), toolNames(request));
+            int promptTokens = Math.max(1, request.toString().length() / 4);
+            if (request.path("stream").asBoolean(false)) {
+                stream(exchange, toolCalls, promptTokens, request.path("stream_options").path("include_usage").asBoolean(false));
+            } else {
+                complete(exchange, toolCalls, promptTokens);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void complete(HttpExchange exchange, List<DialogueScript.ToolCall> toolCalls, int promptTokens) throws IOException {
+        ObjectNode response = mapper.createObjectNode()
+            .put("id", "chatcmpl-mock")
+            .put("object", "chat.completion")
+            .put("model", "mock");
+        ObjectNode choice = response.putArray("choices").addObject().put("index", 0);
+        ObjectNode message = choice.putObject("message").put("role", "assistant");
+        if (!toolCalls.isEmpty()) {
+            message.putNull("content");
+            ArrayNode calls = message.putArray("tool_calls");
+            for (DialogueScript.ToolCall toolCall : toolCalls) toolCallNode(calls, toolCall, -1);
+            choice.put("finish_reason", "tool_calls");
+        } else {
+            message.put("content", DialogueScript.REPLY);
+            choice.put("finish_reason", "stop");
+        }
+        response.set("usage", usage(promptTokens, toolCalls));
+        byte[] body = mapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void stream(HttpExchange exchange, List<DialogueScript.ToolCall> toolCalls, int promptTokens, boolean includeUsage) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (!toolCalls.isEmpty()) {
+                // 每个工具调用一个事件，按 index 区分
+                for (int i = 0; i < toolCalls.size(); i++) {
+                    ObjectNode event = chunk();
+                    toolCallNode(delta(event).putArray("tool_calls"), toolCalls.get(i), i);
+                    event(out, event);
+                }
+            } else {
+                String reply = DialogueScript.REPLY;
+                for (int i = 0; i < reply.length(); i += chunkSize) {
+                    if (i > 0) sleep(chunkInterval.toMillis());
+                    ObjectNode event = chunk();
+                    delta(event).put("content", reply.substring(i, Math.min(reply.length(), i + chunkSize)));
+                    event(out, event);
+                }
+            }
+            if (includeUsage) {
+                ObjectNode usageEvent = mapper.createObjectNode().put("id", "chatcmpl-mock").put("object", "chat.completion.chunk");
+                usageEvent.putArray("choices");
+                usageEvent.set("usage", usage(promptTokens, toolCalls));
+                event(out, usageEvent);
+            }
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private ObjectNode chunk() {
+        ObjectNode event = mapper.createObjectNode().put("id", "chatcmpl-mock").put("object", "chat.completion.chunk");
+        event.putArray("choices").addObject().put("index", 0).putObject("delta");
+        return event;
+    }
+
+    private static ObjectNode delta(ObjectNode chunk) {
+        return (ObjectNode) chunk.get("choices").get(0).get("delta");
+    }
+
+    private void event(OutputStream out, ObjectNode event) throws IOException {
+        out.write(("data: " + mapper.writeValueAsString(event) + "\n\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * @param index 流式事件中的工具调用序号；非流式响应为 -1，不输出。
+     */
+    private static void toolCallNode(ArrayNode toolCalls, DialogueScript.ToolCall toolCall, int index) {
+        ObjectNode node = toolCalls.addObject();
+        if (index >= 0) node.put("index", index);
+        node.put("id", "call_" + toolCall.name()).put("type", "function");
+        node.putObject("function").put("name", toolCall.name()).put("arguments", toolCall.arguments());
+    }
+
+    private ObjectNode usage(int promptTokens, List<DialogueScript.ToolCall> toolCalls) {
+        int completionTokens = toolCalls.isEmpty() ? DialogueScript.REPLY.length()
+            : toolCalls.stream().mapToInt(call -> call.arguments().length() / 4 + 8).sum();
+        return mapper.createObjectNode()
+            .put("prompt_tokens", promptTokens)
+            .put("completion_tokens", completionTokens)
+            .put("total_tokens", promptTokens + completionTokens);
+    }
+
+    private void sendError(HttpExchange exchange, int status, String type, String message) throws IOException {
+        ObjectNode response = mapper.createObjectNode();
+        response.putObject("error").put("message", message).put("type", type);
+        byte[] body = mapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String lastUserMessage(JsonNode request) {
+        JsonNode messages = request.path("messages");
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if ("user".equals(messages.get(i).path("role").asText())) return messages.get(i).path("content").asText();
+        }
+        return null;
+    }
+
+    private static Set<String> toolNames(JsonNode request) {
+        Set<String> names = new LinkedHashSet<>();
+        request.path("tools").forEach(tool -> names.add(tool.path("function").path("name").asText()));
+        return names;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) return;
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.v2.bench.state;
+
+import com.example.v2.state.ChatHistory;
+import com.example.v2.state.ChatMessage;
+import com.example.v2.state.DialogueState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一轮对话中推进状态的分配量对比：旧的 "每次构造状态都复制历史" 与共享的只追加 {@link ChatHistory}。
+ * 一轮按 DialogueFlowService 的典型路径计：追加用户消息、构造两次新状态（开启任务、推进到确认）、追加助手回复。
+ * 用 GC profiler 查看每轮分配的字节数：
+ * <pre>mvn -Pbench test-compile exec:exec -Djmh.args="ChatHistoryBenchmark -prof gc"</pre>
+ * 关注 gc.alloc.rate.norm（B/op）。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatHistoryBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int messages;
+
+    private static final Set<String> REQUIRED = Set.of("user_name", "id_card_number", "phone_number");
+    private static final ChatMessage USER = ChatMessage.user("我的身份证号是 110101199001011234");
+    private static final ChatMessage ASSISTANT = ChatMessage.assistant("好的，请提供您的手机号码。");
+
+    /**
+     * 旧的状态模型：规范构造器里复制一份可变的历史。
+     */
+    private record CopyingState(String conversationId, String intentName, Set<String> requiredSlots,
+                                Map<String, Object> collectedSlots, DialogueState.Status status,
+                                List<ChatMessage> chatHistory) {
+        CopyingState {
+            chatHistory = new ArrayList<>(chatHistory);
+        }
+    }
+
+    private CopyingState copyingState;
+    private DialogueState sharedState;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<ChatMessage> history = new ArrayList<>();
+        ChatHistory shared = ChatHistory.empty();
+        for (int i = 0; i < messages; i++) {
+            history.add(StateFixtures.message(i));
+            shared = shared.append(StateFixtures.message(i));
+        }
+        copyingState = new CopyingState("conv", "open_account", REQUIRED, new HashMap<>(), DialogueState.Status.GATHERING_INFO, history);
+        sharedState = new DialogueState("conv", "open_account", REQUIRED, new HashMap<>(), DialogueState.Status.GATHERING_INFO, shared);
+    }
+
+    @Benchmark
+    public CopyingState copyingTurn() {
+        CopyingState state = copyingState;
+        state.chatHistory().add(USER);
+        state = new CopyingState(state.conversationId(), state.intentName(), state.requiredSlots(), state.collectedSlots(), DialogueState.Status.GATHERING_INFO, state.chatHistory());
+        state = new CopyingState(state.conversationId(), state.intentName(), state.requiredSlots(), state.collectedSlots(), DialogueState.Status.CONFIRMATION_PENDING, state.chatHistory());
+        state.chatHistory().add(ASSISTANT);
+        // 还原，保证每次调用的历史长度相同
+        List<ChatMessage> history = copyingState.chatHistory();
+        history.remove(history.size() - 1);
+        return state;
+    }
+
+    /**
+     * 与线上一致，每轮都在上一轮提交的状态上继续，追加总是发生在共享存储的末端。
+     * 历史增长到 messages 的两倍后重建回初始长度；重建的分配摊到每轮里一并计入。
+     */
+    @Benchmark
+    public DialogueState sharedTurn() {
+        DialogueState state = sharedState.withMessage(USER);
+        state = new DialogueState(state.conversationId(), state.intentName(), state.requiredSlots(), state.collectedSlots(), DialogueState.Status.GATHERING_INFO, state.chatHistory());
+        state = new DialogueState(state.conversationId(), state.intentName(), state.requiredSlots(), state.collectedSlots(), DialogueState.Status.CONFIRMATION_PENDING, state.originatingIntent(), state.chatHistory());
+        state = state.withMessage(ASSISTANT);
+        sharedState = state.chatHistory().size() >= 2 * messages + 2
+            ? state.withChatHistory(ChatHistory.of(new ArrayList<>(state.chatHistory().prefix(messages))))
+            : state;
+        return state;
+    }
+}
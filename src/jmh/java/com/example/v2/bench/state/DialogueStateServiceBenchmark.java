@@ -0,0 +1,69 @@
+package com.example.v2.bench.state;
+
+import com.example.v2.state.ChatMessage;
+import com.example.v2.state.DialogueState;
+import com.example.v2.state.DialogueStateCache;
+import com.example.v2.state.DialogueStateService;
+import com.example.v2.state.InMemoryDialogueStateStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DialogueStateService} 这一层的开销（日志、Optional包装）加上进程内存储，
+ * 以及每轮对话的典型用法：读出状态、追加一条消息、写回。存储后端之间的对比见 {@link DialogueStateStoreBenchmark}。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DialogueStateServiceBenchmark {
+
+    @Param({"10000"})
+    public int conversations;
+
+    @Param({"6", "64"})
+    public int historySize;
+
+    private DialogueStateService service;
+    private DialogueState[] states;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new DialogueStateService(new InMemoryDialogueStateStore(new DialogueStateCache(
+            Duration.ofMinutes(30), Integer.MAX_VALUE, Long.MAX_VALUE, Duration.ofMinutes(1), List.of())));
+        states = new DialogueState[conversations];
+        for (int i = 0; i < conversations; i++) {
+            states[i] = StateFixtures.sampleState(StateFixtures.conversationId(i), historySize);
+            service.saveState(states[i].conversationId(), states[i]);
+        }
+    }
+
+    @Benchmark
+    public Optional<DialogueState> get() {
+        return service.getState(StateFixtures.conversationId(ThreadLocalRandom.current().nextInt(conversations)));
+    }
+
+    @Benchmark
+    public void save() {
+        DialogueState state = states[ThreadLocalRandom.current().nextInt(conversations)];
+        service.saveState(state.conversationId(), state);
+    }
+
+    @Benchmark
+    public DialogueState turnRoundTrip() {
+        DialogueState original = states[ThreadLocalRandom.current().nextInt(conversations)];
+        DialogueState next = service.getState(original.conversationId()).orElseThrow()
+            .withMessage(ChatMessage.user("我的职业是工程师"));
+        service.saveState(original.conversationId(), next);
+        // 写回原状态，避免历史在测量过程中不断变长
+        service.saveState(original.conversationId(), original);
+        return next;
+    }
+}
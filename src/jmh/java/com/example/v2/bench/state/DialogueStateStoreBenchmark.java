@@ -0,0 +1,80 @@
+package com.example.v2.bench.state;
+
+import com.example.v2.state.DialogueState;
+import com.example.v2.state.DialogueStateCache;
+import com.example.v2.state.DialogueStateStore;
+import com.example.v2.state.InMemoryDialogueStateStore;
+import com.example.v2.state.MappedJournalDialogueStateStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 状态存储的保存/读取延迟。
+ * backend: memory = 进程内缓存；journal = 内存映射日志（周期刷盘）；journal-durable = 每次保存等待组提交刷盘。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DialogueStateStoreBenchmark {
+
+    @Param({"memory", "journal", "journal-durable"})
+    public String backend;
+
+    @Param({"100000"})
+    public int conversations;
+
+    @Param({"6"})
+    public int historySize;
+
+    private DialogueStateStore store;
+    private DialogueState[] states;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        store = switch (backend) {
+            case "memory" -> new InMemoryDialogueStateStore(new DialogueStateCache(
+                Duration.ofMinutes(30), Integer.MAX_VALUE, Long.MAX_VALUE, Duration.ofMinutes(1), List.of()));
+            case "journal", "journal-durable" -> {
+                directory = Files.createTempDirectory("dialogue-journal-bench");
+                yield new MappedJournalDialogueStateStore(directory, 64 << 20, backend.equals("journal-durable"),
+                    Duration.ofMillis(2), Duration.ofSeconds(5), 0.5, 16,
+                    Duration.ofHours(1), Integer.MAX_VALUE, Long.MAX_VALUE, Duration.ofHours(1), List.of());
+            }
+            default -> throw new IllegalArgumentException(backend);
+        };
+        states = new DialogueState[conversations];
+        for (int i = 0; i < conversations; i++) {
+            states[i] = StateFixtures.sampleState(StateFixtures.conversationId(i), historySize);
+            store.put(states[i].conversationId(), states[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ((AutoCloseable) store).close();
+        StateFixtures.deleteRecursively(directory);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void save() {
+        DialogueState state = states[ThreadLocalRandom.current().nextInt(conversations)];
+        store.put(state.conversationId(), state);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public DialogueState get() {
+        return store.get(StateFixtures.conversationId(ThreadLocalRandom.current().nextInt(conversations))).orElseThrow();
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.v2.bench.state;
+
+import com.example.v2.state.MappedJournalDialogueStateStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志存储的启动恢复耗时：预先写入 conversations 个会话（每个会话覆盖写两次，模拟多轮对话），
+ * 然后测量重新打开存储、扫描日志重建索引所需的时间。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JournalRecoveryBenchmark {
+
+    @Param({"1000000"})
+    public int conversations;
+
+    private Path directory;
+    private MappedJournalDialogueStateStore recovered;
+
+    @Setup(Level.Trial)
+    public void writeJournal() throws Exception {
+        directory = Files.createTempDirectory("dialogue-journal-recovery");
+        try (MappedJournalDialogueStateStore store = open()) {
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < conversations; i++) {
+                    String id = StateFixtures.conversationId(i);
+                    store.put(id, StateFixtures.sampleState(id, 2 + 2 * round));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public long recover() {
+        recovered = open();
+        return recovered.size();
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeRecovered() {
+        if (recovered != null) recovered.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteJournal() {
+        StateFixtures.deleteRecursively(directory);
+    }
+
+    private MappedJournalDialogueStateStore open() {
+        // 压缩间隔设得足够长，避免后台压缩干扰测量
+        return new MappedJournalDialogueStateStore(directory, 64 << 20, false,
+            Duration.ofMillis(10), Duration.ofHours(1), 0.5, Integer.MAX_VALUE,
+            Duration.ofHours(1), Integer.MAX_VALUE, Long.MAX_VALUE, Duration.ofHours(1), List.of());
+    }
+}
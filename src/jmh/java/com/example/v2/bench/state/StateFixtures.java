@@ -0,0 +1,59 @@
+package com.example.v2.bench.state;
+
+import com.example.v2.state.ChatHistory;
+import com.example.v2.state.ChatMessage;
+import com.example.v2.state.DialogueState;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * 基准测试共用的对话状态样本：一个收集到一半槽位、带几轮历史的开户任务。
+ */
+final class StateFixtures {
+
+    private StateFixtures() {}
+
+    static String conversationId(int i) {
+        return "conv-" + i;
+    }
+
+    static DialogueState sampleState(String conversationId, int historySize) {
+        Set<String> required = new LinkedHashSet<>(List.of("user_name", "id_card_number", "phone_number"));
+        Map<String, Object> collected = new HashMap<>();
+        collected.put("user_name", "张三");
+        collected.put("userId", conversationId);
+        ChatHistory history = ChatHistory.empty();
+        for (int i = 0; i < historySize; i++) {
+            history = history.append(message(i));
+        }
+        return new DialogueState(conversationId, "open_account", required, collected,
+            DialogueState.Status.GATHERING_INFO, history);
+    }
+
+    static ChatMessage message(int i) {
+        return i % 2 == 0
+            ? ChatMessage.user("我想开个户，我叫张三，第 " + i + " 轮")
+            : ChatMessage.assistant("好的，请提供您的身份证号码。");
+    }
+
+    static void deleteRecursively(Path directory) {
+        if (directory == null || !Files.exists(directory)) return;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.v2.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 出站LLM调用的放行控制装饰器，在调用到达服务商之前按自适应的并发上限、速率配额和优先级排队，
+ * 避免突发流量把服务商打出429，再把429变成一串重试和500。每个端点（每个密钥的配额）各用一个实例，
+ * 包在路由层之内，对冲和故障转移发出的调用同样计入所到端点的名额和配额。
+ * <ul>
+ *   <li>优先级：进行中的任务（意图识别、槽位提取、结果总结）先于闲聊，闲聊先于后台的历史摘要；</li>
+ *   <li>配额：每次调用按提示词估算的Token数加上预期的回复长度预扣，响应后按 usage 修正；</li>
+ *   <li>重试：429 以及带 Retry-After 的 503 按服务商给出的时间（没有时按指数退避）暂停该端点的所有调用后重试，
+ *       流式调用只在尚未推送任何片段时重试；</li>
+ *   <li>过载：排队已满、等待超时或重试用尽时抛出 {@link LlmOverloadedException}，由接口层返回 503；</li>
+ *   <li>指标（都带 endpoint 标签）：llm.admission.limit / inflight / queued、llm.admission.wait (stage / outcome: admitted|rejected)、
+ *       llm.admission.throttled (stage / status)、llm.admission.retries (stage)。</li>
+ * </ul>
+ */
+public class AdmissionControlledChatClient implements StreamingChatClient {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionControlledChatClient.class);
+
+    /**
+     * @param initialLimit 初始并发上限。
+     * @param minLimit 并发上限的下限。
+     * @param maxLimit 并发上限的上限。
+     * @param backoffRatio 被限流时并发上限乘以的系数。
+     * @param latencyTolerance 一个窗口内过半调用的耗时超过所属阶段平滑基线的这个倍数时视为拥塞，并发上限收缩。
+     * @param requestsPerMinute 每分钟请求数配额，0 表示不限。
+     * @param tokensPerMinute 每分钟Token配额，0 表示不限。
+     * @param burst 令牌桶容量对应的时长，即允许的突发量。
+     * @param maxQueue 排队等待放行的调用数上限。
+     * @param maxWait 单次调用排队的最长时间。
+     * @param maxRetries 被限流后的最多重试次数。
+     * @param retryBackoff 服务商没有给出 Retry-After 时的首次退避时长，之后逐次加倍。
+     * @param expectedCompletionTokens 预扣的回复Token数。
+     */
+    public record Settings(
+        int initialLimit,
+        int minLimit,
+        int maxLimit,
+        double backoffRatio,
+        double latencyTolerance,
+        int requestsPerMinute,
+        int tokensPerMinute,
+        Duration burst,
+        int maxQueue,
+        Duration maxWait,
+        int maxRetries,
+        Duration retryBackoff,
+        int expectedCompletionTokens
+    ) {}
+
+    private final ChatClient delegate;
+    private final Settings settings;
+    private final String endpoint;
+    private final LlmAdmissionController controller;
+    private final MeterRegistry registry;
+
+    /**
+     * @param endpoint 端点名称，用作所有指标的 endpoint 标签。
+     */
+    public AdmissionControlledChatClient(ChatClient delegate, Settings settings, String endpoint, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.settings = settings;
+        this.endpoint = endpoint;
+        this.registry = registry;
+        this.controller = new LlmAdmissionController(settings.initialLimit(), settings.minLimit(), settings.maxLimit(),
+            settings.backoffRatio(), settings.latencyTolerance(), settings.requestsPerMinute(), settings.tokensPerMinute(),
+            settings.burst(), settings.maxQueue(), settings.retryBackoff());
+        Gauge.builder("llm.admission.limit", controller, LlmAdmissionController::limit)
+            .description("LLM调用当前的自适应并发上限")
+            .tag("endpoint", endpoint)
+            .register(registry);
+        Gauge.builder("llm.admission.inflight", controller, LlmAdmissionController::inFlight)
+            .description("正在进行的LLM调用数")
+            .tag("endpoint", endpoint)
+            .register(registry);
+        Gauge.builder("llm.admission.queued", controller, LlmAdmissionController::queued)
+            .description("排队等待放行的LLM调用数")
+            .tag("endpoint", endpoint)
+            .register(registry);
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return admitted(prompt, null);
+    }
+
+    @Override
+    public ChatResponse stream(Prompt prompt, Consumer<String> onDelta) {
+        return admitted(prompt, onDelta);
+    }
+
+    /**
+     * @param onDelta 为null时是非流式调用。
+     */
+    private ChatResponse admitted(Prompt prompt, Consumer<String> onDelta) {
+        ChatStage stage = prompt.options() == null ? null : prompt.options().stage();
+        int reserved = TokenEstimator.estimate(prompt) + settings.expectedCompletionTokens();
+        boolean streaming = onDelta != null;
+        boolean[] emitted = new boolean[1];
+        Consumer<String> tracking = onDelta == null ? null : delta -> {
+            emitted[0] = true;
+            onDelta.accept(delta);
+        };
+        Duration backoff = settings.retryBackoff();
+        for (int attempt = 0; ; attempt++) {
+            acquire(stage, reserved);
+            long start = System.nanoTime();
+            try {
+                ChatResponse response = invoke(prompt, tracking);
+                ChatResponse.Usage usage = response.usage();
+                double correction = usage == null ? 0 : usage.totalTokens() - reserved;
+                controller.release(LlmAdmissionController.Signal.SUCCESS, stage, streaming, System.nanoTime() - start, correction, Duration.ZERO);
+                return response;
+            } catch (HttpStatusCodeException e) {
+                Duration retryAfter = retryAfter(e.getResponseHeaders());
+                boolean throttled = e.getStatusCode().value() == HttpStatus.TOO_MANY_REQUESTS.value()
+                    || (e.getStatusCode().value() == HttpStatus.SERVICE_UNAVAILABLE.value() && retryAfter != null);
+                if (!throttled) {
+                    controller.release(e.getStatusCode().is5xxServerError() ? LlmAdmissionController.Signal.DROPPED
+                        : LlmAdmissionController.Signal.IGNORED, stage, streaming, System.nanoTime() - start, 0, Duration.ZERO);
+                    throw e;
+                }
+                Duration pause = retryAfter != null ? retryAfter : backoff;
+                backoff = backoff.multipliedBy(2);
+                // 被限流的请求通常不计入服务商的Token配额，预扣的全部退还
+                controller.release(LlmAdmissionController.Signal.RATE_LIMITED, stage, streaming, System.nanoTime() - start, -reserved, pause);
+                throttled(stage, e.getStatusCode().value());
+                if (attempt >= settings.maxRetries() || emitted[0]) {
+                    throw new LlmOverloadedException("LLM服务商限流", pause, e);
+                }
+                retried(stage);
+                log.atInfo().setMessage("[LLM放行] 服务商限流，暂停后重试")
+                    .addKeyValue("stage", stageTag(stage))
+                    .addKeyValue("status", e.getStatusCode().value())
+                    .addKeyValue("pauseMs", pause.toMillis())
+                    .addKeyValue("attempt", attempt + 1)
+                    .log();
+            } catch (ResourceAccessException e) {
+                // 超时或连接失败：不重试，只收缩并发上限；被取消的调用（并发识别、对冲中落败的一方）与服务商容量无关
+                controller.release(cancelled(e) ? LlmAdmissionController.Signal.IGNORED : LlmAdmissionController.Signal.DROPPED,
+                    stage, streaming, System.nanoTime() - start, 0, Duration.ZERO);
+                throw e;
+            } catch (RuntimeException | Error e) {
+                controller.release(LlmAdmissionController.Signal.IGNORED, stage, streaming, System.nanoTime() - start, 0, Duration.ZERO);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 调用线程被中断（Future.cancel(true)）时，传输层抛出 InterruptedIOException；
+     * 它的子类 SocketTimeoutException 是真正的超时，不算取消。
+     */
+    private static boolean cancelled(ResourceAccessException e) {
+        return Thread.currentThread().isInterrupted()
+            || (e.getCause() instanceof InterruptedIOException cause && !(cause instanceof SocketTimeoutException));
+    }
+
+    private void acquire(ChatStage stage, int reserved) {
+        long start = System.nanoTime();
+        String outcome = "rejected";
+        try {
+            controller.acquire(priority(stage), reserved, start + settings.maxWait().toNanos());
+            outcome = "admitted";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmOverloadedException("等待LLM调用名额时被中断", settings.retryBackoff(), e);
+        } finally {
+            Timer.builder("llm.admission.wait")
+                .description("LLM调用排队等待放行的时间")
+                .tag("endpoint", endpoint)
+                .tag("stage", stageTag(stage))
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private ChatResponse invoke(Prompt prompt, Consumer<String> onDelta) {
+        if (onDelta == null) return delegate.call(prompt);
+        if (delegate instanceof StreamingChatClient streamingDelegate) return streamingDelegate.stream(prompt, onDelta);
+        ChatResponse response = delegate.call(prompt);
+        if (response.result().content() != null) onDelta.accept(response.result().content());
+        return response;
+    }
+
+    /**
+     * 数字越小越优先：用户正在办理的任务最先，闲聊其次，后台的历史摘要最后。
+     */
+    private static int priority(ChatStage stage) {
+        if (stage == null) return 1;
+        return switch (stage) {
+            case EXTRACTION, DIGRESSION_CHECK, SUMMARIZATION -> 0;
+            case CHAT -> 1;
+            case HISTORY_SUMMARY -> 2;
+        };
+    }
+
+    /**
+     * Retry-After 可以是秒数，也可以是 HTTP 日期 (RFC 1123)。
+     * @return 没有或无法解析时为null。
+     */
+    static Duration retryAfter(HttpHeaders headers) {
+        String value = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.isBlank()) return null;
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.strip())));
+        } catch (NumberFormatException e) {
+            try {
+                Duration until = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value.strip(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return until.isNegative() ? Duration.ZERO : until;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
+        }
+    }
+
+    private void throttled(ChatStage stage, int status) {
+        Counter.builder("llm.admission.throttled")
+            .description("服务商限流 (429/503) 的次数")
+            .tag("endpoint", endpoint)
+            .tag("stage", stageTag(stage))
+            .tag("status", String.valueOf(status))
+            .register(registry)
+            .increment();
+    }
+
+    private void retried(ChatStage stage) {
+        Counter.builder("llm.admission.retries")
+            .description("被限流后重试的次数")
+            .tag("endpoint", endpoint)
+            .tag("stage", stageTag(stage))
+            .register(registry)
+            .increment();
+    }
+
+    private static String stageTag(ChatStage stage) {
+        return stage == null ? "unknown" : stage.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.v2.chat;
+
+import com.example.v2.state.ChatMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 按提示词精确匹配的LLM响应缓存，只对显式开启的阶段生效（例如闲聊问候、相同工作流结果的总结）；
+ * 依赖会话状态的阶段（意图识别、槽位提取）默认不缓存。
+ * <ul>
+ *   <li>键：模型、阶段、工具集合（排序后）和消息内容的SHA-256。每个阶段可以配置只取最后N条消息：
+ *       开头的系统提示词总是参与计算，其余消息只取最后N条，这样同一句问候在不同会话中也能命中。
+ *       窗口内没有助手回复时向前扩展到上一条助手回复，“为什么？”这类追问的含义取决于它，不能跨会话复用；</li>
+ *   <li>淘汰：条数上限（最久未访问优先）和写入后的存活时间；</li>
+ *   <li>合并：同一个键已有请求在途时，后来者等待它的结果，不再重复调用；在途请求失败时一起失败，失败的结果不缓存；</li>
+ *   <li>指标：llm.cache.requests (stage / result: hit|miss|coalesced)、llm.cache.evictions (cause: size|expired)、llm.cache.size。</li>
+ * </ul>
+ * 流式调用命中缓存或等待在途请求时，整段回复作为一个片段推送。
+ */
+public class CachingChatClient implements StreamingChatClient {
+
+    private static final Logger log = LoggerFactory.getLogger(CachingChatClient.class);
+
+    private record Entry(ChatResponse response, long expiresAtNanos) {}
+
+    private final ChatClient delegate;
+    private final String model;
+    private final Map<ChatStage, Integer> messageWindows;
+    private final long ttlNanos;
+    private final MeterRegistry registry;
+
+    // 访问顺序的LinkedHashMap即LRU；读写都很轻，相对LLM调用的耗时一把锁足够
+    private final LinkedHashMap<String, Entry> entries;
+    private final Map<String, CompletableFuture<ChatResponse>> inFlight = new ConcurrentHashMap<>();
+    private final Counter sizeEvictions;
+    private final Counter expiredEvictions;
+
+    /**
+     * @param model 请求使用的模型，参与键的计算，换模型后旧的缓存自然失效。
+     * @param messageWindows 开启缓存的阶段及其消息窗口：系统提示词之后只取最后N条消息参与键的计算，0 表示全部消息。
+     * @param maxEntries 缓存条数上限。
+     * @param ttl 写入后的存活时间。
+     */
+    public CachingChatClient(ChatClient delegate, String model, Map<ChatStage, Integer> messageWindows,
+                             int maxEntries, Duration ttl, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.model = model;
+        this.messageWindows = messageWindows.isEmpty() ? Map.of() : new EnumMap<>(messageWindows);
+        this.ttlNanos = ttl.toNanos();
+        this.registry = registry;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxEntries) return false;
+                sizeEvictions.increment();
+                return true;
+            }
+        };
+        this.sizeEvictions = evictions("size");
+        this.expiredEvictions = evictions("expired");
+        Gauge.builder("llm.cache.size", this, CachingChatClient::size)
+            .description("LLM响应缓存的条数")
+            .register(registry);
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return cached(prompt, null);
+    }
+
+    @Override
+    public ChatResponse stream(Prompt prompt, Consumer<String> onDelta) {
+        return cached(prompt, onDelta);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * @param onDelta 为null时是非流式调用。
+     */
+    private ChatResponse cached(Prompt prompt, Consumer<String> onDelta) {
+        ChatStage stage = prompt.options() == null ? null : prompt.options().stage();
+        Integer window = stage == null ? null : messageWindows.get(stage);
+        if (window == null) return invoke(prompt, onDelta);
+
+        String key = key(prompt, stage, window);
+        ChatResponse hit = lookup(key);
+        if (hit != null) {
+            record(stage, "hit");
+            log.atDebug().setMessage("[LLM缓存] 命中").addKeyValue("stage", stageTag(stage)).log();
+            return replay(hit, onDelta);
+        }
+
+        CompletableFuture<ChatResponse> mine = new CompletableFuture<>();
+        CompletableFuture<ChatResponse> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            record(stage, "coalesced");
+            return replay(await(running), onDelta);
+        }
+        record(stage, "miss");
+        try {
+            ChatResponse response = invoke(prompt, onDelta);
+            store(key, response);
+            mine.complete(response);
+            return response;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private ChatResponse invoke(Prompt prompt, Consumer<String> onDelta) {
+        if (onDelta == null) return delegate.call(prompt);
+        if (delegate instanceof StreamingChatClient streamingDelegate) return streamingDelegate.stream(prompt, onDelta);
+        return replay(delegate.call(prompt), onDelta);
+    }
+
+    private static ChatResponse replay(ChatResponse response, Consumer<String> onDelta) {
+        if (onDelta != null && response.result().content() != null) onDelta.accept(response.result().content());
+        return response;
+    }
+
+    private static ChatResponse await(CompletableFuture<ChatResponse> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error cause) throw cause;
+            throw e;
+        }
+    }
+
+    private ChatResponse lookup(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) return null;
+            if (System.nanoTime() - entry.expiresAtNanos() >= 0) {
+                entries.remove(key);
+                expiredEvictions.increment();
+                return null;
+            }
+            return entry.response();
+        }
+    }
+
+    private void store(String key, ChatResponse response) {
+        synchronized (entries) {
+            entries.put(key, new Entry(response, System.nanoTime() + ttlNanos));
+        }
+    }
+
+    /**
+     * 模型、阶段、排序后的工具名和参与计算的各条消息依次写入摘要，各部分之间用不会出现在JSON中的分隔符隔开。
+     */
+    private String key(Prompt prompt, ChatStage stage, int window) {
+        MessageDigest digest = sha256();
+        update(digest, model);
+        update(digest, stage.name());
+        if (prompt.options().functions() != null) {
+            for (String function : new TreeSet<>(prompt.options().functions())) update(digest, function);
+        }
+        List<Object> messages = prompt.messages();
+        int leadingSystem = 0;
+        while (leadingSystem < messages.size() && isSystem(messages.get(leadingSystem))) leadingSystem++;
+        int from = window == 0 ? leadingSystem : Math.max(leadingSystem, messages.size() - window);
+        if (!containsAssistant(messages, from)) {
+            for (int i = from - 1; i >= leadingSystem; i--) {
+                if (isAssistant(messages.get(i))) {
+                    from = i;
+                    break;
+                }
+            }
+        }
+        try {
+            for (int i = 0; i < leadingSystem; i++) update(digest, ChatCompletionCodec.JSON.writeValueAsBytes(messages.get(i)));
+            for (int i = from; i < messages.size(); i++) update(digest, ChatCompletionCodec.JSON.writeValueAsBytes(messages.get(i)));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("无法序列化提示词消息", e);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static boolean containsAssistant(List<Object> messages, int from) {
+        for (int i = from; i < messages.size(); i++) {
+            if (isAssistant(messages.get(i))) return true;
+        }
+        return false;
+    }
+
+    private static boolean isAssistant(Object message) {
+        return message instanceof AssistantMessage
+            || (message instanceof ChatMessage chatMessage && chatMessage.role() == ChatMessage.Role.ASSISTANT);
+    }
+
+    private static boolean isSystem(Object message) {
+        return message instanceof SystemMessage
+            || (message instanceof ChatMessage chatMessage && chatMessage.role() == ChatMessage.Role.SYSTEM);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        update(digest, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void update(MessageDigest digest, byte[] value) {
+        digest.update(value);
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void record(ChatStage stage, String result) {
+        Counter.builder("llm.cache.requests")
+            .description("LLM响应缓存的查询次数")
+            .tag("stage", stageTag(stage))
+            .tag("result", result)
+            .register(registry)
+            .increment();
+    }
+
+    private Counter evictions(String cause) {
+        return Counter.builder("llm.cache.evictions")
+            .description("LLM响应缓存淘汰的条数")
+            .tag("cause", cause)
+            .register(registry);
+    }
+
+    private static String stageTag(ChatStage stage) {
+        return stage.name().toLowerCase(Locale.ROOT);
+    }
+}
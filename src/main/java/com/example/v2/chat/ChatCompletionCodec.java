@@ -0,0 +1,279 @@
+package com.example.v2.chat;
+
+import com.example.v2.state.ChatMessage;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.StreamReadFeature;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Chat Completions 接口的JSON编解码。所有客户端共用一组预先配置好的 ObjectMapper / ObjectReader，它们是线程安全的只读对象。
+ * <ul>
+ *   <li>请求：JsonGenerator 把模型、消息和预先序列化的工具定义直接写进请求体的输出流，不构造中间的Map；</li>
+ *   <li>响应：从输入流直接绑定到 {@link Completion}，不经过Map，也不再 convertValue 一次；</li>
+ *   <li>SSE：按字节切分 "data:" 行，每个事件从字节数组直接绑定到 {@link Chunk}，不先解码成字符串，也不建JSON树。</li>
+ * </ul>
+ * 协议层的配置与应用里其他地方的 Jackson 配置无关，服务商新增的字段一律忽略。
+ */
+final class ChatCompletionCodec {
+
+    /**
+     * 协议层共用的ObjectMapper。读写都不关闭调用方的流：请求体的流归HTTP请求所有；
+     * 响应体读到JSON结束时可能还有尾随的字节，要由响应的 close() 决定读完以复用连接还是直接断开。
+     */
+    static final ObjectMapper JSON = JsonMapper.builder()
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+        .disable(StreamWriteFeature.AUTO_CLOSE_TARGET)
+        .disable(StreamReadFeature.AUTO_CLOSE_SOURCE)
+        .build();
+
+    /**
+     * 非流式响应中用到的字段。
+     */
+    record Completion(List<Choice> choices, ChatResponse.Usage usage) {}
+
+    record Choice(AssistantMessage message) {}
+
+    /**
+     * 流式响应中的一个事件。最后一个事件的 choices 为空，只带 usage。
+     */
+    record Chunk(List<ChunkChoice> choices, ChatResponse.Usage usage) {}
+
+    record ChunkChoice(Delta delta) {}
+
+    record Delta(String content, @JsonProperty("tool_calls") List<ToolCallDelta> toolCalls) {}
+
+    /**
+     * 工具调用的一个分片：同一个 index 的分片依次拼接成完整的调用，名称和id只在第一个分片中出现。
+     */
+    record ToolCallDelta(int index, String id, String type, AssistantMessage.Function function) {}
+
+    private static final ObjectReader COMPLETION_READER = JSON.readerFor(Completion.class);
+    private static final ObjectReader CHUNK_READER = JSON.readerFor(Chunk.class);
+
+    private static final byte[] DATA = {'d', 'a', 't', 'a', ':'};
+    private static final byte[] DONE = {'[', 'D', 'O', 'N', 'E', ']'};
+
+    private ChatCompletionCodec() {}
+
+    /**
+     * 把请求体写进输出流。
+     * @param toolsJson 预先序列化好的 tools 数组，原样写出；为null时不带工具。
+     * @param stream 为 true 时请求流式响应，并让服务商在流的最后一个事件里附带Token用量。
+     */
+    static void writeRequest(OutputStream out, String model, Prompt prompt, String toolsJson, boolean stream) throws IOException {
+        try (JsonGenerator generator = JSON.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeStringField("model", model);
+            generator.writeArrayFieldStart("messages");
+            for (Object message : prompt.messages()) writeMessage(generator, message);
+            generator.writeEndArray();
+            if (toolsJson != null) {
+                generator.writeFieldName("tools");
+                generator.writeRawValue(toolsJson);
+                generator.writeStringField("tool_choice", "auto");
+            }
+            if (stream) {
+                generator.writeBooleanField("stream", true);
+                generator.writeObjectFieldStart("stream_options");
+                generator.writeBooleanField("include_usage", true);
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * 已知的消息类型直接写出 role 和 content，其他类型交给Jackson按其自身的注解序列化。
+     */
+    private static void writeMessage(JsonGenerator generator, Object message) throws IOException {
+        if (message instanceof ChatMessage chatMessage) {
+            writeMessage(generator, chatMessage.role().value(), chatMessage.content());
+        } else if (message instanceof SystemMessage systemMessage) {
+            writeMessage(generator, systemMessage.role(), systemMessage.content());
+        } else if (message instanceof UserMessage userMessage) {
+            writeMessage(generator, userMessage.role(), userMessage.content());
+        } else {
+            generator.writeObject(message);
+        }
+    }
+
+    private static void writeMessage(JsonGenerator generator, String role, String content) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("role", role);
+        generator.writeStringField("content", content);
+        generator.writeEndObject();
+    }
+
+    /**
+     * 解析非流式响应，只取第一个候选。
+     * @throws IllegalStateException 响应中没有候选消息时。这是一次成功的交换，不能按IOException抛出：
+     *         RestTemplate 会把它包成 ResourceAccessException，被当作端点故障和拥塞信号。
+     */
+    static ChatResponse readResponse(InputStream body) throws IOException {
+        Completion completion = COMPLETION_READER.readValue(body);
+        if (completion.choices() == null || completion.choices().isEmpty() || completion.choices().get(0).message() == null) {
+            throw new IllegalStateException("服务商响应中没有候选消息");
+        }
+        return new ChatResponse(completion.choices().get(0).message(), completion.usage());
+    }
+
+    /**
+     * 读取服务商返回的SSE流 ("data: {...}" 行，以 "data: [DONE]" 结束)。
+     * 文本片段一到达就回调给调用方；工具调用的名称和参数按 index 分片到达，在这里拼接完整。
+     */
+    static ChatResponse readEventStream(InputStream body, Consumer<String> onDelta) throws IOException {
+        StringBuilder content = new StringBuilder();
+        ChatResponse.Usage usage = null;
+        SortedMap<Integer, ToolCallBuilder> toolCalls = null; // 只有带工具调用的流才创建
+
+        LineReader lines = new LineReader(body);
+        while (lines.next()) {
+            if (!lines.startsWith(DATA)) continue;
+            int from = lines.skipSpaces(DATA.length);
+            if (lines.equals(from, DONE)) break;
+            if (from == lines.length()) continue;
+
+            Chunk chunk = CHUNK_READER.readValue(lines.buffer(), from, lines.length() - from);
+            if (chunk.usage() != null) usage = chunk.usage();
+            if (chunk.choices() == null || chunk.choices().isEmpty()) continue;
+            Delta delta = chunk.choices().get(0).delta();
+            if (delta == null) continue;
+
+            String text = delta.content();
+            if (text != null && !text.isEmpty()) {
+                content.append(text);
+                onDelta.accept(text);
+            }
+            if (delta.toolCalls() == null) continue;
+            if (toolCalls == null) toolCalls = new TreeMap<>();
+            for (ToolCallDelta toolCallDelta : delta.toolCalls()) {
+                toolCalls.computeIfAbsent(toolCallDelta.index(), i -> new ToolCallBuilder()).append(toolCallDelta);
+            }
+        }
+
+        List<AssistantMessage.ToolCall> calls = null;
+        if (toolCalls != null && !toolCalls.isEmpty()) {
+            calls = new ArrayList<>(toolCalls.size());
+            for (ToolCallBuilder builder : toolCalls.values()) calls.add(builder.build());
+        }
+        return new ChatResponse(new AssistantMessage(content.length() == 0 ? null : content.toString(), calls), usage);
+    }
+
+    /**
+     * 流式模式下逐片累积单个工具调用。
+     */
+    private static class ToolCallBuilder {
+        private String id;
+        private String type = "function";
+        private String name;
+        private final StringBuilder arguments = new StringBuilder();
+
+        void append(ToolCallDelta delta) {
+            if (delta.id() != null) id = delta.id();
+            if (delta.type() != null) type = delta.type();
+            if (delta.function() == null) return;
+            if (delta.function().name() != null) name = delta.function().name();
+            if (delta.function().arguments() != null) arguments.append(delta.function().arguments());
+        }
+
+        AssistantMessage.ToolCall build() {
+            return new AssistantMessage.ToolCall(id, type, new AssistantMessage.Function(name, arguments.toString()));
+        }
+    }
+
+    /**
+     * 按字节逐行读取，行内容留在复用的缓冲区中；去掉行尾的 "\n" 或 "\r\n"。
+     * SSE的分隔符都是ASCII，按字节切分不会切断UTF-8多字节字符。
+     */
+    private static final class LineReader {
+        private final InputStream in;
+        private final byte[] chunk = new byte[8192];
+        private int chunkPos;
+        private int chunkEnd;
+        private byte[] line = new byte[1024];
+        private int length;
+
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return 读到一行时为 true；流结束且没有剩余内容时为 false。
+         */
+        boolean next() throws IOException {
+            length = 0;
+            boolean any = false;
+            while (true) {
+                if (chunkPos == chunkEnd) {
+                    chunkEnd = in.read(chunk);
+                    chunkPos = 0;
+                    if (chunkEnd <= 0) {
+                        chunkEnd = 0;
+                        return any;
+                    }
+                }
+                any = true;
+                int start = chunkPos;
+                while (chunkPos < chunkEnd && chunk[chunkPos] != '\n') chunkPos++;
+                append(start, chunkPos);
+                if (chunkPos < chunkEnd) {
+                    chunkPos++; // 跳过 '\n'
+                    if (length > 0 && line[length - 1] == '\r') length--;
+                    return true;
+                }
+            }
+        }
+
+        private void append(int from, int to) {
+            int count = to - from;
+            if (length + count > line.length) line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+            System.arraycopy(chunk, from, line, length, count);
+            length += count;
+        }
+
+        byte[] buffer() {
+            return line;
+        }
+
+        int length() {
+            return length;
+        }
+
+        boolean startsWith(byte[] prefix) {
+            return length >= prefix.length && Arrays.equals(line, 0, prefix.length, prefix, 0, prefix.length);
+        }
+
+        /**
+         * @return 从 from 开始第一个非空格字符的位置。
+         */
+        int skipSpaces(int from) {
+            while (from < length && line[from] == ' ') from++;
+            return from;
+        }
+
+        /**
+         * 从 from 开始到行尾（忽略行尾空格）恰好是 value。
+         */
+        boolean equals(int from, byte[] value) {
+            int end = length;
+            while (end > from && line[end - 1] == ' ') end--;
+            return end - from == value.length && Arrays.equals(line, from, end, value, 0, value.length);
+        }
+    }
+}
@@ -5,5 +5,11 @@ import java.util.Set;
 /**
  * 我们自定义的ChatOptions DTO，模仿Spring AI。
  * @param functions 本次调用启用的函数名称集合。
+ * @param stage 本次调用所处的对话阶段，用于指标标签；可以为null。
  */
-public record ChatOptions(Set<String> functions) {}
\ No newline at end of file
+public record ChatOptions(Set<String> functions, ChatStage stage) {
+
+    public ChatOptions(Set<String> functions) {
+        this(functions, null);
+    }
+}
@@ -1,6 +1,26 @@
 package com.example.v2.chat;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 /**
  * 我们自定义的ChatResponse DTO，模仿Spring AI。
+ * @param result LLM返回的消息。
+ * @param usage 服务商返回的Token用量；服务商未返回时为null。
  */
-public record ChatResponse(AssistantMessage result) {}
+public record ChatResponse(AssistantMessage result, Usage usage) {
+
+    public ChatResponse(AssistantMessage result) {
+        this(result, null);
+    }
+
+    /**
+     * 对应服务商响应中的 usage 字段。
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Usage(
+        @JsonProperty("prompt_tokens") int promptTokens,
+        @JsonProperty("completion_tokens") int completionTokens,
+        @JsonProperty("total_tokens") int totalTokens
+    ) {}
+}
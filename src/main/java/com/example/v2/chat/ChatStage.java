@@ -0,0 +1,35 @@
+package com.example.v2.chat;
+
+/**
+ * 一次LLM调用所处的对话阶段。
+ * 用作调用指标的标签；提示词Token预算按 {@link #budget()} 归类的阶段计算。
+ */
+public enum ChatStage {
+    /** 意图识别与槽位提取 */
+    EXTRACTION,
+    /** 检查用户是否偏离当前任务（只带偏离类工具的意图识别） */
+    DIGRESSION_CHECK(EXTRACTION),
+    /** 闲聊回复 */
+    CHAT,
+    /** 工作流结果总结 */
+    SUMMARIZATION,
+    /** 后台压缩对话历史 */
+    HISTORY_SUMMARY(SUMMARIZATION);
+
+    private final ChatStage budget;
+
+    ChatStage() {
+        this.budget = this;
+    }
+
+    ChatStage(ChatStage budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * 该阶段共用哪一类提示词Token预算。
+     */
+    public ChatStage budget() {
+        return budget;
+    }
+}
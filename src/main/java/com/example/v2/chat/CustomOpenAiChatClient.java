@@ -1,54 +1,87 @@
 package com.example.v2.chat;
 
 import com.example.v2.metadata.ToolMetadataService;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.http.HttpEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.util.CollectionUtils;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
-import java.lang.reflect.Field;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 我们手写的OpenAI ChatClient核心实现。
  * 这个类封装了所有与OpenAI API交互的底层逻辑，包括函数调用的完整流程。
  */
-public class CustomOpenAiChatClient implements ChatClient {
+public class CustomOpenAiChatClient implements StreamingChatClient {
 
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper mapper = new ObjectMapper();
+    private static final Logger log = LoggerFactory.getLogger(CustomOpenAiChatClient.class);
+
+    private final RestTemplate restTemplate;
     private final String apiKey;
     private final HttpHeaderProvider headerProvider; // 请求头提供者
-    private final ToolMetadataService metadataService; // 工具元数据服务
-    private static final String OPENAI_API_URL = "https://api.openai.com/v1/chat/completions";
+    private final ToolSchemaCache toolSchemas; // 启动时预生成的工具定义
+    private final String apiUrl;
+    public static final String OPENAI_API_URL = "https://api.openai.com/v1/chat/completions";
+    public static final String MODEL = "gpt-3.5-turbo";
 
     public CustomOpenAiChatClient(String apiKey, HttpHeaderProvider headerProvider, ToolMetadataService metadataService) {
+        this(apiKey, headerProvider, metadataService, new RestTemplate());
+    }
+
+    /**
+     * @param restTemplate 承载HTTP传输层的模板，通常基于 {@link PooledHttpRequestFactory} 构建。
+     */
+    public CustomOpenAiChatClient(String apiKey, HttpHeaderProvider headerProvider, ToolMetadataService metadataService, RestTemplate restTemplate) {
+        this(apiKey, headerProvider, metadataService, restTemplate, OPENAI_API_URL);
+    }
+
+    /**
+     * @param apiUrl Chat Completions 接口地址，可以指向任何兼容OpenAI协议的服务（例如压测用的本地模拟服务）。
+     */
+    public CustomOpenAiChatClient(String apiKey, HttpHeaderProvider headerProvider, ToolMetadataService metadataService, RestTemplate restTemplate, String apiUrl) {
         this.apiKey = apiKey;
+        this.apiUrl = apiUrl;
         this.headerProvider = headerProvider;
-        this.metadataService = metadataService;
+        this.toolSchemas = new ToolSchemaCache(metadataService);
+        this.restTemplate = restTemplate;
     }
 
     @Override
     public ChatResponse call(Prompt prompt) {
-        // 将Prompt中的各种消息类型转换为通用的Map格式
-        List<Map<String, Object>> messages = prompt.messages().stream()
-            .map(m -> mapper.convertValue(m, new TypeReference<Map<String, Object>>() {}))
-            .collect(Collectors.toList());
-
-        List<Map<String, Object>> tools = buildToolsJson(prompt.options().functions());
+        // 简化版：这个客户端的职责只是调用API并返回解析后的结果，它不处理多轮工具调用的循环。
+        return exchange(prompt, false, response -> ChatCompletionCodec.readResponse(response.getBody()));
+    }
 
-        Map<String, Object> responseBody = callApi(messages, tools);
-        AssistantMessage assistantMessage = parseAssistantMessage(responseBody);
+    @Override
+    public ChatResponse stream(Prompt prompt, Consumer<String> onDelta) {
+        return exchange(prompt, true, response -> ChatCompletionCodec.readEventStream(response.getBody(), onDelta));
+    }
 
-        // 简化版：这个客户端的职责只是调用API并返回解析后的结果，它不处理多轮工具调用的循环。
-        return new ChatResponse(assistantMessage);
+    /**
+     * 请求体由 {@link ChatCompletionCodec} 直接写进HTTP请求的输出流，响应直接从输入流解析，中间不经过Map和消息转换器。
+     */
+    private ChatResponse exchange(Prompt prompt, boolean stream, ResponseExtractor<ChatResponse> extractor) {
+        // 工具定义是预先序列化好的JSON片段，原样拼接进请求体
+        String toolsJson = toolSchemas.toolsJson(prompt.options().functions());
+        HttpHeaders headers = buildHeaders();
+        headers.setAccept(List.of(stream ? MediaType.TEXT_EVENT_STREAM : MediaType.APPLICATION_JSON));
+        // 只记录请求头名称，避免把密钥写进日志
+        log.debug("[自定义客户端] 正在以{}模式调用OpenAI，请求头: {}", stream ? "流式" : "普通", headers.keySet());
+        return restTemplate.execute(apiUrl, HttpMethod.POST,
+            request -> {
+                request.getHeaders().putAll(headers);
+                ChatCompletionCodec.writeRequest(request.getBody(), MODEL, prompt, toolsJson, stream);
+            },
+            extractor);
     }
 
-    private Map<String, Object> callApi(List<Map<String, Object>> messages, List<Map<String, Object>> tools) {
+    private HttpHeaders buildHeaders() {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setBearerAuth(apiKey);
@@ -56,45 +89,6 @@ public class CustomOpenAiChatClient implements ChatClient {
         if (!CollectionUtils.isEmpty(dynamicHeaders)) {
             dynamicHeaders.forEach(headers::add);
         }
-
-        Map<String, Object> body = new HashMap<>();
-        body.put("model", "gpt-3.5-turbo");
-        body.put("messages", messages);
-        if (tools != null && !tools.isEmpty()) {
-            body.put("tools", tools);
-            body.put("tool_choice", "auto");
-        }
-
-        HttpEntity<Map<String, Object>> requestEntity = new HttpEntity<>(body, headers);
-        System.out.println("--- [自定义客户端] 正在调用OpenAI，请求头: " + headers.toSingleValueMap());
-        return restTemplate.postForObject(OPENAI_API_URL, requestEntity, Map.class);
-    }
-
-    private AssistantMessage parseAssistantMessage(Map<String, Object> responseBody) {
-        Map<String, Object> choice = ((List<Map<String, Object>>) responseBody.get("choices")).get(0);
-        Map<String, Object> message = (Map<String, Object>) choice.get("message");
-        return mapper.convertValue(message, AssistantMessage.class);
-    }
-
-    private List<Map<String, Object>> buildToolsJson(Set<String> toolNames) {
-        if (toolNames == null || toolNames.isEmpty()) return Collections.emptyList();
-        return metadataService.getAllTools().stream()
-            .filter(tool -> toolNames.contains(tool.toolName()))
-            .map(this::convertMetadataToToolJson)
-            .collect(Collectors.toList());
-    }
-
-    private Map<String, Object> convertMetadataToToolJson(ToolMetadataService.ToolMetadata metadata) {
-        Map<String, Object> properties = new HashMap<>();
-        if (metadata.requestClass() != Map.class) {
-            for (Field field : metadata.requestClass().getDeclaredFields()) {
-                properties.put(field.getName(), Map.of("type", "string", "description", ""));
-            }
-        }
-
-        Map<String, Object> functionParams = Map.of("type", "object", "properties", properties);
-        Map<String, Object> function = Map.of("name", metadata.toolName(), "description", metadata.description(), "parameters", functionParams);
-        return Map.of("type", "function", "function", function);
+        return headers;
     }
 }
-
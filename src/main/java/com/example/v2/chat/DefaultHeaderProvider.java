@@ -1,5 +1,7 @@
 package com.example.v2.chat;
 
+import com.example.v2.logging.LogContext;
+import org.slf4j.MDC;
 import org.springframework.stereotype.Component;
 
 import java.util.Map;
@@ -7,13 +9,14 @@ import java.util.UUID;
 
 /**
  * 默认的请求头提供者实现。
- * 在每次被调用时，都会生成一个唯一的追踪ID (X-Request-ID)。
+ * 追踪ID (X-Request-ID) 优先使用MDC中本轮对话的关联ID，使LLM服务商侧的请求与本地日志、指标能对应起来；
+ * 不在对话轮次内的调用，每次生成一个新的UUID。
  */
 @Component
 public class DefaultHeaderProvider implements HttpHeaderProvider {
     @Override
     public Map<String, String> getHeaders() {
-        // 每次调用都生成一个新的UUID作为追踪ID
-        return Map.of("X-Request-ID", UUID.randomUUID().toString());
+        String requestId = MDC.get(LogContext.REQUEST_ID);
+        return Map.of("X-Request-ID", requestId != null ? requestId : UUID.randomUUID().toString());
     }
 }
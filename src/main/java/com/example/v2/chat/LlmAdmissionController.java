@@ -0,0 +1,267 @@
+package com.example.v2.chat;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LLM调用的放行控制，所有状态由一把锁保护（相对LLM调用的耗时，锁内的操作可以忽略）。
+ * <ul>
+ *   <li>并发上限 (AIMD)：被限流时乘以 backoffRatio，5xx/超时乘以 0.9；延迟按窗口判断，见 {@link #onSuccess}；</li>
+ *   <li>速率：每分钟请求数与每分钟Token数两个令牌桶，Token按提示词估算预扣，响应后按实际用量多退少补；</li>
+ *   <li>排队：有界的优先队列，优先级数字小的先放行，同优先级先来先放行；只有队首在等名额，其余等待队首被放行后的通知；</li>
+ *   <li>Retry-After：服务商要求暂停时，在暂停结束之前不放行任何调用。</li>
+ * </ul>
+ */
+final class LlmAdmissionController {
+
+    enum Signal {
+        SUCCESS,      // 正常完成
+        RATE_LIMITED, // 429，或带 Retry-After 的 503
+        DROPPED,      // 其他5xx、超时、连接失败
+        IGNORED       // 与容量无关的结果（4xx、解析错误、被调用方取消等）
+    }
+
+    private static final double DROP_BACKOFF = 0.9;
+    private static final double RTT_SMOOTHING = 0.05;
+    private static final int MIN_WINDOW = 10;
+
+    private static final class Waiter {
+        final int priority;
+        final long seq;
+        final double tokens;
+        final Condition admitted;
+
+        Waiter(int priority, long seq, double tokens, Condition admitted) {
+            this.priority = priority;
+            this.seq = seq;
+            this.tokens = tokens;
+            this.admitted = admitted;
+        }
+    }
+
+    /**
+     * 连续补充的令牌桶，桶容量是 burst 时长内的配额。允许透支，透支部分由后续的补充偿还。
+     */
+    private static final class TokenBucket {
+        final double capacity;
+        final double perNano;
+        double available;
+        long lastRefill;
+
+        TokenBucket(int perMinute, Duration burst, long now) {
+            this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.capacity = Math.max(1, perNano * burst.toNanos());
+            this.available = capacity;
+            this.lastRefill = now;
+        }
+
+        /**
+         * @return 攒够 amount 还需要等待的时间；超过桶容量的请求按满桶计，否则永远不会被放行。
+         */
+        long delayNanos(double amount, long now) {
+            available = Math.min(capacity, available + (now - lastRefill) * perNano);
+            lastRefill = now;
+            double missing = Math.min(amount, capacity) - available;
+            return missing <= 0 ? 0 : (long) Math.ceil(missing / perNano);
+        }
+
+        void take(double amount) {
+            available -= Math.min(amount, capacity);
+        }
+
+        void refund(double amount) {
+            available = Math.min(capacity, available + amount);
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+        Comparator.<Waiter>comparingInt(w -> w.priority).thenComparingLong(w -> w.seq));
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final int maxQueue;
+    private final Duration defaultRetryAfter;
+    private final TokenBucket requestBucket; // null 表示不限
+    private final TokenBucket tokenBucket;
+
+    private double limit;
+    private int inFlight;
+    private long seq;
+    private long pausedUntil;
+    // 每个阶段（再区分流式与否）各自的平滑耗时基线：回复长度不同的调用耗时天然不同，共用一个基线会把长回复误判为拥塞
+    private final double[] smoothedRttNanos = new double[(ChatStage.values().length + 1) * 2];
+    private int windowSamples;
+    private int windowSlowSamples; // 耗时超过所属基线 latencyTolerance 倍的样本数
+    private int windowBusySamples; // 完成时名额用到一半以上的样本数
+
+    /**
+     * @param requestsPerMinute 每分钟请求数配额，0 表示不限。
+     * @param tokensPerMinute 每分钟Token配额，0 表示不限。
+     * @param defaultRetryAfter 拒绝时没有更具体的依据时，建议调用方的重试间隔。
+     */
+    LlmAdmissionController(int initialLimit, int minLimit, int maxLimit, double backoffRatio, double latencyTolerance,
+                           int requestsPerMinute, int tokensPerMinute, Duration burst, int maxQueue, Duration defaultRetryAfter) {
+        long now = System.nanoTime();
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyTolerance = latencyTolerance;
+        this.maxQueue = maxQueue;
+        this.defaultRetryAfter = defaultRetryAfter;
+        this.requestBucket = requestsPerMinute > 0 ? new TokenBucket(requestsPerMinute, burst, now) : null;
+        this.tokenBucket = tokensPerMinute > 0 ? new TokenBucket(tokensPerMinute, burst, now) : null;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.pausedUntil = now;
+    }
+
+    /**
+     * 排队等待放行。返回后调用方占用一个并发名额，结束时必须调用一次 {@link #release}。
+     * @param priority 数字越小越优先。
+     * @param tokens 本次调用预扣的Token数。
+     * @param deadlineNanos 最晚放行时间 ({@link System#nanoTime()})。
+     * @throws LlmOverloadedException 队列已满，或截止时间之前无法放行。
+     */
+    void acquire(int priority, double tokens, long deadlineNanos) throws InterruptedException {
+        lock.lock();
+        try {
+            if (queue.size() >= maxQueue) {
+                throw new LlmOverloadedException("LLM调用排队已满", retryAfter(System.nanoTime()));
+            }
+            Waiter waiter = new Waiter(priority, seq++, tokens, lock.newCondition());
+            queue.add(waiter);
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    long delay = queue.peek() == waiter ? admissionDelay(waiter, now) : Long.MAX_VALUE;
+                    if (delay == 0) {
+                        queue.poll();
+                        inFlight++;
+                        if (requestBucket != null) requestBucket.take(1);
+                        if (tokenBucket != null) tokenBucket.take(waiter.tokens);
+                        return;
+                    }
+                    long remaining = deadlineNanos - now;
+                    // 需要等的时间已知且超过截止时间（例如服务商要求暂停更久），不必干等到超时
+                    if (remaining <= 0 || (delay != Long.MAX_VALUE && delay > remaining)) {
+                        throw new LlmOverloadedException("等待LLM调用名额超时", retryAfter(now));
+                    }
+                    waiter.admitted.awaitNanos(Math.min(delay, remaining));
+                }
+            } finally {
+                // 放行、超时或中断后，下一个队首接着争取名额
+                queue.remove(waiter);
+                signalHead();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 归还名额，并按本次调用的结果调整并发上限。
+     * @param stage 调用所属的阶段，决定和哪个耗时基线比较；可以为null。
+     * @param streaming 是否流式调用：流式调用的耗时包含整段回复的生成，与非流式分开比较。
+     * @param rttNanos 调用耗时。
+     * @param tokenCorrection 实际用量减去预扣的Token数（为负时退还）。
+     * @param pause 服务商要求的暂停时长，仅 RATE_LIMITED 时有效。
+     */
+    void release(Signal signal, ChatStage stage, boolean streaming, long rttNanos, double tokenCorrection, Duration pause) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (tokenBucket != null) {
+                if (tokenCorrection > 0) tokenBucket.take(tokenCorrection);
+                else tokenBucket.refund(-tokenCorrection);
+            }
+            switch (signal) {
+                case SUCCESS -> onSuccess((stage == null ? ChatStage.values().length : stage.ordinal()) * 2 + (streaming ? 1 : 0), rttNanos);
+                case RATE_LIMITED -> {
+                    limit *= backoffRatio;
+                    pausedUntil = Math.max(pausedUntil, System.nanoTime() + pause.toNanos());
+                }
+                case DROPPED -> limit *= DROP_BACKOFF;
+                case IGNORED -> { }
+            }
+            limit = Math.max(minLimit, Math.min(maxLimit, limit));
+            signalHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 延迟按窗口判断，而不是逐个样本：每攒够 max(10, 当前上限) 个成功调用（约一轮），
+     * 其中过半的耗时超过各自基线的 latencyTolerance 倍时，上限乘以 0.9；
+     * 否则按窗口内名额用到一半以上的样本数加性增长（约每轮 +1），名额用不到一半时不增长，避免空闲时上限无限上涨。
+     * 个别慢调用（例如特别长的回复）不会让上限收缩。
+     * @param key 耗时基线的下标。
+     */
+    private void onSuccess(int key, long rttNanos) {
+        double baseline = smoothedRttNanos[key];
+        smoothedRttNanos[key] = baseline == 0 ? rttNanos : baseline + RTT_SMOOTHING * (rttNanos - baseline);
+        windowSamples++;
+        if (baseline > 0 && rttNanos > latencyTolerance * baseline) windowSlowSamples++;
+        if ((inFlight + 1) * 2 >= limit) windowBusySamples++;
+        if (windowSamples < Math.max(MIN_WINDOW, (int) limit)) return;
+
+        if (windowSlowSamples * 2 > windowSamples) limit *= DROP_BACKOFF;
+        else limit += windowBusySamples / limit;
+        windowSamples = 0;
+        windowSlowSamples = 0;
+        windowBusySamples = 0;
+    }
+
+    int limit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int inFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int queued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 0 表示可以立即放行；Long.MAX_VALUE 表示要等有名额归还；其余为需要等待的纳秒数。
+     */
+    private long admissionDelay(Waiter waiter, long now) {
+        if (pausedUntil - now > 0) return pausedUntil - now;
+        if (inFlight >= (int) limit) return Long.MAX_VALUE;
+        long delay = 0;
+        if (requestBucket != null) delay = Math.max(delay, requestBucket.delayNanos(1, now));
+        if (tokenBucket != null) delay = Math.max(delay, tokenBucket.delayNanos(waiter.tokens, now));
+        return delay;
+    }
+
+    private void signalHead() {
+        Waiter head = queue.peek();
+        if (head != null) head.admitted.signal();
+    }
+
+    private Duration retryAfter(long now) {
+        return pausedUntil - now > 0 ? Duration.ofNanos(pausedUntil - now) : defaultRetryAfter;
+    }
+}
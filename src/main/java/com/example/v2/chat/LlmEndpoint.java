@@ -0,0 +1,121 @@
+package com.example.v2.chat;
+
+import java.time.Duration;
+
+/**
+ * 端点池中的一个LLM端点及其健康状态，状态由对象锁保护。
+ * <ul>
+ *   <li>熔断：连续 failureThreshold 次失败（5xx、超时、连接失败）后断开 openDuration，
+ *       到期后放行一次试探调用，成功则恢复，失败则重新断开；</li>
+ *   <li>负载：在途调用数和成功调用耗时的指数平滑值，选择端点时取 (在途数 + 1) × 平滑耗时 最小的一个。</li>
+ * </ul>
+ */
+final class LlmEndpoint {
+
+    // 序号即指标 llm.endpoint.state 的取值
+    enum State { CLOSED, HALF_OPEN, OPEN }
+
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final String name;
+    private final ChatClient client;
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+    private int inFlight;
+    private double smoothedLatencyNanos;
+
+    LlmEndpoint(String name, ChatClient client, int failureThreshold, Duration openDuration) {
+        this.name = name;
+        this.client = client;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    String name() {
+        return name;
+    }
+
+    ChatClient client() {
+        return client;
+    }
+
+    /**
+     * @return 当前是否可以放行一次调用（不改变状态）。
+     */
+    synchronized boolean available(long now) {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> now - openedAt >= openNanos;
+            case HALF_OPEN -> !probing;
+        };
+    }
+
+    /**
+     * 选择端点时的负载评分，越小越好。还没有耗时数据的端点评分为0，优先被试用。
+     */
+    synchronized double score() {
+        return (inFlight + 1) * smoothedLatencyNanos;
+    }
+
+    /**
+     * 占用一次调用。断开到期后第一个调用成为试探调用，试探结束之前其余调用不放行。
+     * @return 熔断中时为 false。
+     */
+    synchronized boolean tryAcquire(long now) {
+        if (!available(now)) return false;
+        if (state != State.CLOSED) {
+            state = State.HALF_OPEN;
+            probing = true;
+        }
+        inFlight++;
+        return true;
+    }
+
+    synchronized void onSuccess(long latencyNanos) {
+        inFlight--;
+        probing = false;
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        smoothedLatencyNanos = smoothedLatencyNanos == 0 ? latencyNanos
+            : smoothedLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - smoothedLatencyNanos);
+    }
+
+    /**
+     * @return 本次失败使端点进入熔断时为 true。
+     */
+    synchronized boolean onFailure(long now) {
+        inFlight--;
+        probing = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 与端点健康无关的结束（4xx、限流、被对冲取消）：只归还占用，试探调用下次重来。
+     */
+    synchronized void onNeutral() {
+        inFlight--;
+        probing = false;
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    /**
+     * @return 熔断中的端点距离允许试探还剩多久。
+     */
+    synchronized Duration remainingOpen(long now) {
+        return state == State.OPEN ? Duration.ofNanos(Math.max(0, openNanos - (now - openedAt))) : Duration.ZERO;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.v2.chat;
+
+import java.time.Duration;
+
+/**
+ * LLM调用未被放行：排队已满、等待超时，或服务商持续限流。
+ * 调用方应当把它当作暂时的过载（例如返回 503 并带上 Retry-After），而不是内部错误。
+ */
+public class LlmOverloadedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryAfter;
+
+    /**
+     * @param retryAfter 建议调用方多久之后重试。
+     */
+    public LlmOverloadedException(String message, Duration retryAfter) {
+        this(message, retryAfter, null);
+    }
+
+    public LlmOverloadedException(String message, Duration retryAfter, Throwable cause) {
+        super(message, cause);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.v2.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 为每次LLM调用记录指标的装饰器。
+ * <ul>
+ *   <li>llm.call：调用耗时（直方图），标签 stage / mode (call|stream) / outcome (success|error)；</li>
+ *   <li>llm.tokens：服务商 usage 中的Token数，标签 stage / type (prompt|completion)。</li>
+ * </ul>
+ * 每次调用另有一行DEBUG日志，带上MDC中的关联ID，可以据此把指标上的慢调用对回具体请求。
+ */
+public class MeteredChatClient implements StreamingChatClient {
+
+    private static final Logger log = LoggerFactory.getLogger(MeteredChatClient.class);
+
+    private final ChatClient delegate;
+    private final MeterRegistry registry;
+
+    public MeteredChatClient(ChatClient delegate, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            ChatResponse response = delegate.call(prompt);
+            outcome = "success";
+            recordUsage(prompt, response);
+            return response;
+        } finally {
+            record(prompt, "call", outcome, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public ChatResponse stream(Prompt prompt, Consumer<String> onDelta) {
+        if (!(delegate instanceof StreamingChatClient streamingDelegate)) {
+            // 底层客户端不支持流式时，整段结果作为一个片段推送
+            ChatResponse response = call(prompt);
+            if (response.result().content() != null) onDelta.accept(response.result().content());
+            return response;
+        }
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            ChatResponse response = streamingDelegate.stream(prompt, onDelta);
+            outcome = "success";
+            recordUsage(prompt, response);
+            return response;
+        } finally {
+            record(prompt, "stream", outcome, System.nanoTime() - start);
+        }
+    }
+
+    private void record(Prompt prompt, String mode, String outcome, long nanos) {
+        Timer.builder("llm.call")
+            .description("LLM调用耗时")
+            .tag("stage", stageTag(prompt))
+            .tag("mode", mode)
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+        log.atDebug().setMessage("[LLM] 调用结束")
+            .addKeyValue("stage", stageTag(prompt))
+            .addKeyValue("mode", mode)
+            .addKeyValue("outcome", outcome)
+            .addKeyValue("elapsedMs", nanos / 1_000_000)
+            .log();
+    }
+
+    private void recordUsage(Prompt prompt, ChatResponse response) {
+        ChatResponse.Usage usage = response.usage();
+        if (usage == null) return;
+        String stage = stageTag(prompt);
+        tokens(stage, "prompt").increment(usage.promptTokens());
+        tokens(stage, "completion").increment(usage.completionTokens());
+        log.atDebug().setMessage("[LLM] Token用量")
+            .addKeyValue("stage", stage)
+            .addKeyValue("promptTokens", usage.promptTokens())
+            .addKeyValue("completionTokens", usage.completionTokens())
+            .log();
+    }
+
+    private Counter tokens(String stage, String type) {
+        return Counter.builder("llm.tokens")
+            .description("LLM调用消耗的Token数")
+            .baseUnit("tokens")
+            .tag("stage", stage)
+            .tag("type", type)
+            .register(registry);
+    }
+
+    private static String stageTag(Prompt prompt) {
+        ChatStage stage = prompt.options() == null ? null : prompt.options().stage();
+        return stage == null ? "unknown" : stage.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,264 @@
+package com.example.v2.chat;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.AbstractClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.FastByteArrayOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 面向LLM服务商的HTTP传输层，基于JDK自带的 {@link HttpClient}。
+ * <ul>
+ *   <li>连接复用：同一个HttpClient实例内部维护keep-alive连接池，避免每次调用都做TLS握手；</li>
+ *   <li>HTTP/2：通过ALPN协商，服务商支持时自动多路复用，不支持时回退到HTTP/1.1；</li>
+ *   <li>有界：同时在途的请求数不超过 maxConnections，超过后最多等待 acquireTimeout；</li>
+ *   <li>超时：connectTimeout（建连）、readTimeout（等到响应头）、totalTimeout（整个交换含响应体）。</li>
+ * </ul>
+ */
+public class PooledHttpRequestFactory implements ClientHttpRequestFactory, AutoCloseable {
+
+    // JDK HttpClient 不允许调用方设置的请求头
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    private final HttpClient httpClient;
+    private final Semaphore permits;
+    private final Duration acquireTimeout;
+    private final Duration readTimeout;
+    private final Duration totalTimeout;
+    private final ScheduledExecutorService deadlines;
+
+    public PooledHttpRequestFactory(HttpClient.Version version, int maxConnections, Duration acquireTimeout,
+                                    Duration connectTimeout, Duration readTimeout, Duration totalTimeout) {
+        this.httpClient = HttpClient.newBuilder()
+            .version(version)
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .build();
+        this.permits = new Semaphore(maxConnections, true);
+        this.acquireTimeout = acquireTimeout;
+        this.readTimeout = readTimeout;
+        this.totalTimeout = totalTimeout;
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "llm-http-deadline");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new PooledHttpRequest(uri, httpMethod);
+    }
+
+    /**
+     * 当前可用的在途请求名额，便于监控连接池是否打满。
+     */
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        deadlines.shutdownNow();
+    }
+
+    private class PooledHttpRequest extends AbstractClientHttpRequest {
+        private final URI uri;
+        private final HttpMethod method;
+        private final FastByteArrayOutputStream body = new FastByteArrayOutputStream(1024);
+
+        PooledHttpRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        protected OutputStream getBodyInternal(HttpHeaders headers) {
+            return body;
+        }
+
+        @Override
+        protected ClientHttpResponse executeInternal(HttpHeaders headers) throws IOException {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(readTimeout);
+            headers.forEach((name, values) -> {
+                if (!RESTRICTED_HEADERS.contains(name.toLowerCase())) values.forEach(v -> builder.header(name, v));
+            });
+            builder.method(method.name(), body.size() == 0
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(body.toByteArrayUnsafe()));
+
+            acquirePermit();
+            Exchange exchange = new Exchange(httpClient.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream()));
+            try {
+                return new PooledHttpResponse(exchange.awaitResponse(), exchange);
+            } catch (IOException | RuntimeException e) {
+                exchange.release();
+                throw e;
+            }
+        }
+
+        private void acquirePermit() throws IOException {
+            try {
+                if (!permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new HttpTimeoutException("等待LLM连接名额超时 (" + acquireTimeout.toMillis() + "ms)");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待LLM连接名额时被中断");
+            }
+        }
+    }
+
+    /**
+     * 一次请求/响应交换。总超时到期时取消请求并关闭响应体，使阻塞中的读取立即失败。
+     */
+    private class Exchange {
+        private final CompletableFuture<HttpResponse<InputStream>> future;
+        private final ScheduledFuture<?> deadline;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private volatile InputStream responseBody;
+        private volatile boolean expired;
+
+        Exchange(CompletableFuture<HttpResponse<InputStream>> future) {
+            this.future = future;
+            this.deadline = deadlines.schedule(this::expire, totalTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        HttpResponse<InputStream> awaitResponse() throws IOException {
+            try {
+                HttpResponse<InputStream> response = future.get();
+                responseBody = response.body();
+                if (expired) closeQuietly(responseBody);
+                return response;
+            } catch (CancellationException e) {
+                throw new HttpTimeoutException("LLM调用超过总超时 (" + totalTimeout.toMillis() + "ms)");
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("LLM调用被中断");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) throw io;
+                throw new IOException(cause);
+            }
+        }
+
+        private void expire() {
+            expired = true;
+            future.cancel(true);
+            if (responseBody != null) closeQuietly(responseBody);
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                deadline.cancel(false);
+                permits.release();
+            }
+        }
+    }
+
+    private static class PooledHttpResponse implements ClientHttpResponse {
+        // 关闭时最多读完这么大的响应体来保留连接
+        private static final long MAX_DRAIN_BYTES = 64 * 1024;
+
+        private final HttpResponse<InputStream> response;
+        private final Exchange exchange;
+        private HttpHeaders headers;
+
+        PooledHttpResponse(HttpResponse<InputStream> response, Exchange exchange) {
+            this.response = response;
+            this.exchange = exchange;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() {
+            return HttpStatusCode.valueOf(response.statusCode());
+        }
+
+        @Override
+        @Deprecated
+        public int getRawStatusCode() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getStatusText() {
+            return "";
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            if (headers == null) {
+                HttpHeaders copy = new HttpHeaders();
+                response.headers().map().forEach((name, values) -> copy.addAll(name, List.copyOf(values)));
+                headers = HttpHeaders.readOnlyHttpHeaders(copy);
+            }
+            return headers;
+        }
+
+        @Override
+        public InputStream getBody() {
+            return response.body();
+        }
+
+        /**
+         * 小的非流式响应读完剩余部分再关闭，连接才能回到keep-alive池中被下次调用复用。
+         * 流式响应、长度未知或过大的响应直接关闭：读完它们要等服务端生成完，不如断开这条连接。
+         */
+        @Override
+        public void close() {
+            try (InputStream body = response.body()) {
+                if (drainable()) body.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException ignored) {
+                // 连接已损坏时JDK会丢弃它，不影响后续调用
+            } finally {
+                exchange.release();
+            }
+        }
+
+        private boolean drainable() {
+            boolean eventStream = response.headers().firstValue("Content-Type")
+                .map(type -> type.toLowerCase(Locale.ROOT).startsWith("text/event-stream"))
+                .orElse(false);
+            OptionalLong length = response.headers().firstValueAsLong("Content-Length");
+            return !eventStream && length.isPresent() && length.getAsLong() <= MAX_DRAIN_BYTES;
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.example.v2.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 把LLM调用分发到多个端点（不同区域、不同的兼容OpenAI的网关或不同的密钥）的装饰器。
+ * <ul>
+ *   <li>选择：跳过熔断中的端点，在其余端点中取负载评分最低的一个，见 {@link LlmEndpoint}；</li>
+ *   <li>故障转移：5xx、超时、连接失败，或端点自己的放行控制拒绝（见 {@link AdmissionControlledChatClient}）时，
+ *       换一个端点重试一次，流式调用只在尚未推送任何片段时重试；429 由各端点的放行控制按端点暂停、重试；</li>
+ *   <li>对冲：至少有两个端点时才开启，只对配置的阶段（没有副作用、可以重复发送的调用，例如意图识别和结果总结）生效，且只用于非流式调用。
+ *       调用耗时超过该阶段近期耗时的指定分位数时，向另一个端点再发一份，取先返回的结果并取消另一个；
+ *       额外发出的调用受预算限制，最多占对冲阶段调用数的 hedgeBudget；</li>
+ *   <li>指标：llm.endpoint.requests (endpoint / outcome: success|failure|neutral)、llm.endpoint.state (0 正常、1 试探、2 熔断)、
+ *       llm.hedge.requests (stage / result: won|lost|no_budget)。</li>
+ * </ul>
+ * 所有端点都在熔断中时抛出 {@link LlmOverloadedException}，由接口层返回 503。
+ */
+public class RoutingChatClient implements StreamingChatClient {
+
+    private static final Logger log = LoggerFactory.getLogger(RoutingChatClient.class);
+
+    // 对冲阈值至少要有这么多个耗时样本才计算，样本窗口保留最近 LATENCY_WINDOW 个
+    private static final int MIN_LATENCY_SAMPLES = 32;
+    private static final int LATENCY_WINDOW = 256;
+    // 对冲预算最多攒到的额度，限制低谷期攒下的额度在高峰期一次放出的对冲数
+    private static final double MAX_HEDGE_CREDIT = 10;
+
+    /**
+     * @param name 端点名称，用作指标标签。
+     * @param client 调用该端点的客户端。
+     */
+    public record Endpoint(String name, ChatClient client) {}
+
+    /**
+     * @param failureThreshold 连续失败多少次后熔断。
+     * @param openDuration 熔断后多久放行一次试探调用。
+     * @param hedgedStages 开启对冲的阶段，只应包含可以重复发送的阶段。
+     * @param hedgeQuantile 调用耗时超过该阶段近期耗时的这个分位数时发出对冲。
+     * @param hedgeMinDelay 对冲等待时间的下限，避免在耗时本来就很短的阶段上频繁对冲。
+     * @param hedgeBudget 对冲调用数占对冲阶段调用数的比例上限。
+     */
+    public record Settings(
+        int failureThreshold,
+        Duration openDuration,
+        Set<ChatStage> hedgedStages,
+        double hedgeQuantile,
+        Duration hedgeMinDelay,
+        double hedgeBudget
+    ) {}
+
+    /**
+     * 某个阶段最近的调用耗时，定期排序取分位数作为对冲阈值。
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[LATENCY_WINDOW];
+        private int count;
+        private int next;
+        private long threshold = Long.MAX_VALUE;
+
+        synchronized void record(long nanos, double quantile) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) count++;
+            // 每攒够十六个新样本重算一次阈值，排序的开销摊到每次调用上可以忽略
+            if (count >= MIN_LATENCY_SAMPLES && next % 16 == 0) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                threshold = sorted[Math.min(count - 1, (int) Math.ceil(quantile * count) - 1)];
+            }
+        }
+
+        synchronized long threshold() {
+            return threshold;
+        }
+    }
+
+    /**
+     * 一次尝试：发给哪个端点、是否是对冲发出的。
+     * @param started 任务开始执行或被放弃时置位，保证端点的占用恰好归还一次。
+     */
+    private record Attempt(LlmEndpoint endpoint, boolean hedge, AtomicBoolean started) {
+        Attempt(LlmEndpoint endpoint, boolean hedge) {
+            this(endpoint, hedge, new AtomicBoolean());
+        }
+    }
+
+    private final List<LlmEndpoint> endpoints;
+    private final Settings settings;
+    private final Set<ChatStage> hedgedStages;
+    private final Map<ChatStage, LatencyWindow> latencies = new EnumMap<>(ChatStage.class);
+    private final Executor hedgeExecutor;
+    private final MeterRegistry registry;
+    private double hedgeCredit;
+
+    /**
+     * @param hedgeExecutor 执行对冲阶段调用的线程池，不能与发起调用的线程共用，否则可能互相等待而卡死。
+     *                      线程池已满时该次调用退化为不对冲。
+     */
+    public RoutingChatClient(List<Endpoint> endpoints, Settings settings, Executor hedgeExecutor, MeterRegistry registry) {
+        if (endpoints.isEmpty()) throw new IllegalArgumentException("至少需要一个LLM端点");
+        this.endpoints = endpoints.stream()
+            .map(e -> new LlmEndpoint(e.name(), e.client(), settings.failureThreshold(), settings.openDuration()))
+            .toList();
+        this.settings = settings;
+        // 只有一个端点时对冲只会把同一份请求再发给同一个上游、占用同一份配额，不开启
+        this.hedgedStages = settings.hedgedStages().isEmpty() || endpoints.size() < 2 ? Set.of() : EnumSet.copyOf(settings.hedgedStages());
+        this.hedgedStages.forEach(stage -> latencies.put(stage, new LatencyWindow()));
+        this.hedgeExecutor = hedgeExecutor;
+        this.registry = registry;
+        for (LlmEndpoint endpoint : this.endpoints) {
+            Gauge.builder("llm.endpoint.state", endpoint, e -> e.state().ordinal())
+                .description("LLM端点的熔断状态：0 正常、1 试探、2 熔断")
+                .tag("endpoint", endpoint.name())
+                .register(registry);
+        }
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        ChatStage stage = prompt.options() == null ? null : prompt.options().stage();
+        if (stage != null && hedgedStages.contains(stage)) return hedged(prompt, stage);
+        return withFailover(prompt, null);
+    }
+
+    @Override
+    public ChatResponse stream(Prompt prompt, Consumer<String> onDelta) {
+        return withFailover(prompt, onDelta);
+    }
+
+    /**
+     * 在调用线程上执行，失败时换一个端点重试一次。
+     * @param onDelta 为null时是非流式调用。
+     */
+    private ChatResponse withFailover(Prompt prompt, Consumer<String> onDelta) {
+        boolean[] emitted = new boolean[1];
+        Consumer<String> tracking = onDelta == null ? null : delta -> {
+            emitted[0] = true;
+            onDelta.accept(delta);
+        };
+        LlmEndpoint first = choose(null);
+        try {
+            return attempt(first, prompt, tracking);
+        } catch (RuntimeException e) {
+            LlmEndpoint second = emitted[0] || !isRetryable(e) ? null : pick(first);
+            if (second == null) throw e;
+            log.atInfo().setMessage("[LLM路由] 端点失败，转移到其他端点")
+                .addKeyValue("from", first.name())
+                .addKeyValue("to", second.name())
+                .addKeyValue("error", e.getMessage())
+                .log();
+            return attempt(second, prompt, tracking);
+        }
+    }
+
+    /**
+     * 主调用交给线程池，调用线程等到对冲阈值；仍未返回时向另一个端点发出对冲，取先成功的一个，取消其余。
+     * 主调用在阈值之前失败时，立即换端点重试一次（不占对冲预算）。
+     */
+    private ChatResponse hedged(Prompt prompt, ChatStage stage) {
+        earnHedgeCredit();
+        CompletionService<ChatResponse> completion = new ExecutorCompletionService<>(hedgeExecutor);
+        Map<Future<ChatResponse>, Attempt> attempts = new HashMap<>(4);
+        LlmEndpoint primary = choose(null);
+        if (!submit(completion, attempts, primary, prompt, false)) return withFailover(prompt, null);
+        RuntimeException firstError = null;
+        boolean hedgeSent = false;
+        boolean retried = false;
+        try {
+            long delay = Math.max(settings.hedgeMinDelay().toNanos(), latencies.get(stage).threshold());
+            Future<ChatResponse> done = delay == Long.MAX_VALUE ? completion.take() : completion.poll(delay, TimeUnit.NANOSECONDS);
+            if (done == null) {
+                if (spendHedgeCredit()) {
+                    // 其余端点都在熔断中时不对冲
+                    LlmEndpoint other = pick(primary);
+                    hedgeSent = other != null && submit(completion, attempts, other, prompt, true);
+                } else {
+                    hedge(stage, "no_budget");
+                }
+                done = completion.take();
+            }
+            while (true) {
+                Attempt attempt = attempts.get(done);
+                try {
+                    ChatResponse response = done.get();
+                    if (hedgeSent) hedge(stage, attempt.hedge() ? "won" : "lost");
+                    return response;
+                } catch (ExecutionException e) {
+                    RuntimeException error = e.getCause() instanceof RuntimeException re ? re : new IllegalStateException(e.getCause());
+                    if (firstError == null) firstError = error;
+                    boolean pending = attempts.keySet().stream().anyMatch(f -> !f.isDone());
+                    if (!pending) {
+                        LlmEndpoint other = retried || !isRetryable(error) ? null : pick(attempt.endpoint());
+                        if (other == null || !submit(completion, attempts, other, prompt, false)) throw firstError;
+                        retried = true;
+                    }
+                    done = completion.take();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("LLM调用被中断", e);
+        } finally {
+            attempts.forEach((future, attempt) -> {
+                future.cancel(true);
+                // 还没开始执行就被取消的任务不会进入 attempt()，端点的占用（以及可能的试探名额）在这里归还
+                if (attempt.started().compareAndSet(false, true)) attempt.endpoint().onNeutral();
+            });
+        }
+    }
+
+    /**
+     * 提交一次尝试，端点已被 {@link #pick} 占用。
+     * @return 线程池已满、没有提交时为 false，此时已归还端点的占用。
+     */
+    private boolean submit(CompletionService<ChatResponse> completion, Map<Future<ChatResponse>, Attempt> attempts,
+                           LlmEndpoint endpoint, Prompt prompt, boolean hedge) {
+        Attempt attempt = new Attempt(endpoint, hedge);
+        try {
+            attempts.put(completion.submit(() -> {
+                if (!attempt.started().compareAndSet(false, true)) throw new CancellationException();
+                return attempt(endpoint, prompt, null);
+            }), attempt);
+            return true;
+        } catch (RejectedExecutionException e) {
+            endpoint.onNeutral();
+            return false;
+        }
+    }
+
+    /**
+     * 调用一个端点，端点已被 {@link #choose} 占用；结束时按结果更新它的健康状态。
+     */
+    private ChatResponse attempt(LlmEndpoint endpoint, Prompt prompt, Consumer<String> onDelta) {
+        long start = System.nanoTime();
+        try {
+            ChatResponse response = onDelta == null ? endpoint.client().call(prompt)
+                : endpoint.client() instanceof StreamingChatClient streaming ? streaming.stream(prompt, onDelta)
+                : replay(endpoint.client().call(prompt), onDelta);
+            long elapsed = System.nanoTime() - start;
+            endpoint.onSuccess(elapsed);
+            ChatStage stage = prompt.options() == null ? null : prompt.options().stage();
+            LatencyWindow window = stage == null ? null : latencies.get(stage);
+            if (window != null) window.record(elapsed, settings.hedgeQuantile());
+            endpointRequest(endpoint, "success");
+            return response;
+        } catch (RuntimeException | Error e) {
+            // 被对冲取消的调用以中断结束，不算端点的失败
+            if (!Thread.currentThread().isInterrupted() && e instanceof RuntimeException re && isEndpointFailure(re)) {
+                if (endpoint.onFailure(System.nanoTime())) {
+                    log.atWarn().setMessage("[LLM路由] 端点熔断")
+                        .addKeyValue("endpoint", endpoint.name())
+                        .addKeyValue("openMs", settings.openDuration().toMillis())
+                        .log();
+                }
+                endpointRequest(endpoint, "failure");
+            } else {
+                endpoint.onNeutral();
+                endpointRequest(endpoint, "neutral");
+            }
+            throw e;
+        }
+    }
+
+    private static ChatResponse replay(ChatResponse response, Consumer<String> onDelta) {
+        if (response.result().content() != null) onDelta.accept(response.result().content());
+        return response;
+    }
+
+    /**
+     * 5xx、超时和连接失败说明端点本身有问题；4xx（含429）与端点健康无关。
+     */
+    private static boolean isEndpointFailure(RuntimeException e) {
+        if (e instanceof HttpStatusCodeException status) return status.getStatusCode().is5xxServerError();
+        return e instanceof ResourceAccessException;
+    }
+
+    /**
+     * 可以换一个端点重试：端点本身有问题，或者该端点的放行控制拒绝了调用（它的配额或并发名额用完了，别的端点未必）。
+     */
+    private static boolean isRetryable(RuntimeException e) {
+        return isEndpointFailure(e) || e instanceof LlmOverloadedException;
+    }
+
+    /**
+     * 在可用的端点中取负载评分最低的一个并占用它。
+     * @param exclude 不参与选择的端点，可以为null。
+     * @return exclude 之外没有可用端点时为null。
+     */
+    private LlmEndpoint pick(LlmEndpoint exclude) {
+        for (int tries = 0; tries < endpoints.size(); tries++) {
+            long now = System.nanoTime();
+            LlmEndpoint best = null;
+            double bestScore = Double.MAX_VALUE;
+            for (LlmEndpoint endpoint : endpoints) {
+                if (endpoint == exclude || !endpoint.available(now)) continue;
+                double score = endpoint.score();
+                if (score < bestScore) {
+                    best = endpoint;
+                    bestScore = score;
+                }
+            }
+            if (best == null) return null;
+            // 并发的调用可能抢先占用了试探名额，重新选择
+            if (best.tryAcquire(now)) return best;
+        }
+        return null;
+    }
+
+    /**
+     * @throws LlmOverloadedException 所有端点都在熔断中。
+     */
+    private LlmEndpoint choose(LlmEndpoint exclude) {
+        LlmEndpoint endpoint = pick(exclude);
+        if (endpoint != null) return endpoint;
+        long now = System.nanoTime();
+        Duration retryAfter = endpoints.stream().map(e -> e.remainingOpen(now)).min(Duration::compareTo).orElse(settings.openDuration());
+        throw new LlmOverloadedException("所有LLM端点都在熔断中", retryAfter);
+    }
+
+    private synchronized void earnHedgeCredit() {
+        hedgeCredit = Math.min(MAX_HEDGE_CREDIT, hedgeCredit + settings.hedgeBudget());
+    }
+
+    private synchronized boolean spendHedgeCredit() {
+        if (hedgeCredit < 1) return false;
+        hedgeCredit -= 1;
+        return true;
+    }
+
+    private void endpointRequest(LlmEndpoint endpoint, String outcome) {
+        Counter.builder("llm.endpoint.requests")
+            .description("按端点统计的LLM调用次数")
+            .tag("endpoint", endpoint.name())
+            .tag("outcome", outcome)
+            .register(registry)
+            .increment();
+    }
+
+    private void hedge(ChatStage stage, String result) {
+        Counter.builder("llm.hedge.requests")
+            .description("超过对冲阈值的LLM调用：对冲胜出、主调用胜出，或预算不足未对冲")
+            .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+            .tag("result", result)
+            .register(registry)
+            .increment();
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.v2.chat;
+
+import java.util.function.Consumer;
+
+/**
+ * 我们自定义的StreamingChatClient接口，模仿Spring AI。
+ * 与 {@link ChatClient#call(Prompt)} 不同，它使用服务商的 stream 模式，
+ * 在回复生成的过程中把文本片段逐个推送给调用方。
+ */
+public interface StreamingChatClient extends ChatClient {
+
+    /**
+     * 以流式方式调用模型。
+     * @param prompt 本次调用的提示词。
+     * @param onDelta 每收到一段回复文本就会被调用一次。
+     * @return 流结束后拼装出的完整回复（包括工具调用）。
+     */
+    ChatResponse stream(Prompt prompt, Consumer<String> onDelta);
+}
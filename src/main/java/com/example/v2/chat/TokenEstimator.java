@@ -0,0 +1,63 @@
+package com.example.v2.chat;
+
+import com.example.v2.state.ChatMessage;
+
+/**
+ * 本地的Token数估算，不调用任何分词器。
+ * 按经验值：中日韩字符约1个Token，其余字符约4个一个Token；每条消息另计角色等固定开销。
+ * 只用于预算控制和限流，宁可略微高估。
+ */
+public final class TokenEstimator {
+
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    private TokenEstimator() {}
+
+    public static int estimate(String text) {
+        if (text == null) return 0;
+        int wide = 0;
+        int narrow = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x2E80) wide++;
+            else narrow++;
+        }
+        return wide + (narrow + 3) / 4;
+    }
+
+    public static int estimate(ChatMessage message) {
+        return MESSAGE_OVERHEAD + estimate(message.content());
+    }
+
+    /**
+     * 整个提示词的估算Token数（不含工具定义）。
+     */
+    public static int estimate(Prompt prompt) {
+        int tokens = 0;
+        for (Object message : prompt.messages()) {
+            String content;
+            if (message instanceof ChatMessage m) content = m.content();
+            else if (message instanceof SystemMessage m) content = m.content();
+            else if (message instanceof UserMessage m) content = m.content();
+            else content = String.valueOf(message);
+            tokens += MESSAGE_OVERHEAD + estimate(content);
+        }
+        return tokens;
+    }
+
+    /**
+     * 截取文本开头，使其估算Token数不超过 maxTokens。
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (text == null || estimate(text) <= maxTokens) return text;
+        int wide = 0;
+        int narrow = 0;
+        int end = 0;
+        while (end < text.length()) {
+            if (text.charAt(end) >= 0x2E80) wide++;
+            else narrow++;
+            if (wide + (narrow + 3) / 4 > maxTokens) break;
+            end++;
+        }
+        return text.substring(0, end);
+    }
+}
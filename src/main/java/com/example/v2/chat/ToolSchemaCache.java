@@ -0,0 +1,153 @@
+package com.example.v2.chat;
+
+import com.example.v2.metadata.ToolMetadataService;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 工具定义 (tools 参数) 的预计算缓存。
+ * 启动时一次性为每个工具生成带真实类型和 required 信息的 JSON Schema 并序列化好，
+ * 之后每次调用只需按工具组合取出拼好的JSON片段，不再反射、不再构建嵌套Map。
+ * 工具注册表热加载后（版本号变化），在下一次取用时整体重建。
+ */
+public class ToolSchemaCache {
+
+    // 由 DialogueFlowService 自动注入的参数，不需要LLM提取
+    private static final Set<String> INJECTED_FIELDS = Set.of("userId");
+
+    private final ToolMetadataService metadataService;
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param toolFragments 工具名 -> 序列化后的单个工具定义，保持注册顺序。
+     * @param combinations 工具组合 -> 拼好的 tools 数组JSON。
+     */
+    private record Snapshot(long version, Map<String, String> toolFragments, Map<Set<String>, String> combinations) {}
+
+    public ToolSchemaCache(ToolMetadataService metadataService) {
+        this.metadataService = metadataService;
+        this.snapshot = build();
+    }
+
+    private Snapshot build() {
+        long version = metadataService.version();
+        Map<String, String> fragments = new LinkedHashMap<>();
+        for (ToolMetadataService.ToolMetadata tool : metadataService.getAllTools()) {
+            fragments.put(tool.toolName(), serialize(buildToolDefinition(tool)));
+        }
+        return new Snapshot(version, Collections.unmodifiableMap(fragments), new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 获取指定工具组合的 tools 数组JSON。
+     * @return 形如 [{...},{...}] 的JSON文本；没有匹配的工具时返回null。
+     */
+    public String toolsJson(Set<String> toolNames) {
+        if (toolNames == null || toolNames.isEmpty()) return null;
+        Snapshot current = snapshot;
+        if (current.version() != metadataService.version()) {
+            current = snapshot = build();
+        }
+        Map<String, String> fragments = current.toolFragments();
+        String json = current.combinations().computeIfAbsent(toolNames, names -> joinFragments(fragments, names));
+        return json.isEmpty() ? null : json;
+    }
+
+    private static String joinFragments(Map<String, String> fragments, Set<String> toolNames) {
+        StringJoiner joiner = new StringJoiner(",", "[", "]").setEmptyValue("");
+        fragments.forEach((name, fragment) -> {
+            if (toolNames.contains(name)) joiner.add(fragment);
+        });
+        return joiner.toString();
+    }
+
+    private Map<String, Object> buildToolDefinition(ToolMetadataService.ToolMetadata tool) {
+        Set<String> requiredSlots = tool.requiredSlots();
+        Map<String, Object> properties = new LinkedHashMap<>();
+        List<String> required = new ArrayList<>();
+
+        if (tool.requestClass() == Map.class) {
+            // 通用参数的工具（如 modify_slot）没有请求类，直接按其槽位生成字符串参数
+            for (String slot : requiredSlots) {
+                properties.put(slot, Map.of("type", "string"));
+                required.add(slot);
+            }
+        } else {
+            for (Field field : requestFields(tool.requestClass())) {
+                String name = field.getName();
+                if (INJECTED_FIELDS.contains(name)) continue;
+
+                Map<String, Object> property = new LinkedHashMap<>(typeOf(field.getType()));
+                if (requiredSlots.contains(name)) {
+                    property.put("description", tool.slotQuestions().getOrDefault(name, metadataService.getQuestionForSlot(name)));
+                }
+                properties.put(name, property);
+
+                JsonProperty jsonProperty = field.getAnnotation(JsonProperty.class);
+                if (jsonProperty != null && jsonProperty.required()) required.add(name);
+            }
+        }
+
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("type", "object");
+        parameters.put("properties", properties);
+        if (!required.isEmpty()) parameters.put("required", required);
+
+        Map<String, Object> function = new LinkedHashMap<>();
+        function.put("name", tool.toolName());
+        function.put("description", tool.description());
+        function.put("parameters", parameters);
+        return Map.of("type", "function", "function", function);
+    }
+
+    private static List<Field> requestFields(Class<?> requestClass) {
+        List<Field> fields = new ArrayList<>();
+        if (requestClass.isRecord()) {
+            // 记录组件上的注解会传播到同名的私有字段上
+            for (RecordComponent component : requestClass.getRecordComponents()) {
+                try {
+                    fields.add(requestClass.getDeclaredField(component.getName()));
+                } catch (NoSuchFieldException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        } else {
+            for (Field field : requestClass.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static Map<String, Object> typeOf(Class<?> type) {
+        if (type == String.class || type == Character.class || type == char.class) return Map.of("type", "string");
+        if (type == int.class || type == Integer.class || type == long.class || type == Long.class
+            || type == short.class || type == Short.class || type == byte.class || type == Byte.class
+            || type == BigInteger.class) return Map.of("type", "integer");
+        if (type == double.class || type == Double.class || type == float.class || type == Float.class
+            || type == BigDecimal.class) return Map.of("type", "number");
+        if (type == boolean.class || type == Boolean.class) return Map.of("type", "boolean");
+        if (type.isEnum()) {
+            List<String> values = Arrays.stream(type.getEnumConstants()).map(Object::toString).toList();
+            return Map.of("type", "string", "enum", values);
+        }
+        if (type.isArray() || Collection.class.isAssignableFrom(type)) return Map.of("type", "array", "items", Map.of("type", "string"));
+        return Map.of("type", "object");
+    }
+
+    private String serialize(Map<String, Object> definition) {
+        try {
+            return ChatCompletionCodec.JSON.writeValueAsString(definition);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("无法序列化工具定义", e);
+        }
+    }
+}
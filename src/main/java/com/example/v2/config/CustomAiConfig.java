@@ -1,22 +1,86 @@
 package com.example.v2.config;
 
+import com.example.v2.chat.AdmissionControlledChatClient;
+import com.example.v2.chat.CachingChatClient;
 import com.example.v2.chat.ChatClient;
 import com.example.v2.chat.CustomOpenAiChatClient;
 import com.example.v2.chat.HttpHeaderProvider;
+import com.example.v2.chat.MeteredChatClient;
+import com.example.v2.chat.PooledHttpRequestFactory;
+import com.example.v2.chat.RoutingChatClient;
 import com.example.v2.metadata.ToolMetadataService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.URI;
+import java.util.List;
 
 @Configuration
+@EnableConfigurationProperties({LlmHttpProperties.class, LlmCacheProperties.class, LlmAdmissionProperties.class,
+    LlmRoutingProperties.class})
 public class CustomAiConfig {
 
+    @Bean
+    public PooledHttpRequestFactory llmRequestFactory(LlmHttpProperties properties) {
+        // 空闲连接的保活时长是JVM级别的系统属性，在启动参数中设置：-Djdk.httpclient.keepalive.timeout=<秒>
+        return new PooledHttpRequestFactory(
+            properties.version(),
+            properties.maxConnections(),
+            properties.acquireTimeout(),
+            properties.connectTimeout(),
+            properties.readTimeout(),
+            properties.totalTimeout()
+        );
+    }
+
     @Bean
     public ChatClient customChatClient(
         @Value("${openai.api.key}") String apiKey,
+        @Value("${openai.api.url:" + CustomOpenAiChatClient.OPENAI_API_URL + "}") String apiUrl,
         HttpHeaderProvider headerProvider,
-        ToolMetadataService metadataService // 注入元数据服务
+        ToolMetadataService metadataService, // 注入元数据服务
+        PooledHttpRequestFactory llmRequestFactory,
+        LlmCacheProperties cacheProperties,
+        LlmAdmissionProperties admissionProperties,
+        LlmRoutingProperties routingProperties,
+        @Qualifier("llmRoutingExecutor") TaskExecutor routingExecutor,
+        MeterRegistry meterRegistry
     ) {
-        return new CustomOpenAiChatClient(apiKey, headerProvider, metadataService);
+        RestTemplate restTemplate = new RestTemplate(llmRequestFactory);
+        // 每个端点各有一份放行控制，包在路由层之内：对冲和故障转移发出的调用同样排队、计入所到端点的配额，
+        // 一个端点的429只暂停这个端点
+        List<RoutingChatClient.Endpoint> endpoints = routingProperties.endpoints().isEmpty()
+            ? List.of(endpoint(null, apiUrl, apiKey, headerProvider, metadataService, restTemplate, admissionProperties, meterRegistry))
+            : routingProperties.endpoints().stream()
+                .map(e -> endpoint(e.name(), e.url(), e.apiKey() == null || e.apiKey().isBlank() ? apiKey : e.apiKey(),
+                    headerProvider, metadataService, restTemplate, admissionProperties, meterRegistry))
+                .toList();
+        ChatClient upstream = routingProperties.routed()
+            ? new RoutingChatClient(endpoints, routingProperties.settings(), routingExecutor, meterRegistry)
+            : endpoints.get(0).client();
+        // 每次调用按阶段记录耗时和Token用量；对冲、故障转移和放行排队都在计量之内，llm.call 反映的是调用方感受到的耗时，
+        // 其中的排队时间见 llm.admission.wait
+        ChatClient client = new MeteredChatClient(upstream, meterRegistry);
+        if (!cacheProperties.enabled() || cacheProperties.stages().isEmpty()) return client;
+        // 缓存放在最外层：命中的请求不排队，也不计入 llm.call / llm.tokens，指标只反映真实的调用
+        return new CachingChatClient(client, CustomOpenAiChatClient.MODEL, cacheProperties.stages(),
+            cacheProperties.maxEntries(), cacheProperties.ttl(), meterRegistry);
+    }
+
+    private static RoutingChatClient.Endpoint endpoint(String name, String url, String apiKey, HttpHeaderProvider headerProvider,
+                                                       ToolMetadataService metadataService, RestTemplate restTemplate,
+                                                       LlmAdmissionProperties admissionProperties, MeterRegistry meterRegistry) {
+        String label = name == null || name.isBlank() ? URI.create(url).getHost() : name;
+        ChatClient client = new CustomOpenAiChatClient(apiKey, headerProvider, metadataService, restTemplate, url);
+        if (admissionProperties.enabled()) {
+            client = new AdmissionControlledChatClient(client, admissionProperties.settings(), label, meterRegistry);
+        }
+        return new RoutingChatClient.Endpoint(label, client);
     }
 }
@@ -0,0 +1,104 @@
+package com.example.v2.config;
+
+import com.example.v2.logging.MdcTaskDecorator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 对话处理相关的线程池配置。
+ * 队列深度、活跃线程数等指标由 Spring Boot Actuator 自动绑定 (executor.queued / executor.active，tag name=Bean名称)，
+ * 这里额外记录被拒绝的任务数 (executor.rejected)。提交任务时的日志上下文 (MDC) 会带到执行线程上。
+ */
+@Configuration
+public class DialogueExecutorConfig {
+
+    /**
+     * 执行对话轮次的专用线程池（/chat/stream 的流式轮次，以及异步模式下的 /chat）。
+     * 轮次中的LLM调用是阻塞的，一个在途轮次占一个线程，所以 size 就是同时在途的轮次上限，应按预期并发设置；
+     * 队列只缓冲瞬时的突发，满了就拒绝，由控制器返回503。
+     */
+    @Bean
+    public ThreadPoolTaskExecutor dialogueExecutor(
+        @Value("${dialogue.executor.size:256}") int size,
+        @Value("${dialogue.executor.queue-capacity:32}") int queueCapacity,
+        MeterRegistry meterRegistry
+    ) {
+        return newBlockingExecutor("dialogueExecutor", "dialogue-", size, queueCapacity, meterRegistry);
+    }
+
+    /**
+     * 发起并发LLM调用的线程池（例如进行中任务的并发意图识别）。
+     * 与 dialogueExecutor 分开，避免对话线程等待同一个池里的子任务而互相卡死。
+     */
+    @Bean
+    public ThreadPoolTaskExecutor llmExecutor(
+        @Value("${llm.executor.size:64}") int size,
+        @Value("${llm.executor.queue-capacity:32}") int queueCapacity,
+        MeterRegistry meterRegistry
+    ) {
+        return newBlockingExecutor("llmExecutor", "llm-", size, queueCapacity, meterRegistry);
+    }
+
+    /**
+     * 并发执行同一条消息中多个工具调用的线程池（例如"查下天气，再查下另一个城市"）。
+     * 工具可能阻塞在下游服务上，与LLM线程池分开，互不挤占；队列满时由调用方在当前线程上执行。
+     */
+    @Bean
+    public ThreadPoolTaskExecutor toolExecutor(
+        @Value("${tool.executor.core-size:8}") int coreSize,
+        @Value("${tool.executor.max-size:32}") int maxSize,
+        @Value("${tool.executor.queue-capacity:100}") int queueCapacity,
+        MeterRegistry meterRegistry
+    ) {
+        return newExecutor("toolExecutor", "tool-", coreSize, maxSize, queueCapacity, meterRegistry);
+    }
+
+    /**
+     * 执行对冲阶段LLM调用的线程池（主调用和对冲调用都在这里执行，发起线程只负责等待先返回的一个）。
+     * 发起线程可能本身就是 llmExecutor 的线程，所以单独一个池；不排队，线程用尽时该次调用退化为不对冲。
+     */
+    @Bean
+    public ThreadPoolTaskExecutor llmRoutingExecutor(
+        @Value("${llm.routing-executor.core-size:16}") int coreSize,
+        @Value("${llm.routing-executor.max-size:128}") int maxSize,
+        MeterRegistry meterRegistry
+    ) {
+        return newExecutor("llmRoutingExecutor", "llm-routing-", coreSize, maxSize, 0, meterRegistry);
+    }
+
+    /**
+     * 任务阻塞在I/O上的线程池。ThreadPoolTaskExecutor 只有在队列满了之后才会把线程扩到 maxSize，
+     * 核心线程数加大队列的组合实际只有核心线程在干活；这里核心线程数等于最大线程数，空闲线程超时回收。
+     */
+    private static ThreadPoolTaskExecutor newBlockingExecutor(String name, String threadPrefix, int size, int queueCapacity, MeterRegistry meterRegistry) {
+        ThreadPoolTaskExecutor executor = newExecutor(name, threadPrefix, size, size, queueCapacity, meterRegistry);
+        executor.getThreadPoolExecutor().allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadPoolTaskExecutor newExecutor(String name, String threadPrefix, int coreSize, int maxSize, int queueCapacity, MeterRegistry meterRegistry) {
+        Counter rejected = Counter.builder("executor.rejected")
+            .description("线程池队列已满而被拒绝的任务数")
+            .tag("name", name)
+            .register(meterRegistry);
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix(threadPrefix);
+        executor.setTaskDecorator(new MdcTaskDecorator());
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            rejected.increment();
+            new ThreadPoolExecutor.AbortPolicy().rejectedExecution(task, pool);
+        });
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.v2.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 内嵌日志状态存储的配置 (前缀 dialogue.state.journal)，仅在 dialogue.state.store=journal 时生效。
+ * @param directory 日志段文件所在目录。
+ * @param segmentSize 单个日志段的大小，也是单个会话状态编码后的上限。
+ * @param flushInterval 组提交的刷盘间隔。
+ * @param durableWrites 为 true 时，保存状态要等到数据刷到磁盘后才返回；为 false 时依赖周期刷盘，进程崩溃可能丢失最近一个间隔的写入。
+ * @param compactionInterval 后台压缩的检查间隔。
+ * @param compactionThreshold 最老的封存段中存活数据占比低于该值时触发压缩。
+ * @param maxSealedSegments 封存段数量超过该值时，不论存活比例都会压缩最老的段。
+ */
+@ConfigurationProperties(prefix = "dialogue.state.journal")
+public record DialogueJournalProperties(
+    @DefaultValue("./data/dialogue-journal") Path directory,
+    @DefaultValue("64MB") DataSize segmentSize,
+    @DefaultValue("10ms") Duration flushInterval,
+    @DefaultValue("false") boolean durableWrites,
+    @DefaultValue("30s") Duration compactionInterval,
+    @DefaultValue("0.5") double compactionThreshold,
+    @DefaultValue("16") int maxSealedSegments
+) {}
@@ -0,0 +1,60 @@
+package com.example.v2.config;
+
+import com.example.v2.state.DialogueStateCache;
+import com.example.v2.state.DialogueStateEvictionListener;
+import com.example.v2.state.InMemoryDialogueStateStore;
+import com.example.v2.state.MappedJournalDialogueStateStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 对话状态存储后端的选择 (dialogue.state.store)。
+ * 两种后端都实现了 MeterBinder，Actuator 会自动注册它们的指标。
+ */
+@Configuration
+@EnableConfigurationProperties(DialogueJournalProperties.class)
+public class DialogueStateStoreConfig {
+
+    /**
+     * 默认后端：有界的进程内缓存（空闲过期 + 条数上限 + 内存上限）。
+     */
+    @Bean
+    @ConditionalOnProperty(name = "dialogue.state.store", havingValue = "memory", matchIfMissing = true)
+    public InMemoryDialogueStateStore inMemoryDialogueStateStore(
+        @Value("${dialogue.state.cache.idle-ttl:30m}") Duration idleTtl,
+        @Value("${dialogue.state.cache.max-entries:100000}") int maxEntries,
+        @Value("${dialogue.state.cache.max-weight:512MB}") DataSize maxWeight,
+        @Value("${dialogue.state.cache.sweep-interval:30s}") Duration sweepInterval,
+        ObjectProvider<DialogueStateEvictionListener> evictionListeners
+    ) {
+        return new InMemoryDialogueStateStore(new DialogueStateCache(idleTtl, maxEntries, maxWeight.toBytes(), sweepInterval,
+            evictionListeners.orderedStream().toList()));
+    }
+
+    /**
+     * 持久化后端：内嵌的内存映射日志，重启后从磁盘恢复所有会话。
+     * 过期、上限与淘汰监听沿用 dialogue.state.cache.* 的约定，上限按存活记录的编码字节数计算。
+     */
+    @Bean
+    @ConditionalOnProperty(name = "dialogue.state.store", havingValue = "journal")
+    public MappedJournalDialogueStateStore mappedJournalDialogueStateStore(
+        DialogueJournalProperties properties,
+        @Value("${dialogue.state.cache.idle-ttl:30m}") Duration idleTtl,
+        @Value("${dialogue.state.cache.max-entries:100000}") int maxEntries,
+        @Value("${dialogue.state.cache.max-weight:512MB}") DataSize maxWeight,
+        @Value("${dialogue.state.cache.sweep-interval:30s}") Duration sweepInterval,
+        ObjectProvider<DialogueStateEvictionListener> evictionListeners
+    ) {
+        return new MappedJournalDialogueStateStore(properties.directory(), (int) properties.segmentSize().toBytes(),
+            properties.durableWrites(), properties.flushInterval(), properties.compactionInterval(),
+            properties.compactionThreshold(), properties.maxSealedSegments(),
+            idleTtl, maxEntries, maxWeight.toBytes(), sweepInterval, evictionListeners.orderedStream().toList());
+    }
+}
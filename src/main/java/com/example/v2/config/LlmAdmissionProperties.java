@@ -0,0 +1,49 @@
+package com.example.v2.config;
+
+import com.example.v2.chat.AdmissionControlledChatClient;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+/**
+ * LLM调用放行控制的配置 (前缀 openai.admission)。
+ * @param enabled 是否在每个LLM端点前加一层放行控制；关闭时调用直接发给服务商，429 原样抛出。
+ *                以下上限和配额都按端点（每个密钥）分别计算。
+ * @param initialLimit 初始并发上限，之后按延迟和限流情况自适应调整。
+ * @param minLimit 并发上限的下限。
+ * @param maxLimit 并发上限的上限，各端点之和不应超过 openai.http.max-connections。
+ * @param backoffRatio 被限流时并发上限乘以的系数。
+ * @param latencyTolerance 一个窗口内过半调用的耗时超过所属阶段平滑基线的这个倍数时视为拥塞。
+ * @param requestsPerMinute 服务商的每分钟请求数配额，0 表示不限。
+ * @param tokensPerMinute 服务商的每分钟Token配额，0 表示不限。
+ * @param burst 允许的突发量，以配额的时长表示。
+ * @param maxQueue 排队等待放行的调用数上限，超出时直接返回繁忙。
+ * @param maxWait 单次调用排队的最长时间。
+ * @param maxRetries 被限流 (429/503) 后的最多重试次数。
+ * @param retryBackoff 服务商没有给出 Retry-After 时的首次退避时长，之后逐次加倍。
+ * @param expectedCompletionTokens 放行前预扣的回复Token数，响应后按实际用量修正。
+ */
+@ConfigurationProperties(prefix = "openai.admission")
+public record LlmAdmissionProperties(
+    @DefaultValue("false") boolean enabled,
+    @DefaultValue("16") int initialLimit,
+    @DefaultValue("2") int minLimit,
+    @DefaultValue("64") int maxLimit,
+    @DefaultValue("0.7") double backoffRatio,
+    @DefaultValue("2.0") double latencyTolerance,
+    @DefaultValue("0") int requestsPerMinute,
+    @DefaultValue("0") int tokensPerMinute,
+    @DefaultValue("5s") Duration burst,
+    @DefaultValue("500") int maxQueue,
+    @DefaultValue("10s") Duration maxWait,
+    @DefaultValue("2") int maxRetries,
+    @DefaultValue("500ms") Duration retryBackoff,
+    @DefaultValue("200") int expectedCompletionTokens
+) {
+
+    AdmissionControlledChatClient.Settings settings() {
+        return new AdmissionControlledChatClient.Settings(initialLimit, minLimit, maxLimit, backoffRatio, latencyTolerance,
+            requestsPerMinute, tokensPerMinute, burst, maxQueue, maxWait, maxRetries, retryBackoff, expectedCompletionTokens);
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.v2.config;
+
+import com.example.v2.chat.ChatStage;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * LLM响应缓存的配置 (前缀 openai.cache)。
+ * @param enabled 是否在LLM客户端前加一层精确匹配的响应缓存。
+ * @param maxEntries 缓存条数上限，超出时淘汰最久未访问的条目。
+ * @param ttl 条目写入后的存活时间。
+ * @param stages 开启缓存的阶段及其消息窗口（系统提示词之后只取最后N条消息计算键，0 表示全部消息）；未列出的阶段不缓存。
+ *               窗口内没有助手回复时会向前扩展到上一条。意图识别依赖会话状态，通常不应列入。
+ */
+@ConfigurationProperties(prefix = "openai.cache")
+public record LlmCacheProperties(
+    @DefaultValue("false") boolean enabled,
+    @DefaultValue("10000") int maxEntries,
+    @DefaultValue("10m") Duration ttl,
+    Map<ChatStage, Integer> stages
+) {
+
+    public LlmCacheProperties {
+        stages = stages == null ? Map.of() : Map.copyOf(stages);
+    }
+}
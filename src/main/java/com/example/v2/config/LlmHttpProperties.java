@@ -0,0 +1,27 @@
+package com.example.v2.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * LLM调用的HTTP传输层配置 (前缀 openai.http)。
+ * @param version 优先使用的HTTP版本；HTTP_2 在服务商不支持时会自动回退到 HTTP/1.1。
+ * @param maxConnections 同时在途的请求上限（有界连接池）。
+ * @param acquireTimeout 连接池打满时，等待一个名额的最长时间。
+ * @param connectTimeout 建立TCP/TLS连接的超时。
+ * @param readTimeout 请求发出后等到响应头的超时。
+ * @param totalTimeout 一次调用（含读取完整响应体/流）的总超时。
+ * 空闲连接在池中保留的时长由JVM启动参数 -Djdk.httpclient.keepalive.timeout（秒）决定，作用于进程内所有JDK HttpClient。
+ */
+@ConfigurationProperties(prefix = "openai.http")
+public record LlmHttpProperties(
+    @DefaultValue("HTTP_2") HttpClient.Version version,
+    @DefaultValue("64") int maxConnections,
+    @DefaultValue("2s") Duration acquireTimeout,
+    @DefaultValue("3s") Duration connectTimeout,
+    @DefaultValue("30s") Duration readTimeout,
+    @DefaultValue("60s") Duration totalTimeout
+) {}
@@ -0,0 +1,55 @@
+package com.example.v2.config;
+
+import com.example.v2.chat.ChatStage;
+import com.example.v2.chat.RoutingChatClient;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * LLM端点池与对冲调用的配置 (前缀 openai.routing)。
+ * @param endpoints 端点列表；为空时只有 openai.api.url / openai.api.key 一个端点。
+ * @param failureThreshold 连续失败多少次后熔断该端点。
+ * @param openDuration 熔断后多久放行一次试探调用。
+ * @param hedgedStages 开启对冲的阶段，只应列出可以重复发送的阶段（例如 extraction、summarization）；为空或只有一个端点时不对冲。
+ * @param hedgeQuantile 调用耗时超过该阶段近期耗时的这个分位数时，向另一个端点再发一份。
+ * @param hedgeMinDelay 对冲等待时间的下限。
+ * @param hedgeBudget 对冲调用数占对冲阶段调用数的比例上限。
+ */
+@ConfigurationProperties(prefix = "openai.routing")
+public record LlmRoutingProperties(
+    List<Endpoint> endpoints,
+    @DefaultValue("5") int failureThreshold,
+    @DefaultValue("30s") Duration openDuration,
+    Set<ChatStage> hedgedStages,
+    @DefaultValue("0.95") double hedgeQuantile,
+    @DefaultValue("200ms") Duration hedgeMinDelay,
+    @DefaultValue("0.05") double hedgeBudget
+) {
+
+    /**
+     * @param name 端点名称，用作指标标签；为空时取地址中的主机名。
+     * @param url Chat Completions 接口地址。
+     * @param apiKey 该端点的密钥；为空时使用 openai.api.key。
+     */
+    public record Endpoint(String name, String url, String apiKey) {}
+
+    public LlmRoutingProperties {
+        endpoints = endpoints == null ? List.of() : List.copyOf(endpoints);
+        hedgedStages = hedgedStages == null ? Set.of() : Set.copyOf(hedgedStages);
+    }
+
+    /**
+     * @return 只有一个端点时为 false，不需要路由层，也不对冲。
+     */
+    boolean routed() {
+        return endpoints.size() > 1;
+    }
+
+    RoutingChatClient.Settings settings() {
+        return new RoutingChatClient.Settings(failureThreshold, openDuration, hedgedStages, hedgeQuantile, hedgeMinDelay, hedgeBudget);
+    }
+}
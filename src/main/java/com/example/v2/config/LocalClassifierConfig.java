@@ -0,0 +1,53 @@
+package com.example.v2.config;
+
+import com.example.v2.metadata.ToolMetadataService;
+import com.example.v2.service.LocalIntentClassifier;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 本地意图分类 (dialogue.classifier)。意图名只能是通用意图或已注册的工具名，配置错误在启动时暴露。
+ */
+@Configuration
+@EnableConfigurationProperties(LocalClassifierProperties.class)
+public class LocalClassifierConfig {
+
+    private static final String FILLERS = "fillers";
+
+    @Bean
+    public LocalIntentClassifier localIntentClassifier(LocalClassifierProperties properties, ToolMetadataService metadataService) throws IOException {
+        if (!properties.enabled()) {
+            return new LocalIntentClassifier(Map.of(), Map.of(), List.of(), properties.minConfidence());
+        }
+        Properties dictionary = new Properties();
+        try (Reader reader = new InputStreamReader(properties.dictionary().getInputStream(), StandardCharsets.UTF_8)) {
+            dictionary.load(reader);
+        }
+
+        Map<String, List<String>> phrases = new HashMap<>();
+        List<String> fillers = List.of();
+        for (String intent : dictionary.stringPropertyNames()) {
+            List<String> values = Arrays.stream(dictionary.getProperty(intent).split(","))
+                .map(String::strip).filter(phrase -> !phrase.isEmpty()).toList();
+            if (FILLERS.equals(intent)) {
+                fillers = values;
+            } else if (LocalIntentClassifier.GENERIC_INTENTS.contains(intent) || metadataService.getTool(intent).isPresent()) {
+                phrases.put(intent, values);
+            } else {
+                throw new IllegalStateException("本地意图分类词典中有未知的意图: " + intent);
+            }
+        }
+        return new LocalIntentClassifier(phrases, properties.intentMinConfidence(), fillers, properties.minConfidence());
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.v2.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.core.io.Resource;
+
+import java.util.Map;
+
+/**
+ * 本地意图分类的配置 (前缀 dialogue.classifier)。
+ * @param enabled 是否在调用LLM之前先做本地分类。
+ * @param minConfidence 默认的置信度阈值（短语覆盖消息的比例）。
+ * @param intentMinConfidence 个别意图单独的置信度阈值。
+ * @param dictionary 短语词典，UTF-8编码的 "意图 = 短语1,短语2" 格式；意图名是 affirm / deny / cancel 或工具名，
+ *                   保留的 fillers 一项是语气词/填充词。词典单独成文件，是因为 application.properties 按 ISO-8859-1 读取，不便直接写中文。
+ */
+@ConfigurationProperties(prefix = "dialogue.classifier")
+public record LocalClassifierProperties(
+    @DefaultValue("true") boolean enabled,
+    @DefaultValue("0.8") double minConfidence,
+    Map<String, Double> intentMinConfidence,
+    @DefaultValue("classpath:local-intents.properties") Resource dictionary
+) {
+
+    public LocalClassifierProperties {
+        intentMinConfidence = intentMinConfidence == null ? Map.of() : Map.copyOf(intentMinConfidence);
+    }
+}
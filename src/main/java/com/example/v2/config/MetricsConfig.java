@@ -0,0 +1,20 @@
+package com.example.v2.config;
+
+import com.example.v2.logging.MdcSpanContextSupplier;
+import io.prometheus.client.exemplars.tracer.common.SpanContextSupplier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 指标导出相关配置。
+ * 对话流水线各阶段的耗时直方图、LLM调用耗时与Token用量经 /actuator/prometheus 导出；
+ * 提供 {@link SpanContextSupplier} 后，Spring Boot 会为直方图的桶附加exemplar（OpenMetrics格式），指向具体的对话轮次。
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public SpanContextSupplier mdcSpanContextSupplier() {
+        return new MdcSpanContextSupplier();
+    }
+}
@@ -1,13 +1,28 @@
 package com.example.v2.controller;
 
+import com.example.v2.chat.LlmOverloadedException;
 import com.example.v2.service.DialogueFlowService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
 /**
  * 前端请求的数据传输对象 (DTO)。
@@ -23,18 +38,154 @@ record ChatRequest(String message, String conversationId) {}
 @RestController
 public class ChatController {
 
+    private static final Logger log = LoggerFactory.getLogger(ChatController.class);
+
     @Autowired
     private DialogueFlowService dialogueFlowService;
 
+    @Autowired
+    @Qualifier("dialogueExecutor")
+    private TaskExecutor dialogueExecutor;
+
+    @Value("${chat.stream.timeout-ms:60000}")
+    private long streamTimeoutMs;
+
+    /**
+     * /chat 的执行方式。
+     * SYNC: 在Tomcat请求线程上执行整轮对话；
+     * ASYNC: 请求线程立即释放，对话在有界的 dialogueExecutor 上执行，完成后再写回响应。
+     * 对话在等待LLM时仍然阻塞一个 dialogueExecutor 线程，ASYNC 只是把阻塞从Tomcat线程挪到另一个池，
+     * 并不会在I/O期间释放线程；同样的线程总数下它不会提高吞吐，好处是池满时快速返回503而不是排队。
+     */
+    public enum ExecutionMode { SYNC, ASYNC }
+
+    @Value("${chat.execution.mode:SYNC}")
+    private ExecutionMode executionMode;
+
+    @Value("${chat.async.timeout-ms:60000}")
+    private long asyncTimeoutMs;
+
+    /**
+     * @return SYNC模式下为 ResponseEntity；ASYNC模式下为 DeferredResult，由Spring MVC按异步请求处理。
+     */
     @PostMapping("/chat")
-    public ResponseEntity<?> chat(@RequestBody ChatRequest request) {
+    public Object chat(@RequestBody ChatRequest request) {
+        if (executionMode == ExecutionMode.ASYNC) {
+            return chatAsync(request);
+        }
         try {
             // 调用统一的对话处理入口，传入消息和会话ID
             DialogueFlowService.DialogueResponse response = dialogueFlowService.processMessage(request.message(), request.conversationId());
             return ResponseEntity.ok(Map.of("reply", response.reply()));
         } catch (Exception e) {
-            e.printStackTrace();
+            LlmOverloadedException overloaded = overloaded(e);
+            if (overloaded != null) return busy(overloaded);
+            log.error("处理消息失败 conversationId={}", request.conversationId(), e);
             return ResponseEntity.internalServerError().body(Map.of("error", e.getMessage()));
         }
     }
-}
\ No newline at end of file
+
+    private DeferredResult<ResponseEntity<?>> chatAsync(ChatRequest request) {
+        DeferredResult<ResponseEntity<?>> result = new DeferredResult<>(asyncTimeoutMs,
+            () -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", "处理超时，请稍后再试")));
+        dialogueFlowService.processMessageAsync(request.message(), request.conversationId())
+            .whenComplete((response, error) -> {
+                if (error == null) {
+                    result.setResult(ResponseEntity.ok(Map.of("reply", response.reply())));
+                } else if (unwrap(error) instanceof RejectedExecutionException) {
+                    result.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", "系统繁忙，请稍后再试")));
+                } else if (overloaded(unwrap(error)) != null) {
+                    result.setResult(busy(overloaded(unwrap(error))));
+                } else {
+                    log.error("异步处理消息失败 conversationId={}", request.conversationId(), unwrap(error));
+                    result.setResult(ResponseEntity.internalServerError().body(Map.of("error", String.valueOf(unwrap(error).getMessage()))));
+                }
+            });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * LLM调用未被放行（排队已满、等待超时或服务商持续限流）可能被包装在其他异常里，沿着 cause 链查找。
+     */
+    private static LlmOverloadedException overloaded(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof LlmOverloadedException overloaded) return overloaded;
+        }
+        return null;
+    }
+
+    /**
+     * 过载是暂时的，返回 503 并告诉客户端多久之后重试，而不是 500。
+     */
+    private static ResponseEntity<?> busy(LlmOverloadedException e) {
+        long seconds = Math.max(1, (e.retryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds))
+            .body(Map.of("error", "系统繁忙，请稍后再试"));
+    }
+
+    /**
+     * 流式聊天接口 (Server-Sent Events)。
+     * 回复片段以 "token" 事件逐段推送；本轮结束后发送一个 "done" 事件，携带完整回复。
+     */
+    @PostMapping(path = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter chatStream(@RequestBody ChatRequest request) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        try {
+            dialogueExecutor.execute(() -> runStreamingTurn(request, emitter));
+        } catch (RejectedExecutionException e) {
+            new EventSink(emitter).send("error", Map.of("error", "系统繁忙，请稍后再试"));
+            emitter.complete();
+        }
+        return emitter;
+    }
+
+    private void runStreamingTurn(ChatRequest request, SseEmitter emitter) {
+        EventSink tokens = new EventSink(emitter);
+        try {
+            DialogueFlowService.DialogueResponse response = dialogueFlowService.processMessage(request.message(), request.conversationId(), tokens);
+            tokens.send("done", Map.of("reply", response.reply(), "finished", response.isTaskFinished()));
+            emitter.complete();
+        } catch (Exception e) {
+            LlmOverloadedException overloaded = overloaded(e);
+            if (overloaded != null) {
+                tokens.send("error", Map.of("error", "系统繁忙，请稍后再试", "retryAfterMs", overloaded.retryAfter().toMillis()));
+                emitter.complete();
+                return;
+            }
+            log.error("流式处理消息失败 conversationId={}", request.conversationId(), e);
+            tokens.send("error", Map.of("error", String.valueOf(e.getMessage())));
+            emitter.complete();
+        }
+    }
+
+    /**
+     * 把回复片段写成SSE事件。客户端断开后不再写入，但对话轮次会继续执行完并提交状态。
+     */
+    private static class EventSink implements Consumer<String> {
+        private final SseEmitter emitter;
+        private boolean disconnected;
+
+        EventSink(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void accept(String delta) {
+            send("token", delta);
+        }
+
+        void send(String name, Object data) {
+            if (disconnected) return;
+            try {
+                emitter.send(SseEmitter.event().name(name).data(data));
+            } catch (IOException | IllegalStateException e) {
+                disconnected = true;
+            }
+        }
+    }
+}
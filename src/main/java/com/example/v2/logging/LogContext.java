@@ -0,0 +1,18 @@
+package com.example.v2.logging;
+
+/**
+ * 日志上下文 (MDC) 中使用的键。
+ */
+public final class LogContext {
+
+    /** 当前处理的会话ID */
+    public static final String CONVERSATION_ID = "conversationId";
+
+    /** 本轮对话的关联ID，同时作为本轮所有LLM请求的 X-Request-ID，并作为Prometheus指标的exemplar */
+    public static final String REQUEST_ID = "requestId";
+
+    /** 存在时表示本轮被抽样，DEBUG日志无视级别全部输出 */
+    public static final String SAMPLED = "sampled";
+
+    private LogContext() {}
+}
@@ -0,0 +1,27 @@
+package com.example.v2.logging;
+
+import io.prometheus.client.exemplars.tracer.common.SpanContextSupplier;
+import org.slf4j.MDC;
+
+/**
+ * 把MDC中的关联ID作为Prometheus指标的exemplar：直方图的某个桶里出现慢请求时，
+ * 可以凭 trace_id (本轮的关联ID) 和 span_id (会话ID) 直接在日志中找到这一轮。
+ * 关联ID基数无上限，只能以exemplar的形式附加，不能作为指标标签。
+ */
+public class MdcSpanContextSupplier implements SpanContextSupplier {
+
+    @Override
+    public String getTraceId() {
+        return MDC.get(LogContext.REQUEST_ID);
+    }
+
+    @Override
+    public String getSpanId() {
+        return MDC.get(LogContext.CONVERSATION_ID);
+    }
+
+    @Override
+    public boolean isSampled() {
+        return MDC.get(LogContext.REQUEST_ID) != null && MDC.get(LogContext.CONVERSATION_ID) != null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.v2.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+/**
+ * 按轮次抽样输出调试日志。
+ * 被抽样的对话轮次会在MDC中带上 {@link LogContext#SAMPLED}；对这些轮次，应用自身的DEBUG/TRACE日志无视配置的级别直接放行，
+ * 其余轮次仍按正常级别过滤。这样线上保持INFO级别，也能看到少量完整的逐轮调试信息。
+ * 在 logback-spring.xml 中注册。
+ */
+public class SampledTurnTurboFilter extends TurboFilter {
+
+    private String loggerPrefix = "com.example.v2";
+
+    public void setLoggerPrefix(String loggerPrefix) {
+        this.loggerPrefix = loggerPrefix;
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (level == null || level.isGreaterOrEqual(Level.INFO) || !logger.getName().startsWith(loggerPrefix)) {
+            return FilterReply.NEUTRAL;
+        }
+        return MDC.get(LogContext.SAMPLED) != null ? FilterReply.ACCEPT : FilterReply.NEUTRAL;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.v2.metadata;
+
+/**
+ * 阿拉伯数字与中文数字混合的整数解析，例如 "500" "两千" "十五" "一百零五" "一万二千" "1万"。
+ * "一百五"（150还是105）、"一万二" 这类口语省略写法有歧义，不做解析；"一百一千" 这类单位顺序颠倒的写法和超出long范围的数视为无法解析。
+ */
+final class ChineseNumerals {
+
+    private static final String DIGITS = "零一二三四五六七八九";
+
+    private ChineseNumerals() {}
+
+    /**
+     * @return 无法解析时返回 -1。
+     */
+    static long parse(String text) {
+        if (text.isEmpty()) return -1;
+        try {
+            return parseExact(text);
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    private static long parseExact(String text) {
+        long total = 0;    // 万、亿以上的部分
+        long section = 0;  // 当前万以内的部分
+        long number = -1;  // 尚未乘单位的数字，-1 表示没有
+        long lastUnit = 1; // 上一个单位，用于识别省略写法
+        long sectionUnit = Long.MAX_VALUE; // 当前万以内部分的上一个单位，十百千必须依次递减
+        long bigUnit = Long.MAX_VALUE;     // 上一个万、亿，同样必须递减
+        boolean zero = false;
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (number >= 0) return -1;
+                int end = i;
+                while (end < text.length() && text.charAt(end) >= '0' && text.charAt(end) <= '9') end++;
+                if (end - i > 12) return -1;
+                number = Long.parseLong(text, i, end, 10);
+                i = end;
+                continue;
+            }
+            int digit = c == '两' ? 2 : c == '〇' ? 0 : DIGITS.indexOf(c);
+            if (digit == 0) {
+                // "一百零五" 中的零只是占位
+                if (number > 0) return -1;
+                zero = true;
+            } else if (digit > 0) {
+                if (number >= 0) return -1;
+                number = digit;
+            } else {
+                long unit = switch (c) {
+                    case '十' -> 10;
+                    case '百' -> 100;
+                    case '千' -> 1_000;
+                    case '万' -> 10_000;
+                    case '亿' -> 100_000_000;
+                    default -> -1;
+                };
+                if (unit < 0) return -1;
+                if (unit < 10_000) {
+                    // "十五" 省略了前面的 "一"
+                    if (number < 0 && unit != 10) return -1;
+                    if (unit >= sectionUnit) return -1;
+                    section = Math.addExact(section, Math.multiplyExact(number < 0 ? 1 : number, unit));
+                    sectionUnit = unit;
+                } else {
+                    long part = section + Math.max(number, 0);
+                    if (part == 0 || unit >= bigUnit) return -1;
+                    total = Math.addExact(total, Math.multiplyExact(part, unit));
+                    section = 0;
+                    sectionUnit = Long.MAX_VALUE;
+                    bigUnit = unit;
+                }
+                number = -1;
+                lastUnit = unit;
+                zero = false;
+            }
+            i++;
+        }
+        if (number > 0 && lastUnit >= 100 && !zero) return -1;
+        return Math.addExact(total, section + Math.max(number, 0));
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.v2.metadata;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 工具的一个前置条件：识别出该意图时先检查，不满足时先办理 dependency 这项业务，办完后回到原来的意图。
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface Precondition {
+
+    /**
+     * 检查前置条件的 {@link com.example.v2.tool.PreconditionCheck} Bean的名称。
+     */
+    String check();
+
+    /**
+     * 前置条件不满足时需要先办理的业务工具名称。
+     */
+    String dependency();
+}
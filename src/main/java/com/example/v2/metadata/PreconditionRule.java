@@ -0,0 +1,13 @@
+package com.example.v2.metadata;
+
+/**
+ * 注册表中的一个前置条件，对应工具上声明的 {@link Precondition}。
+ * @param check 检查前置条件的Bean的名称。
+ * @param dependency 不满足时需要先办理的业务工具名称。
+ */
+public record PreconditionRule(String check, String dependency) {
+
+    static PreconditionRule of(Precondition precondition) {
+        return new PreconditionRule(precondition.check(), precondition.dependency());
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.v2.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 工具结果的回复模板，例如 "{city}今天{weather}，气温{temperature}。"，占位符是工具返回记录的字段名。
+ * 注册工具时编译一次，拆成字面量与占位符交替的片段；渲染时只按字段名取值拼接，不再解析模板。
+ */
+public final class ReplyTemplate {
+
+    private final String source;
+    private final String[] literals; // 比 fields 多一个：literals[0] fields[0] literals[1] ... literals[n]
+    private final String[] fields;
+
+    private ReplyTemplate(String source, List<String> literals, List<String> fields) {
+        this.source = source;
+        this.literals = literals.toArray(String[]::new);
+        this.fields = fields.toArray(String[]::new);
+    }
+
+    /**
+     * @throws IllegalArgumentException 花括号不成对或占位符为空时。
+     */
+    public static ReplyTemplate compile(String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> fields = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            int open = template.indexOf('{', from);
+            if (open < 0) break;
+            int close = template.indexOf('}', open + 1);
+            String field = close < 0 ? "" : template.substring(open + 1, close).strip();
+            if (field.isEmpty() || field.indexOf('{') >= 0) {
+                throw new IllegalArgumentException("回复模板的占位符不合法: " + template);
+            }
+            literals.add(template.substring(from, open));
+            fields.add(field);
+            from = close + 1;
+        }
+        literals.add(template.substring(from));
+        if (literals.stream().anyMatch(literal -> literal.indexOf('}') >= 0)) {
+            throw new IllegalArgumentException("回复模板的占位符不合法: " + template);
+        }
+        return new ReplyTemplate(template, literals, fields);
+    }
+
+    /**
+     * 用工具结果渲染回复。
+     * @param values 工具返回记录的字段。
+     * @return 任何一个占位符在结果中缺失或为null时返回空，由调用方改用其他方式回复。
+     */
+    public Optional<String> render(Map<String, ?> values) {
+        StringBuilder reply = new StringBuilder(source.length() + 16 * fields.length).append(literals[0]);
+        for (int i = 0; i < fields.length; i++) {
+            Object value = values.get(fields[i]);
+            if (value == null) return Optional.empty();
+            reply.append(value).append(literals[i + 1]);
+        }
+        return Optional.of(reply.toString());
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.v2.metadata;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 工具所需的一个槽位，缺少该槽位时向用户提问的话术，以及回答的本地解析方式。
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({})
+public @interface Slot {
+
+    String name();
+
+    /**
+     * 提问话术；留空时使用默认的 "请提供 xxx 的信息。"。
+     */
+    String question() default "";
+
+    /**
+     * 本地解析方式。用户回答该槽位的提问时，能按此方式无歧义地解析就直接填入，不再调用LLM。
+     */
+    SlotType type() default SlotType.TEXT;
+
+    /**
+     * PATTERN 类型的正则，整句回答（去掉首尾的标点和空白）必须完全匹配。
+     */
+    String pattern() default "";
+
+    /**
+     * CHOICE 类型的可选值。
+     */
+    String[] options() default {};
+
+    /**
+     * INTEGER 类型的回答末尾允许带的单位，例如 "股"。
+     */
+    String unit() default "";
+}
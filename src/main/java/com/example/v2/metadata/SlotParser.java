@@ -0,0 +1,92 @@
+package com.example.v2.metadata;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * 槽位回答的本地解析器，按 {@link Slot} 上声明的 {@link SlotType} 在注册工具时构建。
+ * 只有整句回答可以无歧义地解析时才返回值；其余情况返回空，由调用方交给LLM提取。
+ */
+@FunctionalInterface
+public interface SlotParser {
+
+    /**
+     * @param answer 用户对该槽位提问的回答。
+     * @return 解析出的槽位值；无法确定时为空。
+     */
+    Optional<Object> parse(String answer);
+
+    /**
+     * @return TEXT 类型的槽位没有本地解析器，返回null。
+     * @throws IllegalStateException PATTERN 没有正则、CHOICE 没有可选值时。
+     */
+    static SlotParser of(Slot slot) {
+        return switch (slot.type()) {
+            case TEXT -> null;
+            case INTEGER -> integer(slot.unit());
+            case PATTERN -> {
+                if (slot.pattern().isEmpty()) throw new IllegalStateException("PATTERN 类型的槽位缺少正则: " + slot.name());
+                yield pattern(Pattern.compile(slot.pattern()));
+            }
+            case CHOICE -> {
+                if (slot.options().length == 0) throw new IllegalStateException("CHOICE 类型的槽位缺少可选值: " + slot.name());
+                yield choice(List.of(slot.options()));
+            }
+        };
+    }
+
+    /**
+     * 正整数。回答去掉单位后必须整个是一个数，例如 "500" "500股" "1,000" "两千" "一万二千" "1万"；"买500股" "五五" 不算。
+     */
+    static SlotParser integer(String unit) {
+        return answer -> {
+            String text = normalize(answer).replace(",", "").replace("，", "");
+            if (!unit.isEmpty() && text.endsWith(unit)) text = text.substring(0, text.length() - unit.length());
+            long value = ChineseNumerals.parse(text);
+            return value > 0 && value <= Integer.MAX_VALUE ? Optional.of((int) value) : Optional.empty();
+        };
+    }
+
+    /**
+     * 整句回答完全匹配正则时，取回答本身作为值。
+     */
+    static SlotParser pattern(Pattern pattern) {
+        return answer -> {
+            String text = normalize(answer);
+            return pattern.matcher(text).matches() ? Optional.of(text) : Optional.empty();
+        };
+    }
+
+    /**
+     * 回答中恰好出现一个可选值，其余部分不超过两个字（"我是本科" "本科毕业"），且不含否定词（"不是本科"）。
+     */
+    static SlotParser choice(List<String> options) {
+        List<String> values = List.copyOf(options);
+        return answer -> {
+            String text = normalize(answer);
+            List<String> found = new ArrayList<>(1);
+            for (String option : values) {
+                if (text.contains(option)) found.add(option);
+            }
+            if (found.size() != 1) return Optional.empty();
+            String rest = text.replace(found.get(0), "");
+            if (rest.length() > 2 || rest.chars().anyMatch(c -> "不没非无".indexOf(c) >= 0)) return Optional.empty();
+            return Optional.of(found.get(0));
+        };
+    }
+
+    /**
+     * 去掉所有空白和首尾的标点。
+     */
+    private static String normalize(String answer) {
+        if (answer == null) return "";
+        String text = answer.replaceAll("\\s+", "");
+        int start = 0;
+        int end = text.length();
+        while (start < end && !Character.isLetterOrDigit(text.charAt(start))) start++;
+        while (end > start && !Character.isLetterOrDigit(text.charAt(end - 1))) end--;
+        return text.substring(start, end);
+    }
+}
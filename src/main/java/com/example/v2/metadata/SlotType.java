@@ -0,0 +1,12 @@
+package com.example.v2.metadata;
+
+/**
+ * 槽位的本地解析方式，决定用户直接回答该槽位的提问时，能否不经过LLM直接填入。
+ * 解析都要求整句回答无歧义，解析不了的回答仍交给LLM提取。
+ */
+public enum SlotType {
+    TEXT,    // 自由文本，不做本地解析
+    INTEGER, // 正整数：阿拉伯数字或中文数字，末尾可以带 {@link Slot#unit()}，例如 "500股" "两千"
+    PATTERN, // 整句回答完全匹配 {@link Slot#pattern()}，例如股票代码
+    CHOICE   // 回答中恰好提到 {@link Slot#options()} 中的一项，例如学历
+}
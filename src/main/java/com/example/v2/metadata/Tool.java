@@ -0,0 +1,57 @@
+package com.example.v2.metadata;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.Map;
+
+/**
+ * 声明一个工具Bean的元数据。
+ * 启动时由 {@link ToolMetadataService} 扫描容器中带有此注解的Bean，构建工具注册表。
+ * 新增工具只需在工具类上加上此注解，无需修改任何核心代码。
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Tool {
+
+    /**
+     * 工具名称，即LLM看到的函数名，也是工具Bean在容器中的名称。
+     */
+    String name();
+
+    /**
+     * 提供给LLM的功能描述。
+     */
+    String description();
+
+    /**
+     * 面向用户的业务名称，用在回复话术中，例如 "开户"；留空时使用工具名称。
+     */
+    String displayName() default "";
+
+    ToolCategory category() default ToolCategory.BUSINESS;
+
+    /**
+     * 完成该工具所需的槽位，按提问顺序排列。
+     */
+    Slot[] slots() default {};
+
+    /**
+     * 前置条件，按检查顺序排列。识别出该意图时即异步检查，不满足时先引导用户办理依赖的业务。
+     */
+    Precondition[] preconditions() default {};
+
+    /**
+     * 工具的输入参数结构，用于生成发送给LLM的参数Schema；通用参数的工具使用Map。
+     */
+    Class<?> request() default Map.class;
+
+    /**
+     * 执行成功时的回复模板，占位符 {字段名} 取自工具返回记录的同名字段，例如 "{city}今天{weather}。"。
+     * 有模板时结果在本地渲染，不再调用LLM总结；留空时按配置交给LLM总结或使用通用回复。
+     */
+    String replyTemplate() default "";
+}
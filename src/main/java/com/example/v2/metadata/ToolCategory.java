@@ -0,0 +1,10 @@
+package com.example.v2.metadata;
+
+/**
+ * 工具分类，决定对话流在什么时机把工具提供给LLM。
+ */
+public enum ToolCategory {
+    BUSINESS,   // 业务办理，会开启一个多轮收集槽位的任务
+    DIGRESSION, // 偏离话题，任务进行中也可以随时插入执行，不影响主线
+    CONTROL     // 对话控制（如修改槽位），只在特定阶段提供，没有独立的执行逻辑
+}
@@ -1,87 +1,190 @@
 package com.example.v2.metadata;
 
-import com.example.v2.tool.OpenAccountService;
-import com.example.v2.tool.StockPurchaseService;
-import com.example.v2.tool.WeatherToolService;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 工具元数据服务 (工具的“唯一真实来源”)。
  * 集中管理所有工具的元信息，包括其描述、所需槽位和提问话术。
+ * <p>
+ * 工具通过 {@link Tool} 注解声明，启动时被扫描并冻结为不可变的索引（按名称、按分类、槽位到话术），
+ * 查询都是O(1)。新增工具时以写时复制的方式原子地替换整个索引，读取方无需加锁。
  */
 @Service
 public class ToolMetadataService {
 
     /**
-     * 内部数据结构，用于定义一个完整的工具元数据。
+     * 一个完整的工具元数据。
+     * @param displayName 面向用户的业务名称，没有声明时与 toolName 相同。
+     * @param requiredSlots 完成该工具所需的槽位，按提问顺序排列。
+     * @param slotQuestions 槽位到提问话术的映射。
+     * @param slotParsers 声明了本地解析方式的槽位到其解析器的映射。
+     * @param replyTemplate 编译好的成功回复模板；没有声明时为null。
+     * @param preconditions 前置条件，按检查顺序排列。
      */
-    private record ToolMetadata(
+    public record ToolMetadata(
         String toolName,
+        String displayName,
         String description,
+        ToolCategory category,
         Set<String> requiredSlots,
-        Class<?> requestClass // 用于后续通过反射构建参数
-    ) {}
-
-    private static final List<ToolMetadata> TOOL_METADATA_LIST = List.of(
-        new ToolMetadata(
-            "open_account",
-            "为用户开立一个新的账户。需要提供学历、职业和住址信息。",
-            Set.of("education", "occupation", "address"),
-            OpenAccountService.Request.class
-        ),
-        new ToolMetadata(
-            "stock_purchase",
-            "为用户购买指定数量的股票。需要提供股票代码和购买数量。",
-            Set.of("ticker", "quantity"),
-            StockPurchaseService.Request.class
-        ),
-        new ToolMetadata(
-            "check_weather",
-            "查询指定城市的天气情况。如果用户没有指定城市，可以默认为杭州。",
-            Set.of(), // 天气查询没有必需的槽位
-            WeatherToolService.Request.class
-        ),
-        new ToolMetadata(
-            "modify_slot",
-            "当用户在最后确认信息阶段，明确指出某一项信息错误并提供新值时使用此功能。",
-            Set.of("slot_name", "slot_value"),
-            Map.class // 使用一个通用的Map
-        )
-    );
-
-    private static final Map<String, String> SLOT_QUESTIONS = Map.of(
-        "education", "请问您的学历是？",
-        "occupation", "您的职业是什么呢？",
-        "address", "您的常住地址是哪里？",
-        "ticker", "好的，请问您想购买哪只股票的代码？",
-        "quantity", "您计划购买多少股？"
-    );
+        Map<String, String> slotQuestions,
+        Map<String, SlotParser> slotParsers,
+        Class<?> requestClass, // 用于后续通过反射构建参数
+        ReplyTemplate replyTemplate,
+        List<PreconditionRule> preconditions
+    ) {
+        public ToolMetadata {
+            if (displayName == null || displayName.isBlank()) displayName = toolName;
+            requiredSlots = Collections.unmodifiableSet(new LinkedHashSet<>(requiredSlots));
+            slotQuestions = Map.copyOf(slotQuestions);
+            slotParsers = Map.copyOf(slotParsers);
+            preconditions = List.copyOf(preconditions);
+        }
+
+        public static ToolMetadata from(Tool tool) {
+            Set<String> slots = new LinkedHashSet<>();
+            Map<String, String> questions = new HashMap<>();
+            Map<String, SlotParser> parsers = new HashMap<>();
+            for (Slot slot : tool.slots()) {
+                slots.add(slot.name());
+                if (!slot.question().isEmpty()) questions.put(slot.name(), slot.question());
+                SlotParser parser = SlotParser.of(slot);
+                if (parser != null) parsers.put(slot.name(), parser);
+            }
+            ReplyTemplate replyTemplate = tool.replyTemplate().isEmpty() ? null : ReplyTemplate.compile(tool.replyTemplate());
+            List<PreconditionRule> preconditions = Arrays.stream(tool.preconditions()).map(PreconditionRule::of).toList();
+            return new ToolMetadata(tool.name(), tool.displayName(), tool.description(), tool.category(), slots, questions, parsers, tool.request(),
+                replyTemplate, preconditions);
+        }
+    }
+
+    /**
+     * 某一时刻的工具索引快照，构建完成后不再修改。
+     */
+    private record Registry(
+        long version,
+        List<ToolMetadata> tools,
+        Map<String, ToolMetadata> byName,
+        Map<ToolCategory, Set<String>> namesByCategory,
+        Map<String, String> slotQuestions
+    ) {
+        static Registry of(long version, Collection<ToolMetadata> tools) {
+            Map<String, ToolMetadata> byName = new LinkedHashMap<>();
+            for (ToolMetadata tool : tools) {
+                if (byName.putIfAbsent(tool.toolName(), tool) != null) {
+                    throw new IllegalStateException("重复的工具名称: " + tool.toolName());
+                }
+            }
+
+            Map<ToolCategory, Set<String>> namesByCategory = new EnumMap<>(ToolCategory.class);
+            Map<String, String> slotQuestions = new HashMap<>();
+            for (ToolCategory category : ToolCategory.values()) {
+                Set<String> names = new LinkedHashSet<>();
+                byName.values().stream().filter(t -> t.category() == category).forEach(t -> names.add(t.toolName()));
+                namesByCategory.put(category, Collections.unmodifiableSet(names));
+            }
+            byName.values().forEach(t -> t.slotQuestions().forEach(slotQuestions::putIfAbsent));
+
+            return new Registry(version, List.copyOf(byName.values()), Collections.unmodifiableMap(byName),
+                Collections.unmodifiableMap(namesByCategory), Map.copyOf(slotQuestions));
+        }
+    }
+
+    private final AtomicReference<Registry> registry;
+
+    /**
+     * 从Spring容器中发现所有带 {@link Tool} 注解的Bean。
+     */
+    @Autowired
+    public ToolMetadataService(ListableBeanFactory beanFactory) {
+        this(discoverTools(beanFactory));
+    }
+
+    public ToolMetadataService(Collection<ToolMetadata> tools) {
+        this.registry = new AtomicReference<>(Registry.of(0, tools));
+    }
+
+    private static List<ToolMetadata> discoverTools(ListableBeanFactory beanFactory) {
+        List<ToolMetadata> tools = new ArrayList<>();
+        for (Object bean : beanFactory.getBeansWithAnnotation(Tool.class).values()) {
+            Tool tool = AnnotationUtils.findAnnotation(AopUtils.getTargetClass(bean), Tool.class);
+            tools.add(ToolMetadata.from(tool));
+        }
+        tools.sort(Comparator.comparing(ToolMetadata::category).thenComparing(ToolMetadata::toolName));
+        return tools;
+    }
+
+    /**
+     * 热加载新的工具（同名工具会被替换）。写时复制：构建新的索引后原子替换，进行中的读取不受影响。
+     */
+    public void register(Collection<ToolMetadata> tools) {
+        registry.updateAndGet(current -> {
+            Map<String, ToolMetadata> merged = new LinkedHashMap<>(current.byName());
+            tools.forEach(t -> merged.put(t.toolName(), t));
+            return Registry.of(current.version() + 1, merged.values());
+        });
+    }
+
+    /**
+     * 索引版本号，每次热加载后递增。依赖工具列表的缓存可据此判断是否需要重建。
+     */
+    public long version() {
+        return registry.get().version();
+    }
+
+    public Optional<ToolMetadata> getTool(String toolName) {
+        return Optional.ofNullable(registry.get().byName().get(toolName));
+    }
 
     public Set<String> getRequiredSlots(String intentName) {
-        return TOOL_METADATA_LIST.stream()
-            .filter(t -> t.toolName.equals(intentName))
-            .findFirst()
-            .map(ToolMetadata::requiredSlots)
-            .orElse(Set.of());
+        ToolMetadata tool = registry.get().byName().get(intentName);
+        return tool == null ? Set.of() : tool.requiredSlots();
+    }
+
+    /**
+     * 某个工具的槽位声明的本地解析器；该槽位是自由文本时为空。
+     */
+    public Optional<SlotParser> getSlotParser(String intentName, String slotName) {
+        ToolMetadata tool = registry.get().byName().get(intentName);
+        return tool == null ? Optional.empty() : Optional.ofNullable(tool.slotParsers().get(slotName));
+    }
+
+    /**
+     * 某个工具声明的前置条件；工具不存在或没有声明时为空列表。
+     */
+    public List<PreconditionRule> getPreconditions(String intentName) {
+        ToolMetadata tool = registry.get().byName().get(intentName);
+        return tool == null ? List.of() : tool.preconditions();
+    }
+
+    /**
+     * 工具面向用户的业务名称，用于回复话术；工具不存在时原样返回工具名称。
+     */
+    public String getDisplayName(String toolName) {
+        ToolMetadata tool = registry.get().byName().get(toolName);
+        return tool == null ? toolName : tool.displayName();
     }
 
     public String getQuestionForSlot(String slotName) {
-        return SLOT_QUESTIONS.getOrDefault(slotName, "请提供 " + slotName + " 的信息。");
+        return registry.get().slotQuestions().getOrDefault(slotName, "请提供 " + slotName + " 的信息。");
     }
 
     public List<ToolMetadata> getAllTools() {
-        return TOOL_METADATA_LIST;
+        return registry.get().tools();
+    }
+
+    public Set<String> getToolNames(ToolCategory category) {
+        return registry.get().namesByCategory().get(category);
     }
 
     public Set<String> getBusinessToolNames() {
-        return TOOL_METADATA_LIST.stream()
-            .filter(t -> !t.toolName.equals("check_weather") && !t.toolName.equals("modify_slot"))
-            .map(ToolMetadata::toolName)
-            .collect(Collectors.toSet());
+        return getToolNames(ToolCategory.BUSINESS);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,248 @@
+package com.example.v2.service;
+
+import com.example.v2.chat.ChatClient;
+import com.example.v2.chat.ChatOptions;
+import com.example.v2.chat.ChatStage;
+import com.example.v2.chat.Prompt;
+import com.example.v2.chat.SystemMessage;
+import com.example.v2.chat.TokenEstimator;
+import com.example.v2.state.ChatHistory;
+import com.example.v2.state.ChatMessage;
+import com.example.v2.state.DialogueState;
+import com.example.v2.state.DialogueStateCache;
+import com.example.v2.state.DialogueStateEvictionListener;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对话历史压缩：让每次LLM调用的提示词大小不随对话变长而增长。
+ * <ul>
+ *   <li>窗口：按阶段的Token预算，从最新的消息往前取；历史摘要（如果有）总是放在最前面；</li>
+ *   <li>滚动摘要：保留最近 keepTurns 轮原文，更早的消息在后台线程上由LLM总结成一条摘要消息，
+ *       下一轮开始时替换掉被总结的那段历史。摘要本身也会被下一次总结吸收。</li>
+ * </ul>
+ * 摘要只在下一轮开始时、由处理该轮的线程写入状态，因此不会与正在进行的对话轮次相互覆盖。
+ * 待应用的摘要在会话结束或状态被淘汰时丢弃；会话不再有下一轮时，超过 pendingTtl 的摘要同样丢弃，
+ * 条数超过 maxPendingSummaries 时丢弃最早生成的，新摘要总能放入。
+ */
+@Service
+public class ChatHistoryCompactor implements DialogueStateEvictionListener, MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatHistoryCompactor.class);
+
+    static final String SUMMARY_PREFIX = "【此前对话摘要】";
+
+    /**
+     * 一份已生成、待下一轮应用的摘要。只有当状态中的历史前缀与生成时一致才会应用。
+     */
+    private record PendingSummary(int prefixLength, ChatMessage lastSummarized, ChatMessage summary, long createdAtNanos) {}
+
+    // 超出上限时丢弃到上限的这个比例以下，避免每生成一份摘要就排序一次
+    private static final double EVICTION_LOW_WATERMARK = 0.9;
+
+    private final ChatClient chatClient;
+    private final PromptTemplateService promptTemplateService;
+    private final ThreadPoolTaskExecutor llmExecutor;
+    private final int keepMessages;
+    private final int summarizeBatchMessages;
+    private final int maxPendingSummaries;
+    private final long pendingTtlNanos;
+    private final Map<ChatStage, Integer> budgets;
+    private final LongAdder droppedSummaries = new LongAdder();
+
+    private final Map<String, PendingSummary> pendingSummaries = new ConcurrentHashMap<>();
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+    public ChatHistoryCompactor(
+        ChatClient chatClient,
+        PromptTemplateService promptTemplateService,
+        @Qualifier("llmExecutor") ThreadPoolTaskExecutor llmExecutor,
+        @Value("${dialogue.history.keep-turns:4}") int keepTurns,
+        @Value("${dialogue.history.summarize-batch-turns:2}") int summarizeBatchTurns,
+        @Value("${dialogue.history.max-pending-summaries:10000}") int maxPendingSummaries,
+        @Value("${dialogue.history.pending-summary-ttl:30m}") Duration pendingTtl,
+        @Value("${dialogue.history.budget.extraction:1500}") int extractionBudget,
+        @Value("${dialogue.history.budget.chat:2000}") int chatBudget,
+        @Value("${dialogue.history.budget.summarization:1500}") int summarizationBudget
+    ) {
+        this.chatClient = chatClient;
+        this.promptTemplateService = promptTemplateService;
+        this.llmExecutor = llmExecutor;
+        // 一轮 = 一条用户消息 + 一条助手回复
+        this.keepMessages = keepTurns * 2;
+        this.summarizeBatchMessages = Math.max(1, summarizeBatchTurns * 2);
+        this.maxPendingSummaries = maxPendingSummaries;
+        this.pendingTtlNanos = pendingTtl.toNanos();
+        this.budgets = Map.of(ChatStage.EXTRACTION, extractionBudget, ChatStage.CHAT, chatBudget, ChatStage.SUMMARIZATION, summarizationBudget);
+    }
+
+    /**
+     * 构造发给LLM的消息列表：系统提示词 + 在该阶段Token预算内的对话历史。
+     * 最新的一条消息总是保留（超长时截断），其余按从新到旧的顺序尽量放入；历史摘要最多占一半预算。
+     */
+    public List<Object> buildMessages(String systemPrompt, List<ChatMessage> history, ChatStage stage) {
+        List<Object> messages = new ArrayList<>();
+        messages.add(new SystemMessage(systemPrompt));
+        messages.addAll(window(history, budgets.get(stage.budget()) - TokenEstimator.estimate(systemPrompt) - TokenEstimator.MESSAGE_OVERHEAD));
+        return messages;
+    }
+
+    static List<ChatMessage> window(List<ChatMessage> history, int budget) {
+        if (history.isEmpty()) return List.of();
+        int start = isSummary(history.get(0)) ? 1 : 0;
+        // 摘要概括了窗口之外的全部上下文，预算允许时优先为它预留
+        ChatMessage summary = start == 1 && TokenEstimator.estimate(history.get(0)) <= budget / 2 ? history.get(0) : null;
+
+        List<ChatMessage> selected = new ArrayList<>();
+        int remaining = summary == null ? budget : budget - TokenEstimator.estimate(summary);
+        for (int i = history.size() - 1; i >= start; i--) {
+            ChatMessage message = history.get(i);
+            int cost = TokenEstimator.estimate(message);
+            if (cost > remaining) {
+                if (selected.isEmpty()) {
+                    int room = Math.max(0, remaining - TokenEstimator.MESSAGE_OVERHEAD);
+                    selected.add(new ChatMessage(message.role(), TokenEstimator.truncate(message.content(), room)));
+                    remaining = 0;
+                }
+                break;
+            }
+            selected.add(message);
+            remaining -= cost;
+        }
+        if (summary != null) {
+            selected.add(summary);
+        }
+        Collections.reverse(selected);
+        return selected;
+    }
+
+    private static boolean isSummary(ChatMessage message) {
+        return message.role() == ChatMessage.Role.SYSTEM && message.content() != null && message.content().startsWith(SUMMARY_PREFIX);
+    }
+
+    /**
+     * 在一轮对话开始时调用：如果后台已经为该会话生成了摘要，并且历史前缀没有变化，就返回用摘要替换了那段历史的新状态。
+     */
+    public DialogueState applyPendingSummary(DialogueState state) {
+        PendingSummary pending = pendingSummaries.remove(state.conversationId());
+        if (pending == null) return state;
+        if (System.nanoTime() - pending.createdAtNanos() > pendingTtlNanos) {
+            droppedSummaries.increment();
+            return state;
+        }
+        ChatHistory history = state.chatHistory();
+        if (history.size() < pending.prefixLength() || !history.get(pending.prefixLength() - 1).equals(pending.lastSummarized())) {
+            return state;
+        }
+        log.debug("[历史压缩] 已用摘要替换 {} 条历史消息", pending.prefixLength());
+        return state.withChatHistory(history.replacePrefix(pending.prefixLength(), pending.summary()));
+    }
+
+    /**
+     * 在一轮对话提交后调用：最近 keepTurns 轮之前积累的消息足够多时，提交一个后台摘要任务。
+     * 同一会话同时最多一个摘要任务；LLM线程池已满时本次跳过，下一轮再试。
+     */
+    public void scheduleCompaction(DialogueState state) {
+        ChatHistory history = state.chatHistory();
+        int start = !history.isEmpty() && isSummary(history.get(0)) ? 1 : 0;
+        int prefixLength = history.size() - keepMessages;
+        if (prefixLength - start < summarizeBatchMessages) return;
+
+        String conversationId = state.conversationId();
+        if (!summarizing.add(conversationId)) return;
+        // 历史不可变，前缀视图与状态共享存储，无需复制
+        ChatHistory prefix = history.prefix(prefixLength);
+        try {
+            llmExecutor.execute(() -> {
+                try {
+                    ChatMessage summary = ChatMessage.system(SUMMARY_PREFIX + summarize(prefix));
+                    pendingSummaries.put(conversationId, new PendingSummary(prefixLength, prefix.get(prefixLength - 1), summary, System.nanoTime()));
+                    if (pendingSummaries.size() > maxPendingSummaries) trimPendingSummaries();
+                } catch (RuntimeException e) {
+                    log.warn("[历史压缩] 生成摘要失败: {}", e.toString());
+                } finally {
+                    summarizing.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            summarizing.remove(conversationId);
+        }
+    }
+
+    /**
+     * 会话结束时丢弃尚未应用的摘要。
+     */
+    public void discard(String conversationId) {
+        pendingSummaries.remove(conversationId);
+    }
+
+    /**
+     * 会话状态被淘汰（空闲过期或被挤出）后不会再有下一轮，它的摘要也不会再被应用。
+     */
+    @Override
+    public void onEviction(String conversationId, DialogueState state, DialogueStateCache.EvictionCause cause) {
+        if (pendingSummaries.remove(conversationId) != null) droppedSummaries.increment();
+    }
+
+    /**
+     * 先丢弃过期的摘要；仍然超出上限时，按生成时间从早到晚丢弃。在生成摘要的后台线程上执行。
+     */
+    void trimPendingSummaries() {
+        long now = System.nanoTime();
+        pendingSummaries.entrySet().removeIf(e -> {
+            boolean expired = now - e.getValue().createdAtNanos() > pendingTtlNanos;
+            if (expired) droppedSummaries.increment();
+            return expired;
+        });
+        if (pendingSummaries.size() <= maxPendingSummaries) return;
+
+        long target = (long) (maxPendingSummaries * EVICTION_LOW_WATERMARK);
+        List<Map.Entry<String, PendingSummary>> oldest = new ArrayList<>(pendingSummaries.entrySet());
+        oldest.sort(Comparator.comparingLong(e -> e.getValue().createdAtNanos()));
+        for (Map.Entry<String, PendingSummary> e : oldest) {
+            if (pendingSummaries.size() <= target) break;
+            if (pendingSummaries.remove(e.getKey(), e.getValue())) droppedSummaries.increment();
+        }
+        log.debug("[历史压缩] 待应用的摘要超过上限 {}，已丢弃最早生成的", maxPendingSummaries);
+    }
+
+    /**
+     * 当前待应用的摘要数。
+     */
+    int pendingSummaries() {
+        return pendingSummaries.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("dialogue.history.summaries.pending", pendingSummaries, Map::size)
+            .description("已生成、等待下一轮应用的历史摘要数").register(registry);
+        FunctionCounter.builder("dialogue.history.summaries.dropped", droppedSummaries, LongAdder::sum)
+            .description("因会话被淘汰、过期或超出上限而丢弃的历史摘要数").register(registry);
+    }
+
+    private String summarize(List<ChatMessage> prefix) {
+        List<Object> messages = buildMessages(promptTemplateService.getHistorySummaryPrompt(), prefix, ChatStage.HISTORY_SUMMARY);
+        String content = chatClient.call(new Prompt(messages, new ChatOptions(null, ChatStage.HISTORY_SUMMARY))).result().content();
+        return content == null ? "" : content.strip();
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.v2.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 按会话串行化对话轮次的轻量信箱。
+ * 同一会话的消息排队、按到达顺序逐轮处理，避免并发的 读-改-写 互相覆盖状态；不同会话之间完全并行，没有全局锁。
+ * <ul>
+ *   <li>没有专门的线程：最先到达的请求就地执行，结束后把执行权交给队首的下一条
+ *       （同步调用唤醒它的请求线程，异步调用提交到它指定的执行器）；</li>
+ *   <li>coalesce 开启时，一轮开始前把队列里积压的消息合并成一条，只跑一轮、只付一次LLM调用，所有请求拿到同一个回复；
+ *       coalesce-window 大于0时，每轮开始前先等待这么久，以便收拢连发的消息。</li>
+ * </ul>
+ * 信箱在队列清空时即被移除，空闲会话不占内存。
+ */
+@Component
+public class ConversationMailbox implements MeterBinder {
+
+    /**
+     * 执行一轮对话。
+     */
+    @FunctionalInterface
+    public interface TurnHandler {
+        DialogueFlowService.DialogueResponse handle(String conversationId, String message, Consumer<String> replySink);
+    }
+
+    private static final class Envelope {
+        final String message;
+        final Consumer<String> replySink;
+        final Executor executor; // null 表示由提交请求的线程自己执行
+        final CompletableFuture<DialogueFlowService.DialogueResponse> result = new CompletableFuture<>();
+        final CompletableFuture<Void> handoff = new CompletableFuture<>();
+
+        Envelope(String message, Consumer<String> replySink, Executor executor) {
+            this.message = message;
+            this.replySink = replySink;
+            this.executor = executor;
+        }
+    }
+
+    // 队首的消息正在执行或即将执行；队列只在 ConcurrentHashMap.compute 内访问
+    private final Map<String, ArrayDeque<Envelope>> mailboxes = new ConcurrentHashMap<>();
+    private final LongAdder coalescedMessages = new LongAdder();
+    private final boolean coalesce;
+    private final long coalesceWindowNanos;
+
+    public ConversationMailbox(
+        @Value("${dialogue.mailbox.coalesce:false}") boolean coalesce,
+        @Value("${dialogue.mailbox.coalesce-window:0ms}") Duration coalesceWindow
+    ) {
+        this.coalesce = coalesce;
+        this.coalesceWindowNanos = coalesceWindow.toNanos();
+    }
+
+    /**
+     * 在调用线程上执行（排在同一会话的前序消息之后）。
+     */
+    public DialogueFlowService.DialogueResponse call(String conversationId, String message, Consumer<String> replySink, TurnHandler handler) {
+        Envelope envelope = new Envelope(message, replySink, null);
+        if (!enqueue(conversationId, envelope)) {
+            // 等前序轮次结束：要么被合并进别人的轮次直接拿到结果，要么轮到自己执行
+            CompletableFuture.anyOf(envelope.result, envelope.handoff).join();
+        }
+        if (!envelope.result.isDone()) {
+            runNextTurn(conversationId, handler);
+        }
+        try {
+            return envelope.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    /**
+     * 排队后在指定执行器上执行，调用方不阻塞。执行器拒绝时返回的Future以 {@link RejectedExecutionException} 失败。
+     */
+    public CompletableFuture<DialogueFlowService.DialogueResponse> submit(String conversationId, String message, Consumer<String> replySink,
+                                                                          Executor executor, TurnHandler handler) {
+        Envelope envelope = new Envelope(message, replySink, Objects.requireNonNull(executor, "executor"));
+        if (enqueue(conversationId, envelope) && !dispatch(conversationId, envelope, handler)) {
+            handOff(conversationId, handler);
+        }
+        return envelope.result;
+    }
+
+    /**
+     * @return 信箱原本为空、由这条消息开始执行时为 true。
+     */
+    private boolean enqueue(String conversationId, Envelope envelope) {
+        boolean[] first = {false};
+        mailboxes.compute(conversationId, (id, queue) -> {
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                first[0] = true;
+            }
+            queue.addLast(envelope);
+            return queue;
+        });
+        return first[0];
+    }
+
+    private void runNextTurn(String conversationId, TurnHandler handler) {
+        if (coalesce && coalesceWindowNanos > 0) {
+            LockSupport.parkNanos(coalesceWindowNanos);
+        }
+        List<Envelope> batch = new ArrayList<>();
+        mailboxes.computeIfPresent(conversationId, (id, queue) -> {
+            if (coalesce) {
+                batch.addAll(queue);
+                queue.clear();
+            } else {
+                batch.add(queue.pollFirst());
+            }
+            return queue;
+        });
+        if (batch.size() > 1) coalescedMessages.add(batch.size() - 1);
+
+        try {
+            String message = batch.size() == 1
+                ? batch.get(0).message
+                : batch.stream().map(e -> e.message).collect(Collectors.joining("\n"));
+            DialogueFlowService.DialogueResponse response = handler.handle(conversationId, message, combinedSink(batch));
+            batch.forEach(e -> e.result.complete(response));
+        } catch (Throwable t) {
+            batch.forEach(e -> e.result.completeExceptionally(t));
+        } finally {
+            handOff(conversationId, handler);
+        }
+    }
+
+    /**
+     * 把执行权交给队首的下一条消息；队列已空时移除信箱。
+     */
+    private void handOff(String conversationId, TurnHandler handler) {
+        while (true) {
+            Envelope[] next = {null};
+            mailboxes.computeIfPresent(conversationId, (id, queue) -> {
+                next[0] = queue.peekFirst();
+                return queue.isEmpty() ? null : queue;
+            });
+            if (next[0] == null || dispatch(conversationId, next[0], handler)) return;
+        }
+    }
+
+    /**
+     * @return 成功交出执行权时为 true；执行器拒绝时该消息出队并以失败结束，返回 false。
+     */
+    private boolean dispatch(String conversationId, Envelope head, TurnHandler handler) {
+        if (head.executor == null) {
+            head.handoff.complete(null);
+            return true;
+        }
+        try {
+            head.executor.execute(() -> runNextTurn(conversationId, handler));
+            return true;
+        } catch (RejectedExecutionException e) {
+            mailboxes.computeIfPresent(conversationId, (id, queue) -> {
+                queue.remove(head);
+                return queue;
+            });
+            head.result.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    private static Consumer<String> combinedSink(List<Envelope> batch) {
+        List<Consumer<String>> sinks = batch.stream().map(e -> e.replySink).filter(Objects::nonNull).toList();
+        if (sinks.isEmpty()) return null;
+        if (sinks.size() == 1) return sinks.get(0);
+        return delta -> sinks.forEach(sink -> sink.accept(delta));
+    }
+
+    /**
+     * 当前有消息在处理或排队的会话数。
+     */
+    public int activeConversations() {
+        return mailboxes.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("dialogue.mailbox.active", mailboxes, Map::size)
+            .description("有消息在处理或排队的会话数").register(registry);
+        FunctionCounter.builder("dialogue.mailbox.coalesced", coalescedMessages, LongAdder::sum)
+            .description("被合并进其他轮次的消息数").register(registry);
+    }
+}
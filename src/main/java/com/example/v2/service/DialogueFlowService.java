@@ -3,189 +3,620 @@ package com.example.v2.service;
 import com.example.v2.chat.AssistantMessage;
 import com.example.v2.chat.ChatClient;
 import com.example.v2.chat.ChatOptions;
+import com.example.v2.chat.ChatStage;
 import com.example.v2.chat.Prompt;
-import com.example.v2.chat.SystemMessage;
+import com.example.v2.chat.StreamingChatClient;
+import com.example.v2.logging.LogContext;
+import com.example.v2.metadata.ToolCategory;
 import com.example.v2.metadata.ToolMetadataService;
+import com.example.v2.state.ChatHistory;
 import com.example.v2.state.ChatMessage;
 import com.example.v2.state.DialogueState;
 import com.example.v2.state.DialogueStateService;
+import com.example.v2.tool.ModifySlotTool;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 public class DialogueFlowService {
 
+    private static final Logger log = LoggerFactory.getLogger(DialogueFlowService.class);
+
     @Autowired private ChatClient chatClient;
     @Autowired private DialogueStateService stateService;
     @Autowired private ToolMetadataService metadataService;
     @Autowired private WorkflowDispatcherService workflowDispatcher;
     @Autowired private PromptTemplateService promptTemplateService; // 注入提示词服务
-    private final ObjectMapper mapper = new ObjectMapper();
+    @Autowired private ChatHistoryCompactor historyCompactor; // 按Token预算截取历史，并在后台滚动摘要
+    @Autowired private ConversationMailbox mailbox; // 同一会话的消息串行执行
+    @Autowired private DialogueMetrics metrics; // 各阶段耗时、每轮LLM调用次数
+    @Autowired private LocalIntentClassifier localClassifier; // 短句在本地判定意图，不调用LLM
+    @Autowired private PreconditionChecker preconditionChecker; // 识别出意图时即异步检查前置条件，结果按用户缓存
+    @Autowired @Qualifier("llmExecutor") private ThreadPoolTaskExecutor llmExecutor;
+    @Autowired @Qualifier("dialogueExecutor") private ThreadPoolTaskExecutor dialogueExecutor;
+    @Autowired private ObjectMapper mapper; // Spring Boot 配置的共享实例
+
+    /**
+     * 进行中任务的意图识别方式。
+     * COMBINED: 把偏离、主线、修改槽位的工具合并到一次LLM调用中，按返回的工具路由（默认）；
+     * PARALLEL: 各组候选并发调用，取最先返回的明确结果；
+     * SEQUENTIAL: 逐组调用，命中即停。
+     */
+    public enum ExtractionMode { COMBINED, PARALLEL, SEQUENTIAL }
+
+    @Value("${dialogue.extraction.mode:COMBINED}")
+    private ExtractionMode extractionMode;
+
+    /**
+     * 按此比例抽样的对话轮次，会无视日志级别输出本轮的全部DEBUG日志（见 {@link com.example.v2.logging.SampledTurnTurboFilter}）。
+     */
+    @Value("${dialogue.logging.turn-sample-rate:0}")
+    private double turnSampleRate;
+
+    /**
+     * 工作流结果无法用模板渲染时（工具没有模板、执行出错或业务失败），是否调用LLM总结；关闭时使用通用话术。
+     */
+    @Value("${dialogue.reply.llm-fallback:false}")
+    private boolean llmSummaryFallback;
+
+    /**
+     * 等待前置条件检查结果的最长时间；超时按满足处理，由工具执行时的检查兜底。
+     */
+    @Value("${dialogue.preconditions.timeout:2s}")
+    private Duration preconditionTimeout;
 
     public record DialogueResponse(String reply, boolean isTaskFinished) {}
 
+    private static final String ASK_WHICH_SLOT = "好的，请问是哪一项信息有误呢？";
+    private static final String BACK_TO_MAIN_TASK = "\n\n那么，回到我们正在办理的业务，";
+
     public DialogueResponse processMessage(String userMessage, String conversationId) {
-        DialogueState state = stateService.getState(conversationId)
-            .orElseGet(() -> new DialogueState(conversationId, null, null, new HashMap<>(), null, new ArrayList<>()));
+        return processMessage(userMessage, conversationId, null);
+    }
 
-        state.chatHistory().add(new ChatMessage("user", userMessage));
+    /**
+     * 异步处理一条用户消息：整轮对话（包括其中阻塞的LLM调用）在有界的 dialogueExecutor 上执行，调用方线程立即返回。
+     * 同一会话的前序消息未处理完时只排队，不占用线程。
+     * 线程池和队列都已满时，返回的Future以 {@link RejectedExecutionException} 失败。
+     */
+    public CompletableFuture<DialogueResponse> processMessageAsync(String userMessage, String conversationId) {
+        return mailbox.submit(conversationId, userMessage, null, dialogueExecutor, this::runTurn);
+    }
+
+    /**
+     * 处理一条用户消息。同一会话的消息经 {@link ConversationMailbox} 串行执行，可能与排队中的消息合并成一轮。
+     * @param replySink 不为null时进入流式模式：LLM生成的回复片段和固定话术会在产生时逐段推送给它。
+     */
+    public DialogueResponse processMessage(String userMessage, String conversationId, Consumer<String> replySink) {
+        return mailbox.call(conversationId, userMessage, replySink, this::runTurn);
+    }
+
+    private DialogueResponse runTurn(String conversationId, String userMessage, Consumer<String> replySink) {
+        // 本轮的所有日志（包括转交给LLM线程池的调用）都带上会话ID和关联ID，关联ID同时作为LLM请求的 X-Request-ID
+        MDC.put(LogContext.CONVERSATION_ID, conversationId);
+        MDC.put(LogContext.REQUEST_ID, UUID.randomUUID().toString());
+        if (turnSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < turnSampleRate) {
+            MDC.put(LogContext.SAMPLED, "true");
+        }
+        long startNanos = System.nanoTime();
+        String outcome = "error";
+        try {
+            DialogueResponse response = executeTurn(conversationId, userMessage, replySink);
+            outcome = response.isTaskFinished() ? "finished" : "ongoing";
+            log.atDebug().setMessage("[对话流] 本轮结束")
+                .addKeyValue("finished", response.isTaskFinished())
+                .addKeyValue("elapsedMs", () -> (System.nanoTime() - startNanos) / 1_000_000)
+                .log();
+            return response;
+        } finally {
+            metrics.recordTurn(outcome, System.nanoTime() - startNanos);
+            MDC.remove(LogContext.CONVERSATION_ID);
+            MDC.remove(LogContext.REQUEST_ID);
+            MDC.remove(LogContext.SAMPLED);
+        }
+    }
+
+    private DialogueResponse executeTurn(String conversationId, String userMessage, Consumer<String> replySink) {
+        DialogueState state = metrics.timeStage("load_state", null, () -> stateService.getState(conversationId)
+            .orElseGet(() -> new DialogueState(conversationId, null, null, new HashMap<>(), null, ChatHistory.empty())));
+        state = historyCompactor.applyPendingSummary(state)
+            .withMessage(ChatMessage.user(userMessage));
+        DialogueTurn turn = new DialogueTurn(state, replySink);
 
         DialogueResponse response = (state.intentName() != null)
-            ? continueOngoingTask(state)
-            : startNewTask(state);
-        
-        state.chatHistory().add(new ChatMessage("assistant", response.reply()));
+            ? continueOngoingTask(turn)
+            : startNewTask(turn);
+        turn.complete(response.reply());
+        metrics.recordLlmCalls(turn.llmCalls());
+
+        // 本轮结束，统一提交推进后的最终状态
+        DialogueState finalState = turn.state().withMessage(ChatMessage.assistant(response.reply()));
+        long saveStart = System.nanoTime();
         if (response.isTaskFinished()) {
             stateService.clearState(conversationId);
+            historyCompactor.discard(conversationId);
         } else {
-            stateService.saveState(conversationId, state);
+            stateService.saveState(conversationId, finalState);
+            historyCompactor.scheduleCompaction(finalState);
         }
+        metrics.recordStage("save_state", null, "success", System.nanoTime() - saveStart);
 
         return response;
     }
 
-    private DialogueResponse startNewTask(DialogueState state) {
-        System.out.println("--- [对话流] 尝试开启新任务... ---");
+    private DialogueResponse startNewTask(DialogueTurn turn) {
+        log.debug("[对话流] 尝试开启新任务");
+        DialogueState state = turn.state();
         Set<String> allBusinessTools = metadataService.getBusinessToolNames();
-        var intentResult = extractIntentAndSlots(state.chatHistory(), allBusinessTools, state.conversationId());
+        Set<String> digressionTools = metadataService.getToolNames(ToolCategory.DIGRESSION);
+        // 业务和偏离类工具放在同一次调用中：一条消息可以同时开启业务并顺带查询（并行工具调用），纯查询也不必再问一次
+        Set<String> candidateTools = new LinkedHashSet<>(allBusinessTools);
+        candidateTools.addAll(digressionTools);
+        Optional<IntentExtractionResult> local = classifyLocally(turn, candidateTools);
+        var intentResult = local.orElseGet(() -> extractIntentAndSlots(turn, candidateTools));
+
+        List<IntentExtractionResult> digressions = intentResult.callsOf(digressionTools);
+        List<IntentExtractionResult> businessCalls = intentResult.callsOf(allBusinessTools);
+        if (businessCalls.isEmpty()) {
+            return digressions.isEmpty() ? new DialogueResponse(handleSimpleChat(turn), true) : executeDigressions(digressions, turn);
+        }
+
+        // 一次只能办理一项业务：取第一个业务调用，同名的调用合并槽位，其余业务在回复末尾提示
+        String intentName = businessCalls.get(0).intentName();
+        Map<String, Object> slots = new HashMap<>();
+        Set<String> deferredIntents = new LinkedHashSet<>();
+        for (IntentExtractionResult call : businessCalls) {
+            if (call.intentName().equals(intentName)) slots.putAll(call.extractedSlots());
+            else deferredIntents.add(metadataService.getDisplayName(call.intentName()));
+        }
+        // 识别出意图就开始检查前置条件，与偏离类工具的执行同时进行
+        CompletableFuture<Optional<String>> unmet = preconditionChecker.firstUnmet(intentName, state.conversationId());
+        String digressionReply = digressions.isEmpty() ? null : answerDigressions(turn, digressions);
+        if (digressionReply != null) turn.flush(digressionReply + "\n\n");
+
+        DialogueResponse response = beginTask(turn, intentName, slots, unmet);
 
-        if ("no_intent".equals(intentResult.intentName())) {
-            return handleDigressionOrSimpleChat(state);
+        String reply = response.reply();
+        if (digressionReply != null) reply = digressionReply + "\n\n" + reply;
+        if (!deferredIntents.isEmpty()) {
+            reply += String.format("\n\n另外，您提到的%s需要在当前业务办理完成后再为您办理。", String.join("、", deferredIntents));
         }
+        return new DialogueResponse(reply, response.isTaskFinished());
+    }
 
-        Set<String> requiredSlots = metadataService.getRequiredSlots(intentResult.intentName());
-        DialogueState newState = new DialogueState(state.conversationId(), intentResult.intentName(), requiredSlots, new HashMap<>(intentResult.extractedSlots()), DialogueState.Status.GATHERING_INFO, state.chatHistory());
-        
-        return proceedState(newState);
+    /**
+     * 开始办理一项业务。前置条件不满足时先转入依赖的业务，原来的意图和已提取的参数记为 OriginatingIntent，办完后据此恢复。
+     * @param unmet 识别出意图时发起的前置条件检查，见 {@link PreconditionChecker#firstUnmet}。
+     */
+    private DialogueResponse beginTask(DialogueTurn turn, String intentName, Map<String, Object> slots, CompletableFuture<Optional<String>> unmet) {
+        Optional<String> dependency = awaitPrecondition(intentName, unmet);
+        if (dependency.isPresent()) {
+            log.info("[对话流] 前置条件不满足，先办理: {}", dependency.get());
+            return startDependency(turn, dependency.get(), new DialogueState.OriginatingIntent(intentName, slots));
+        }
+        DialogueState state = turn.state();
+        Set<String> requiredSlots = metadataService.getRequiredSlots(intentName);
+        DialogueState newState = new DialogueState(state.conversationId(), intentName, requiredSlots, slots, DialogueState.Status.GATHERING_INFO, state.chatHistory());
+        return proceedState(turn, newState);
     }
 
-    private DialogueResponse continueOngoingTask(DialogueState state) {
-        System.out.println("--- [对话流] 继续进行中任务: " + state.intentName() + " ---");
+    /**
+     * 等待前置条件的检查结果。超时或检查出错时按满足处理，执行时工具自己的检查兜底（见 handleWorkflowResult）。
+     */
+    private Optional<String> awaitPrecondition(String intentName, CompletableFuture<Optional<String>> unmet) {
+        long start = System.nanoTime();
+        String outcome = "unknown";
+        try {
+            Optional<String> dependency = unmet.get(preconditionTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            outcome = dependency.isPresent() ? "unmet" : "met";
+            return dependency;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("[对话流] 前置条件检查未完成，按满足处理: {}", intentName, e);
+            return Optional.empty();
+        } finally {
+            metrics.recordStage("precondition", intentName, outcome, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 转入依赖的业务（子任务），主线意图记在子任务状态中。
+     */
+    private DialogueResponse startDependency(DialogueTurn turn, String dependency, DialogueState.OriginatingIntent originatingIntent) {
+        DialogueState state = turn.state();
+        DialogueState subTaskState = new DialogueState(state.conversationId(), dependency, metadataService.getRequiredSlots(dependency), new HashMap<>(), DialogueState.Status.GATHERING_INFO, originatingIntent, state.chatHistory());
+        DialogueResponse response = proceedState(turn, subTaskState);
+        return new DialogueResponse(String.format("好的，收到您的%s请求。但在操作前，需要先为您办理%s。我们开始吧？%s",
+            metadataService.getDisplayName(originatingIntent.intentName()), metadataService.getDisplayName(dependency), response.reply()), false);
+    }
+
+    private DialogueResponse continueOngoingTask(DialogueTurn turn) {
+        log.debug("[对话流] 继续进行中任务: {}", turn.state().intentName());
         // **修正点**: 将原有的闲聊/偏离逻辑统一到一个方法中处理
-        return handlePossibleDigression(state);
+        return handlePossibleDigression(turn);
     }
 
-    private DialogueResponse handlePossibleDigression(DialogueState state) {
-        Set<String> digressionTools = Set.of("check_weather");
-        var intentResult = extractIntentAndSlots(state.chatHistory(), digressionTools, state.conversationId());
+    private DialogueResponse handlePossibleDigression(DialogueTurn turn) {
+        DialogueState state = turn.state();
+        Optional<IntentExtractionResult> local = classifyLocally(turn, localIntents(state));
+        if (local.isPresent()) {
+            return handleLocalIntent(turn, local.get());
+        }
+        if (fillPendingSlotLocally(turn)) {
+            return proceedState(turn, state);
+        }
+
+        IntentExtractionResult intentResult = switch (extractionMode) {
+            case COMBINED -> extractIntentAndSlots(turn, combinedCandidateTools(state));
+            case PARALLEL -> extractFirstDecisive(turn);
+            case SEQUENTIAL -> extractSequentially(turn);
+        };
+
+        // 同一条消息里可能既有偏离（顺带查询）又有主线（补充或修改槽位），两者都处理，偏离的回答放在前面
+        Set<String> digressionTools = metadataService.getToolNames(ToolCategory.DIGRESSION);
+        List<IntentExtractionResult> digressions = intentResult.callsOf(digressionTools);
+        List<IntentExtractionResult> mainCalls = intentResult.calls().stream()
+            .filter(call -> !digressionTools.contains(call.intentName()))
+            .toList();
+        if (!digressions.isEmpty() && mainCalls.isEmpty()) {
+            return executeDigressions(digressions, turn);
+        }
+        String digressionReply = digressions.isEmpty() ? null : answerDigressions(turn, digressions);
+        if (digressionReply != null) turn.flush(digressionReply + BACK_TO_MAIN_TASK);
 
-        if (!"no_intent".equals(intentResult.intentName())) {
-            return executeDigression(intentResult, state);
+        DialogueResponse response;
+        if (state.status() == DialogueState.Status.CONFIRMATION_PENDING) {
+            response = handleConfirmation(turn, mainCalls);
+        } else {
+            for (IntentExtractionResult call : mainCalls) {
+                if (call.intentName().equals(state.intentName())) state.collectedSlots().putAll(call.extractedSlots());
+            }
+            response = proceedState(turn, state);
         }
+        return digressionReply == null ? response
+            : new DialogueResponse(digressionReply + BACK_TO_MAIN_TASK + response.reply(), response.isTaskFinished());
+    }
 
-        // 如果不是偏离，则继续主线任务
+    /**
+     * 进行中任务可以在本地判定的意图：偏离类工具、取消，确认阶段另有肯定和否定。
+     */
+    private Set<String> localIntents(DialogueState state) {
+        Set<String> intents = new HashSet<>(metadataService.getToolNames(ToolCategory.DIGRESSION));
+        intents.add(LocalIntentClassifier.CANCEL);
         if (state.status() == DialogueState.Status.CONFIRMATION_PENDING) {
-            return handleConfirmation(state);
+            intents.add(LocalIntentClassifier.AFFIRM);
+            intents.add(LocalIntentClassifier.DENY);
         }
+        return intents;
+    }
+
+    private DialogueResponse handleLocalIntent(DialogueTurn turn, IntentExtractionResult intentResult) {
+        return switch (intentResult.intentName()) {
+            case LocalIntentClassifier.CANCEL -> cancelTask(turn);
+            case LocalIntentClassifier.AFFIRM -> executeConfirmedTask(turn);
+            case LocalIntentClassifier.DENY -> new DialogueResponse(ASK_WHICH_SLOT, false);
+            default -> executeDigressions(List.of(intentResult), turn);
+        };
+    }
+
+    /**
+     * 用户取消进行中的任务（包括因前置条件挂起的主线任务），本轮结束后会话状态被清除。
+     */
+    private DialogueResponse cancelTask(DialogueTurn turn) {
+        log.info("[对话流] 用户取消了任务: {}", turn.state().intentName());
+        return new DialogueResponse("好的，已为您取消当前的办理。如果还有其他需要，随时告诉我。", true);
+    }
+
+    /**
+     * 收集槽位时，用户多半是在回答刚才提问的那个槽位：按该槽位声明的解析方式能无歧义地解析时直接填入，不调用LLM。
+     * @return 已经填入时为 true。
+     */
+    private boolean fillPendingSlotLocally(DialogueTurn turn) {
+        DialogueState state = turn.state();
+        if (state.status() != DialogueState.Status.GATHERING_INFO) return false;
+        Optional<String> pendingSlot = findNextMissingSlot(state);
+        if (pendingSlot.isEmpty()) return false;
+        Optional<Object> value = metadataService.getSlotParser(state.intentName(), pendingSlot.get())
+            .flatMap(parser -> parser.parse(state.chatHistory().last().content()));
+        if (value.isEmpty()) return false;
+
+        log.atDebug().setMessage("[对话流] 本地解析槽位")
+            .addKeyValue("slot", pendingSlot.get())
+            .addKeyValue("value", value.get())
+            .log();
+        metrics.recordAvoidedLlmCall("fill_slot");
+        state.collectedSlots().put(pendingSlot.get(), value.get());
+        return true;
+    }
+
+    /**
+     * 先用本地短语分类判定意图，判定成功时省掉一次意图识别的LLM调用。
+     * @param allowed 当前上下文中可以直接采用的意图；判定出其他意图时仍交给LLM。
+     */
+    private Optional<IntentExtractionResult> classifyLocally(DialogueTurn turn, Set<String> allowed) {
+        return localClassifier.classify(turn.state().chatHistory().last().content())
+            .filter(classification -> allowed.contains(classification.intent()))
+            .map(classification -> {
+                log.atDebug().setMessage("[对话流] 本地判定意图")
+                    .addKeyValue("intent", classification.intent())
+                    .addKeyValue("confidence", classification.confidence())
+                    .log();
+                metrics.recordAvoidedLlmCall(classification.intent());
+                Map<String, Object> slots = new HashMap<>();
+                slots.put("userId", turn.state().conversationId());
+                return new IntentExtractionResult(classification.intent(), slots);
+            });
+    }
+
+    /**
+     * 进行中任务的候选工具分组，按优先级排列：先判断是否偏离，再看主线（收集中补充槽位 / 确认中修改槽位）。
+     */
+    private List<Set<String>> candidateToolGroups(DialogueState state) {
+        Set<String> mainTools = state.status() == DialogueState.Status.CONFIRMATION_PENDING
+            ? Set.of(ModifySlotTool.NAME)
+            : Set.of(state.intentName());
+        return List.of(metadataService.getToolNames(ToolCategory.DIGRESSION), mainTools);
+    }
 
-        var mainIntentResult = extractIntentAndSlots(state.chatHistory(), Set.of(state.intentName()), state.conversationId());
-        state.collectedSlots().putAll(mainIntentResult.extractedSlots());
-        return proceedState(state);
+    private Set<String> combinedCandidateTools(DialogueState state) {
+        Set<String> tools = new LinkedHashSet<>();
+        candidateToolGroups(state).forEach(tools::addAll);
+        return tools;
     }
 
-    private DialogueResponse handleDigressionOrSimpleChat(DialogueState state) {
-        Set<String> digressionTools = Set.of("check_weather");
-        var intentResult = extractIntentAndSlots(state.chatHistory(), digressionTools, state.conversationId());
+    /**
+     * 逐组调用LLM，命中即停。这是合并模式之前的行为，最坏情况下每轮需要两次往返。
+     */
+    private IntentExtractionResult extractSequentially(DialogueTurn turn) {
+        for (Set<String> tools : candidateToolGroups(turn.state())) {
+            var result = extractIntentAndSlots(turn, tools);
+            if (!"no_intent".equals(result.intentName())) return result;
+        }
+        return IntentExtractionResult.NO_INTENT;
+    }
 
-        if (!"no_intent".equals(intentResult.intentName())) {
-            return executeDigression(intentResult, state);
+    /**
+     * 各组候选同时发给LLM，取最先返回的明确结果，并取消其余仍在进行的调用。
+     * 某一组调用失败时继续等其余各组，全部失败才抛出。LLM线程池已满时退化为逐组调用。
+     */
+    private IntentExtractionResult extractFirstDecisive(DialogueTurn turn) {
+        List<Set<String>> groups = candidateToolGroups(turn.state());
+        // 经由 ThreadPoolTaskExecutor 提交，任务带上MDC (conversationId / requestId)，出站请求沿用同一个 X-Request-ID
+        CompletionService<IntentExtractionResult> completion = new ExecutorCompletionService<>(llmExecutor);
+        List<Future<IntentExtractionResult>> futures = new ArrayList<>();
+        try {
+            for (Set<String> tools : groups) {
+                futures.add(completion.submit(() -> extractIntentAndSlots(turn, tools)));
+            }
+        } catch (RejectedExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            return extractSequentially(turn);
+        }
+
+        try {
+            Throwable failure = null;
+            int failed = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                IntentExtractionResult result;
+                try {
+                    result = completion.take().get();
+                } catch (ExecutionException e) {
+                    log.warn("[对话流] 一组候选的意图识别失败，继续等待其余各组", e.getCause());
+                    if (failure == null) failure = e.getCause();
+                    failed++;
+                    continue;
+                }
+                if (!"no_intent".equals(result.intentName())) return result;
+            }
+            if (failed == futures.size()) throw new IllegalStateException("并发意图识别失败", failure);
+            return IntentExtractionResult.NO_INTENT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("意图识别被中断", e);
+        } finally {
+            futures.forEach(f -> f.cancel(true));
         }
-        return new DialogueResponse(handleSimpleChat(state.chatHistory()), true);
     }
 
-    private DialogueResponse executeDigression(IntentExtractionResult intentResult, DialogueState currentState) {
-        System.out.println("--- [对话流] 检测到偏离任务... ---");
-        Map<String, Object> workflowResult = workflowDispatcher.dispatch(intentResult.intentName(), intentResult.extractedSlots());
-        String digressionReply = summarizeResult(currentState.chatHistory(), workflowResult);
+    private DialogueResponse executeDigressions(List<IntentExtractionResult> digressions, DialogueTurn turn) {
+        DialogueState currentState = turn.state();
+        String digressionReply = answerDigressions(turn, digressions);
 
         if (currentState != null && currentState.intentName() != null) {
             String mainTaskQuestion = findNextMissingSlot(currentState).map(metadataService::getQuestionForSlot).orElse(buildConfirmationMessage(currentState));
-            return new DialogueResponse(digressionReply + "\n\n那么，回到我们正在办理的业务，" + mainTaskQuestion, false);
+            return new DialogueResponse(digressionReply + BACK_TO_MAIN_TASK + mainTaskQuestion, false);
         }
         return new DialogueResponse(digressionReply, true);
     }
 
-    private String handleSimpleChat(List<ChatMessage> history) {
-        System.out.println("--- [对话流] 处理纯闲聊... ---");
+    /**
+     * 执行一条消息中的偏离类工具调用，多个调用并发执行；各自的回复按调用顺序逐行拼接。
+     * 某个工具调度失败或回复生成失败时，只把它那一行换成错误提示，其余工具和主任务照常继续。
+     */
+    private String answerDigressions(DialogueTurn turn, List<IntentExtractionResult> digressions) {
+        log.atDebug().setMessage("[对话流] 检测到偏离任务")
+            .addKeyValue("intents", () -> digressions.stream().map(IntentExtractionResult::intentName).toList())
+            .log();
+        List<Map<String, Object>> results = workflowDispatcher.dispatchAll(digressions.stream()
+            .map(call -> new WorkflowDispatcherService.Invocation(call.intentName(), call.extractedSlots()))
+            .toList());
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < digressions.size(); i++) {
+            if (i > 0) turn.flush(reply.append('\n').toString());
+            reply.append(answerDigression(turn, digressions.get(i).intentName(), results.get(i)));
+        }
+        return reply.toString();
+    }
+
+    private String answerDigression(DialogueTurn turn, String toolName, Map<String, Object> workflowResult) {
+        if (!"error".equals(workflowResult.get("status"))) {
+            try {
+                return summarizeResult(turn, toolName, workflowResult);
+            } catch (RuntimeException e) {
+                log.warn("[对话流] 生成 {} 的回复失败", toolName, e);
+            }
+        }
+        return String.format("抱歉，%s暂时无法办理，请稍后再试。", metadataService.getDisplayName(toolName));
+    }
+
+    private String handleSimpleChat(DialogueTurn turn) {
+        log.debug("[对话流] 处理纯闲聊");
         String systemPrompt = promptTemplateService.getSimpleChatPrompt();
-        var options = new ChatOptions(null);
-        List<Object> messages = new ArrayList<>();
-        messages.add(new SystemMessage(systemPrompt));
-        messages.addAll(history);
+        var options = new ChatOptions(null, ChatStage.CHAT);
+        List<Object> messages = historyCompactor.buildMessages(systemPrompt, turn.state().chatHistory(), ChatStage.CHAT);
         var prompt = new Prompt(messages, options);
-        return chatClient.call(prompt).result().content();
+        return generateReply(prompt, turn);
     }
 
-    private DialogueResponse proceedState(DialogueState state) {
+    private DialogueResponse proceedState(DialogueTurn turn, DialogueState state) {
         Optional<String> nextSlot = findNextMissingSlot(state);
         if (nextSlot.isEmpty()) {
             DialogueState newState = new DialogueState(state.conversationId(), state.intentName(), state.requiredSlots(), state.collectedSlots(), DialogueState.Status.CONFIRMATION_PENDING, state.originatingIntent(), state.chatHistory());
-            stateService.saveState(state.conversationId(), newState);
+            turn.advance(newState);
             return new DialogueResponse(buildConfirmationMessage(newState), false);
         } else {
-            stateService.saveState(state.conversationId(), state);
+            turn.advance(state);
             return new DialogueResponse(metadataService.getQuestionForSlot(nextSlot.get()), false);
         }
     }
 
-    private DialogueResponse handleConfirmation(DialogueState state) {
-        var intentResult = extractIntentAndSlots(state.chatHistory(), Set.of("modify_slot"), state.conversationId());
-
-        if ("modify_slot".equals(intentResult.intentName())) {
-            Map<String, Object> args = intentResult.extractedSlots();
-            state.collectedSlots().put((String)args.get("slot_name"), args.get("slot_value"));
+    /**
+     * @param mainCalls 本条消息中针对主线的工具调用；可能有多个修改槽位的调用（一次改几项），全部应用。
+     */
+    private DialogueResponse handleConfirmation(DialogueTurn turn, List<IntentExtractionResult> mainCalls) {
+        DialogueState state = turn.state();
+        List<IntentExtractionResult> modifications = mainCalls.stream()
+            .filter(call -> ModifySlotTool.NAME.equals(call.intentName()))
+            .toList();
+        if (!modifications.isEmpty()) {
+            for (IntentExtractionResult modification : modifications) {
+                Map<String, Object> args = modification.extractedSlots();
+                state.collectedSlots().put((String)args.get("slot_name"), args.get("slot_value"));
+            }
             DialogueState newState = new DialogueState(state.conversationId(), state.intentName(), state.requiredSlots(), state.collectedSlots(), DialogueState.Status.CONFIRMATION_PENDING, state.originatingIntent(), state.chatHistory());
+            turn.advance(newState);
             return new DialogueResponse(buildConfirmationMessage(newState), false);
         }
 
-        String lastUserMessage = state.chatHistory().get(state.chatHistory().size() - 1).content();
+        String lastUserMessage = state.chatHistory().last().content();
         if (lastUserMessage.contains("对") || lastUserMessage.contains("是的") || lastUserMessage.contains("没错")) {
-            Map<String, Object> workflowResult = workflowDispatcher.dispatch(state.intentName(), state.collectedSlots());
-            return handleWorkflowResult(workflowResult, state.intentName(), state.collectedSlots(), state, state.originatingIntent());
+            return executeConfirmedTask(turn);
         } else {
-            return new DialogueResponse("好的，请问是哪一项信息有误呢？", false);
+            return new DialogueResponse(ASK_WHICH_SLOT, false);
         }
     }
 
-    private DialogueResponse handleWorkflowResult(Map<String, Object> result, String originalIntent, Map<String, Object> originalArgs, DialogueState state, DialogueState.OriginatingIntent parentIntent) {
-        String status = (String) result.get("status");
-        if ("PRECONDITION_FAILED".equals(status)) {
-            Map<String, String> data = (Map<String, String>) result.get("data");
-            String missingDependency = data.get("missingDependency");
-            System.out.println("--- [对话流] 检测到前置条件失败，需要引导用户解决: " + missingDependency + " ---");
+    private DialogueResponse executeConfirmedTask(DialogueTurn turn) {
+        DialogueState state = turn.state();
+        Map<String, Object> workflowResult = workflowDispatcher.dispatch(state.intentName(), state.collectedSlots());
+        return handleWorkflowResult(workflowResult, state.intentName(), state.collectedSlots(), turn, state.originatingIntent());
+    }
 
-            DialogueState.OriginatingIntent originatingIntent = new DialogueState.OriginatingIntent(originalIntent, originalArgs);
-            DialogueState subTaskState = new DialogueState(state.conversationId(), missingDependency, metadataService.getRequiredSlots(missingDependency), new HashMap<>(), DialogueState.Status.GATHERING_INFO, originatingIntent, state.chatHistory());
-            stateService.saveState(state.conversationId(), subTaskState);
-            return new DialogueResponse(String.format("好的，收到您的%s请求。但在操作前，需要先为您办理%s。我们开始吧？%s", originalIntent, missingDependency, metadataService.getQuestionForSlot(findNextMissingSlot(subTaskState).get())), false);
+    private DialogueResponse handleWorkflowResult(Map<String, Object> result, String originalIntent, Map<String, Object> originalArgs, DialogueTurn turn, DialogueState.OriginatingIntent parentIntent) {
+        DialogueState state = turn.state();
+        Map<String, Object> data = resultData(result);
+        if ("PRECONDITION_FAILED".equals(data.get("status"))) {
+            // 识别意图时的检查结果已经过时（或检查超时），以执行时的结果为准
+            String missingDependency = (String) data.get("missingDependency");
+            log.info("[对话流] 检测到前置条件失败，需要引导用户解决: {}", missingDependency);
+            return startDependency(turn, missingDependency, new DialogueState.OriginatingIntent(originalIntent, originalArgs));
         }
 
-        if (parentIntent != null) {
-            System.out.println("--- [对话流] 子任务完成，回归主线任务: " + parentIntent.intentName() + " ---");
-            stateService.clearState(state.conversationId());
-            return startNewTask(new DialogueState(state.conversationId(), null, null, null, null, state.chatHistory()));
-        } else {
-            String summary = summarizeResult(state.chatHistory(), result);
+        boolean succeeded = succeeded(result, data);
+        // 办完一项业务后，此前不满足的前置条件可能已经成立（例如开户之后有了股东账户）
+        if (succeeded) preconditionChecker.invalidate(state.conversationId());
+        String summary = summarizeResult(turn, originalIntent, result);
+        if (parentIntent == null || !succeeded) {
             return new DialogueResponse(summary, true);
         }
+
+        // 主线意图和当时提取的参数原样恢复，不再调用LLM重新识别；前置条件重新检查
+        log.info("[对话流] 子任务完成，回归主线任务: {}", parentIntent.intentName());
+        String prefix = summary + "\n\n接下来继续办理您的" + metadataService.getDisplayName(parentIntent.intentName()) + "。";
+        turn.flush(prefix);
+        CompletableFuture<Optional<String>> unmet = preconditionChecker.firstUnmet(parentIntent.intentName(), state.conversationId());
+        DialogueResponse resumed = beginTask(turn, parentIntent.intentName(), new HashMap<>(parentIntent.arguments()), unmet);
+        return new DialogueResponse(prefix + resumed.reply(), resumed.isTaskFinished());
+    }
+
+    /**
+     * 把工作流结果转成给用户的回复。执行成功且工具声明了回复模板时在本地渲染，不调用LLM；
+     * 其余情况在开启 dialogue.reply.llm-fallback 时交给LLM总结，否则使用通用话术。
+     */
+    private String summarizeResult(DialogueTurn turn, String toolName, Map<String, Object> workflowResult) {
+        long start = System.nanoTime();
+        Map<String, Object> data = resultData(workflowResult);
+        boolean succeeded = succeeded(workflowResult, data);
+        if (succeeded) {
+            Optional<String> rendered = metadataService.getTool(toolName)
+                .map(ToolMetadataService.ToolMetadata::replyTemplate)
+                .flatMap(template -> template.render(data));
+            if (rendered.isPresent()) {
+                metrics.recordStage("render_result", toolName, "template", System.nanoTime() - start);
+                return rendered.get();
+            }
+        }
+        if (llmSummaryFallback) return summarizeWithLlm(turn, workflowResult);
+        metrics.recordStage("render_result", toolName, "generic", System.nanoTime() - start);
+        return succeeded ? "已为您办理完成。" : "抱歉，处理您的请求时出现了问题，请稍后再试。";
     }
 
-    private String summarizeResult(List<ChatMessage> history, Map<String, Object> workflowResult) {
+    /**
+     * 调度成功，且工具返回的业务状态（如果有）是 SUCCESS。
+     */
+    private static boolean succeeded(Map<String, Object> workflowResult, Map<String, Object> data) {
+        return "success".equals(workflowResult.get("status"))
+            && (data.get("status") == null || "SUCCESS".equals(data.get("status")));
+    }
+
+    /**
+     * 工具返回的是强类型的Response记录，业务状态等字段在其内部（例如 StockPurchaseService.Response.status）。
+     */
+    private Map<String, Object> resultData(Map<String, Object> workflowResult) {
+        Object data = workflowResult.get("data");
+        return data == null ? Map.of() : mapper.convertValue(data, new TypeReference<Map<String, Object>>() {});
+    }
+
+    private String summarizeWithLlm(DialogueTurn turn, Map<String, Object> workflowResult) {
         try {
             String resultJson = mapper.writeValueAsString(workflowResult);
-            String systemPrompt = promptTemplateService.getSummarizationPrompt(history.get(history.size()-1).content(), resultJson);
-            List<Object> messages = new ArrayList<>();
-            messages.add(new SystemMessage(systemPrompt));
-            var prompt = new Prompt(messages, new ChatOptions(null));
-            return chatClient.call(prompt).result().content();
+            String systemPrompt = promptTemplateService.getSummarizationPrompt(turn.state().chatHistory().last().content(), resultJson);
+            List<Object> messages = historyCompactor.buildMessages(systemPrompt, List.of(), ChatStage.SUMMARIZATION);
+            var prompt = new Prompt(messages, new ChatOptions(null, ChatStage.SUMMARIZATION));
+            return generateReply(prompt, turn);
         } catch (JsonProcessingException e) { return "处理结果时出现错误。"; }
     }
 
+    /**
+     * 调用LLM生成面向用户的回复。流式模式下边生成边推送。
+     */
+    private String generateReply(Prompt prompt, DialogueTurn turn) {
+        turn.countLlmCall();
+        return metrics.timeStage(prompt.options().stage().name().toLowerCase(Locale.ROOT), null, () -> {
+            if (turn.isStreaming() && chatClient instanceof StreamingChatClient streamingClient) {
+                return streamingClient.stream(prompt, turn::emit).result().content();
+            }
+            return chatClient.call(prompt).result().content();
+        });
+    }
+
     private Optional<String> findNextMissingSlot(DialogueState state) {
         return state.requiredSlots().stream().filter(slot -> !state.collectedSlots().containsKey(slot) || state.collectedSlots().get(slot) == null).findFirst();
     }
@@ -195,27 +626,76 @@ public class DialogueFlowService {
         return String.format("好的，请您确认信息：\n%s\n信息正确吗？", collectedInfo);
     }
 
-    private record IntentExtractionResult(String intentName, Map<String, Object> extractedSlots) {}
+    /**
+     * @param parallelCalls 服务商在同一次回复中返回的其余工具调用（并行工具调用），按返回顺序排列。
+     */
+    private record IntentExtractionResult(String intentName, Map<String, Object> extractedSlots, List<IntentExtractionResult> parallelCalls) {
+        static final IntentExtractionResult NO_INTENT = new IntentExtractionResult("no_intent", Collections.emptyMap());
+
+        IntentExtractionResult(String intentName, Map<String, Object> extractedSlots) {
+            this(intentName, extractedSlots, List.of());
+        }
+
+        /**
+         * 本次回复中的全部工具调用；没有调用任何工具时为空。
+         */
+        List<IntentExtractionResult> calls() {
+            if ("no_intent".equals(intentName)) return List.of();
+            if (parallelCalls.isEmpty()) return List.of(this);
+            List<IntentExtractionResult> calls = new ArrayList<>(1 + parallelCalls.size());
+            calls.add(this);
+            calls.addAll(parallelCalls);
+            return calls;
+        }
+
+        List<IntentExtractionResult> callsOf(Set<String> tools) {
+            return calls().stream().filter(call -> tools.contains(call.intentName())).toList();
+        }
+    }
+
+    private IntentExtractionResult extractIntentAndSlots(DialogueTurn turn, Set<String> tools) {
+        // 候选只有偏离类工具时，这次调用只是判断用户是否偏离了主线
+        ChatStage stage = metadataService.getToolNames(ToolCategory.DIGRESSION).containsAll(tools) ? ChatStage.DIGRESSION_CHECK : ChatStage.EXTRACTION;
+        long start = System.nanoTime();
+        String matchedTool = null;
+        String outcome = "error";
+        try {
+            IntentExtractionResult result = doExtractIntentAndSlots(turn, tools, stage);
+            boolean matched = !"no_intent".equals(result.intentName());
+            matchedTool = matched ? result.intentName() : null;
+            outcome = matched ? "matched" : "no_intent";
+            return result;
+        } finally {
+            metrics.recordStage(stage.name().toLowerCase(Locale.ROOT), matchedTool, outcome, System.nanoTime() - start);
+        }
+    }
 
-    private IntentExtractionResult extractIntentAndSlots(List<ChatMessage> history, Set<String> tools, String userId) {
+    private IntentExtractionResult doExtractIntentAndSlots(DialogueTurn turn, Set<String> tools, ChatStage stage) {
         // **修正点**: 将系统提示词作为第一条消息发送给LLM
         String systemPrompt = promptTemplateService.getSlotExtractionPrompt();
-        List<Object> messages = new ArrayList<>();
-        messages.add(new SystemMessage(systemPrompt));
-        messages.addAll(history);
+        List<Object> messages = historyCompactor.buildMessages(systemPrompt, turn.state().chatHistory(), stage);
 
-        var options = new ChatOptions(tools);
+        var options = new ChatOptions(tools, stage);
         var prompt = new Prompt(messages, options);
+        turn.countLlmCall();
         var assistantMessage = chatClient.call(prompt).result();
 
-        if (assistantMessage.toolCalls() != null && !assistantMessage.toolCalls().isEmpty()) {
-            var toolCall = assistantMessage.toolCalls().get(0);
+        if (assistantMessage.toolCalls() == null || assistantMessage.toolCalls().isEmpty()) {
+            return IntentExtractionResult.NO_INTENT;
+        }
+        // 服务商可能在一次回复中返回多个工具调用，全部保留；参数无法解析的调用丢弃
+        List<IntentExtractionResult> calls = new ArrayList<>(assistantMessage.toolCalls().size());
+        for (var toolCall : assistantMessage.toolCalls()) {
             try {
                 Map<String, Object> slots = mapper.readValue(toolCall.function().arguments(), new TypeReference<>() {});
-                slots.put("userId", userId);
-                return new IntentExtractionResult(toolCall.function().name(), slots);
-            } catch (Exception e) { return new IntentExtractionResult("no_intent", Collections.emptyMap()); }
+                slots.put("userId", turn.state().conversationId());
+                calls.add(new IntentExtractionResult(toolCall.function().name(), slots));
+            } catch (Exception e) {
+                log.debug("[对话流] 丢弃参数无法解析的工具调用: {}", toolCall.function().name());
+            }
         }
-        return new IntentExtractionResult("no_intent", Collections.emptyMap());
+        if (calls.isEmpty()) return IntentExtractionResult.NO_INTENT;
+        IntentExtractionResult first = calls.get(0);
+        return new IntentExtractionResult(first.intentName(), first.extractedSlots(), List.copyOf(calls.subList(1, calls.size())));
     }
 }
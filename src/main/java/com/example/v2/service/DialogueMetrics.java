@@ -0,0 +1,102 @@
+package com.example.v2.service;
+
+import com.example.v2.metadata.ToolMetadataService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 对话流水线的指标。
+ * <ul>
+ *   <li>dialogue.stage：各阶段耗时（直方图），标签 stage / tool / outcome；</li>
+ *   <li>dialogue.turn：整轮耗时（直方图），标签 outcome；</li>
+ *   <li>dialogue.turn.llm.calls：每轮发起的LLM调用次数；</li>
+ *   <li>dialogue.llm.calls.avoided：由本地意图分类或槽位解析省掉的意图识别调用次数，标签 intent（槽位解析记为 fill_slot）。</li>
+ * </ul>
+ * 标签值都来自有限集合：tool 只取已注册的工具名，LLM返回的未知名称记为 unknown。
+ * 会话ID、关联ID这类无上限的值不作为标签，而是放在日志和exemplar里。
+ */
+@Component
+public class DialogueMetrics {
+
+    static final String NONE = "none";
+
+    private final MeterRegistry registry;
+    private final ToolMetadataService metadataService;
+
+    public DialogueMetrics(MeterRegistry registry, ToolMetadataService metadataService) {
+        this.registry = registry;
+        this.metadataService = metadataService;
+    }
+
+    /**
+     * 执行并记录一个阶段，正常返回时 outcome=success，抛出异常时 outcome=error。
+     */
+    public <T> T timeStage(String stage, String tool, Supplier<T> body) {
+        return timeStage(stage, tool, body, result -> "success");
+    }
+
+    /**
+     * 执行并记录一个阶段，正常返回时由 outcomeOf 根据结果决定 outcome。
+     */
+    public <T> T timeStage(String stage, String tool, Supplier<T> body, Function<? super T, String> outcomeOf) {
+        long start = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = body.get();
+            outcome = outcomeOf.apply(result);
+            return result;
+        } finally {
+            recordStage(stage, tool, outcome, System.nanoTime() - start);
+        }
+    }
+
+    public void recordStage(String stage, String tool, String outcome, long nanos) {
+        Timer.builder("dialogue.stage")
+            .description("对话流水线各阶段耗时")
+            .tag("stage", stage)
+            .tag("tool", toolTag(tool))
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordTurn(String outcome, long nanos) {
+        Timer.builder("dialogue.turn")
+            .description("一轮对话的总耗时")
+            .tag("outcome", outcome)
+            .publishPercentileHistogram()
+            .register(registry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordLlmCalls(int llmCalls) {
+        DistributionSummary.builder("dialogue.turn.llm.calls")
+            .description("每轮对话发起的LLM调用次数")
+            .register(registry)
+            .record(llmCalls);
+    }
+
+    /**
+     * @param intent 本地判定的意图，来自配置的有限集合；本地解析槽位时为 fill_slot。
+     */
+    public void recordAvoidedLlmCall(String intent) {
+        Counter.builder("dialogue.llm.calls.avoided")
+            .description("本地意图分类和槽位解析省掉的LLM调用次数")
+            .tag("intent", intent)
+            .register(registry)
+            .increment();
+    }
+
+    private String toolTag(String tool) {
+        if (tool == null) return NONE;
+        return metadataService.getTool(tool).isPresent() ? tool : "unknown";
+    }
+}
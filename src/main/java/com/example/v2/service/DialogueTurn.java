@@ -0,0 +1,79 @@
+package com.example.v2.service;
+
+import com.example.v2.state.DialogueState;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 一轮对话的上下文。
+ * 持有本轮推进过程中最新的对话状态，以及（流式模式下）向前端推送回复片段的出口。
+ * 本轮结束时由 {@link DialogueFlowService} 统一提交状态，中途只推进、不写入。
+ */
+class DialogueTurn {
+
+    private final Consumer<String> replySink;
+    private final StringBuilder streamed = new StringBuilder();
+    private final AtomicInteger llmCalls = new AtomicInteger(); // 并发意图识别时会在LLM线程上累加
+    private DialogueState state;
+
+    DialogueTurn(DialogueState state, Consumer<String> replySink) {
+        this.state = state;
+        this.replySink = replySink;
+    }
+
+    DialogueState state() {
+        return state;
+    }
+
+    /**
+     * 将本轮的对话状态推进到新的状态，本轮结束时提交的就是它。
+     */
+    void advance(DialogueState next) {
+        this.state = next;
+    }
+
+    /**
+     * 记录本轮发起了一次LLM调用。
+     */
+    void countLlmCall() {
+        llmCalls.incrementAndGet();
+    }
+
+    int llmCalls() {
+        return llmCalls.get();
+    }
+
+    boolean isStreaming() {
+        return replySink != null;
+    }
+
+    /**
+     * 推送一段回复文本（仅流式模式下生效）。
+     */
+    void emit(String delta) {
+        if (replySink == null || delta == null || delta.isEmpty()) return;
+        streamed.append(delta);
+        replySink.accept(delta);
+    }
+
+    /**
+     * 本轮回复确定后调用：把尚未推送的部分补发出去。
+     * 已经推送的内容（例如LLM流式生成的总结）一定是最终回复的前缀，其后的固定话术在这里补齐。
+     */
+    void complete(String reply) {
+        flush(reply);
+    }
+
+    /**
+     * 回复的开头部分已经确定（例如多个工具结果中的前几个）：先把其中尚未推送的部分推送出去，
+     * 这样之后流式生成的内容接在它后面，已推送的内容仍然是最终回复的前缀。
+     */
+    void flush(String replyPrefix) {
+        if (replySink == null || replyPrefix == null) return;
+        String alreadySent = streamed.toString();
+        if (replyPrefix.startsWith(alreadySent)) {
+            emit(replyPrefix.substring(alreadySent.length()));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.v2.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * LLM之前的本地意图分类。
+ * 每个意图配置一组触发短语（肯定、否定、取消这三类通用意图，或者某个工具名），另有一组不影响语义的语气词/填充词；
+ * 所有短语编进同一个 {@link PhraseMatcher}，对用户消息只扫描一遍。
+ * <p>
+ * 置信度 = 命中的意图短语和填充词覆盖的字符数 / 消息中的字符数（不计标点和空白）。
+ * 被更长的命中完全包含的短语不计（"不对" 中的 "对"）；命中了两个以上不同的意图、或置信度低于该意图的阈值时，
+ * 视为无法在本地判定，交给LLM。因此 "是的" "取消" "我要开户" 这类短句在本地处理，
+ * 而 "北京天气怎么样"（城市需要提取）、"对，但地址填错了" 这类输入仍然走LLM。
+ */
+public class LocalIntentClassifier {
+
+    public static final String AFFIRM = "affirm";
+    public static final String DENY = "deny";
+    public static final String CANCEL = "cancel";
+    public static final Set<String> GENERIC_INTENTS = Set.of(AFFIRM, DENY, CANCEL);
+
+    // 工具名和通用意图都不会是空串
+    private static final String FILLER = "";
+
+    /**
+     * @param confidence 本地判定的置信度，取值 (0, 1]。
+     */
+    public record Classification(String intent, double confidence) {}
+
+    private final PhraseMatcher matcher;
+    private final Map<String, Double> minConfidence;
+    private final double defaultMinConfidence;
+    private final boolean enabled;
+
+    /**
+     * @param phrasesByIntent 意图到触发短语的映射；为空时分类器不做任何判定。
+     * @param minConfidence 各意图单独设置的置信度阈值。
+     * @param fillers 填充词，计入覆盖率但本身不代表任何意图。
+     * @param defaultMinConfidence 没有单独设置时的置信度阈值。
+     */
+    public LocalIntentClassifier(Map<String, List<String>> phrasesByIntent, Map<String, Double> minConfidence,
+                                 List<String> fillers, double defaultMinConfidence) {
+        Map<String, List<String>> phrases = new HashMap<>(phrasesByIntent);
+        phrases.put(FILLER, fillers);
+        this.matcher = new PhraseMatcher(phrases);
+        this.minConfidence = Map.copyOf(minConfidence);
+        this.defaultMinConfidence = defaultMinConfidence;
+        this.enabled = !phrasesByIntent.isEmpty();
+    }
+
+    /**
+     * @return 可以在本地确定的意图；无法判定时为空。
+     */
+    public Optional<Classification> classify(String message) {
+        if (!enabled || message == null) return Optional.empty();
+        int significant = 0;
+        for (int i = 0; i < message.length(); i++) {
+            if (Character.isLetterOrDigit(message.charAt(i))) significant++;
+        }
+        if (significant == 0) return Optional.empty();
+
+        List<PhraseMatcher.Match> matches = maximal(matcher.findAll(message));
+        String intent = null;
+        boolean[] covered = new boolean[message.length()];
+        for (PhraseMatcher.Match match : matches) {
+            if (!FILLER.equals(match.label())) {
+                if (intent != null && !intent.equals(match.label())) return Optional.empty();
+                intent = match.label();
+            }
+            for (int i = match.start(); i < match.end(); i++) covered[i] = true;
+        }
+        if (intent == null) return Optional.empty();
+
+        int coveredChars = 0;
+        for (int i = 0; i < message.length(); i++) {
+            if (covered[i] && Character.isLetterOrDigit(message.charAt(i))) coveredChars++;
+        }
+        double confidence = (double) coveredChars / significant;
+        if (confidence < minConfidence.getOrDefault(intent, defaultMinConfidence)) return Optional.empty();
+        return Optional.of(new Classification(intent, confidence));
+    }
+
+    /**
+     * 去掉被更长的命中完全包含的命中。
+     */
+    private static List<PhraseMatcher.Match> maximal(List<PhraseMatcher.Match> matches) {
+        List<PhraseMatcher.Match> kept = new ArrayList<>(matches.size());
+        for (PhraseMatcher.Match match : matches) {
+            boolean contained = false;
+            for (PhraseMatcher.Match other : matches) {
+                if (other.length() > match.length() && other.contains(match)) {
+                    contained = true;
+                    break;
+                }
+            }
+            if (!contained) kept.add(match);
+        }
+        return kept;
+    }
+}
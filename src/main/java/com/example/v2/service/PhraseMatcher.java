@@ -0,0 +1,104 @@
+package com.example.v2.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * 多模式短语匹配 (Aho-Corasick)。
+ * 构建时把所有短语编进一棵带失败指针的字典树，匹配时对输入只扫描一遍，找出所有出现的短语（可以重叠），
+ * 耗时与输入长度和命中数成正比，与短语数量无关。英文字母不区分大小写。构建完成后只读，可以被多个线程共享。
+ */
+final class PhraseMatcher {
+
+    /**
+     * 一次命中。
+     * @param label 短语所属的标签。
+     * @param start 在输入中的起始下标（含）。
+     * @param end 在输入中的结束下标（不含）。
+     */
+    record Match(String label, int start, int end) {
+        int length() {
+            return end - start;
+        }
+
+        boolean contains(Match other) {
+            return start <= other.start && other.end <= end;
+        }
+    }
+
+    private record Output(String label, int length) {}
+
+    private static final class Node {
+        final Map<Character, Node> next = new HashMap<>();
+        final List<Output> outputs = new ArrayList<>(); // 构建时并入失败链上的输出，匹配时不必再沿链查找
+        Node fail;
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * @param phrasesByLabel 标签到短语列表的映射；同一短语出现在多个标签下时各自命中。
+     */
+    PhraseMatcher(Map<String, ? extends Iterable<String>> phrasesByLabel) {
+        phrasesByLabel.forEach((label, phrases) -> {
+            for (String phrase : phrases) {
+                if (!phrase.isBlank()) add(label, phrase.strip().toLowerCase(Locale.ROOT));
+            }
+        });
+        link();
+    }
+
+    private void add(String label, String phrase) {
+        Node node = root;
+        for (int i = 0; i < phrase.length(); i++) {
+            node = node.next.computeIfAbsent(phrase.charAt(i), c -> new Node());
+        }
+        node.outputs.add(new Output(label, phrase.length()));
+    }
+
+    /**
+     * 按层次遍历计算失败指针：父节点的失败指针已经就绪，沿它找到最长的可延续后缀。
+     */
+    private void link() {
+        Queue<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        for (Node child : root.next.values()) {
+            child.fail = root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            for (Map.Entry<Character, Node> edge : node.next.entrySet()) {
+                Node child = edge.getValue();
+                Node fail = node.fail;
+                while (fail != root && !fail.next.containsKey(edge.getKey())) fail = fail.fail;
+                Node target = fail.next.get(edge.getKey());
+                child.fail = target != null && target != child ? target : root;
+                child.outputs.addAll(child.fail.outputs);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * 找出输入中出现的所有短语，按结束位置排列。
+     */
+    List<Match> findAll(String text) {
+        List<Match> matches = new ArrayList<>();
+        Node node = root;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            while (node != root && !node.next.containsKey(c)) node = node.fail;
+            node = node.next.getOrDefault(c, root);
+            for (Output output : node.outputs) {
+                matches.add(new Match(output.label(), i + 1 - output.length(), i + 1));
+            }
+        }
+        return matches;
+    }
+}
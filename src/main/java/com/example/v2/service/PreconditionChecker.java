@@ -0,0 +1,171 @@
+package com.example.v2.service;
+
+import com.example.v2.metadata.PreconditionRule;
+import com.example.v2.metadata.ToolMetadataService;
+import com.example.v2.tool.PreconditionCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 工具前置条件的检查器：识别出意图时即在工具线程池上异步检查该工具声明的前置条件，
+ * 不必等到槽位收集、确认、执行之后才发现需要先办理别的业务。
+ * <ul>
+ *   <li>缓存：结果按用户、再按检查缓存 ttl，同一用户反复发起同一业务时不再访问下游；检查失败（异常）的结果不缓存；</li>
+ *   <li>合并：同一用户的同一项检查在途时，后来者共用它的结果；</li>
+ *   <li>失效：用户办完一项业务后调用 {@link #invalidate}，该用户的缓存结果整体移除，例如开户后"有股东账户"随即成立。</li>
+ * </ul>
+ * 缓存的用户数超过 maxUsers 时先清理过期条目，仍然超出则新用户的结果不再缓存。
+ */
+@Service
+public class PreconditionChecker implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(PreconditionChecker.class);
+
+    private record Entry(CompletableFuture<Boolean> result, long expiresAtNanos) {}
+
+    private final ApplicationContext context;
+    private final ToolMetadataService metadataService;
+    private final ThreadPoolTaskExecutor toolExecutor;
+    private final long ttlNanos;
+    private final int maxUsers;
+    private final Map<String, PreconditionCheck> checks = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Entry>> cache = new ConcurrentHashMap<>(); // 用户 -> 检查 -> 结果
+
+    public PreconditionChecker(
+        ApplicationContext context,
+        ToolMetadataService metadataService,
+        @Qualifier("toolExecutor") ThreadPoolTaskExecutor toolExecutor,
+        @Value("${dialogue.preconditions.ttl:5m}") Duration ttl,
+        @Value("${dialogue.preconditions.max-users:100000}") int maxUsers
+    ) {
+        this.context = context;
+        this.metadataService = metadataService;
+        this.toolExecutor = toolExecutor;
+        this.ttlNanos = ttl.toNanos();
+        this.maxUsers = maxUsers;
+    }
+
+    /**
+     * 启动时解析所有工具声明的检查和依赖，配置错误在启动时暴露。
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (ToolMetadataService.ToolMetadata tool : metadataService.getAllTools()) {
+            for (PreconditionRule rule : tool.preconditions()) {
+                check(rule.check());
+                if (metadataService.getTool(rule.dependency()).isEmpty()) {
+                    throw new IllegalStateException("工具 " + tool.toolName() + " 的前置条件依赖未知的工具: " + rule.dependency());
+                }
+            }
+        }
+    }
+
+    /**
+     * 异步检查一个意图的前置条件，按声明顺序取第一个不满足的。
+     * @return 第一个不满足的前置条件所依赖的业务；全部满足时为空。没有声明前置条件时立即完成。
+     */
+    public CompletableFuture<Optional<String>> firstUnmet(String intentName, String userId) {
+        List<PreconditionRule> rules = metadataService.getPreconditions(intentName);
+        if (rules.isEmpty()) return CompletableFuture.completedFuture(Optional.empty());
+        // 各项检查同时发出，全部完成后按声明顺序取结果
+        List<CompletableFuture<Boolean>> results = rules.stream().map(rule -> isMet(rule.check(), userId)).toList();
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            for (int i = 0; i < rules.size(); i++) {
+                if (!results.get(i).join()) return Optional.of(rules.get(i).dependency());
+            }
+            return Optional.<String>empty();
+        });
+    }
+
+    /**
+     * 作废某个用户的全部缓存结果。用户办完一项业务后调用，此前"不满足"的前置条件可能已经满足。
+     */
+    public void invalidate(String userId) {
+        cache.remove(userId);
+    }
+
+    private CompletableFuture<Boolean> isMet(String checkName, String userId) {
+        long now = System.nanoTime();
+        Map<String, Entry> entries = cache.get(userId);
+        Entry entry = entries == null ? null : entries.get(checkName);
+        if (entry != null && now - entry.expiresAtNanos() < 0 && !entry.result().isCompletedExceptionally()) {
+            return entry.result();
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        Entry mine = new Entry(result, now + ttlNanos);
+        if (entries == null) entries = userEntries(userId);
+        boolean cached = entries != null && reserve(entries, checkName, entry, mine);
+        if (!cached && entries != null) {
+            // 另一个线程抢先发起了同一项检查
+            Entry current = entries.get(checkName);
+            if (current != null && current != entry && !current.result().isCompletedExceptionally()) return current.result();
+        }
+        PreconditionCheck check = check(checkName);
+        Runnable task = () -> {
+            try {
+                result.complete(check.isMet(userId));
+            } catch (RuntimeException e) {
+                log.warn("[前置条件] 检查 {} 失败 userId={}", checkName, userId, e);
+                result.completeExceptionally(e);
+            }
+        };
+        try {
+            toolExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+        Map<String, Entry> owner = entries;
+        if (cached) result.whenComplete((met, error) -> {
+            if (error != null) owner.remove(checkName, mine);
+        });
+        return result;
+    }
+
+    /**
+     * 取某个用户的缓存条目，没有时新建。
+     * @return 缓存的用户数已满、清理过期条目后仍然超出时为null，结果不再缓存。
+     */
+    private Map<String, Entry> userEntries(String userId) {
+        Map<String, Entry> entries = cache.get(userId);
+        if (entries != null) return entries;
+        if (cache.size() >= maxUsers) {
+            long now = System.nanoTime();
+            cache.values().removeIf(e -> {
+                e.values().removeIf(entry -> now - entry.expiresAtNanos() >= 0);
+                return e.isEmpty();
+            });
+            if (cache.size() >= maxUsers) return null;
+        }
+        return cache.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * 把新的检查放进该用户的缓存，替换掉过期或失败的旧条目。
+     * @return 放进缓存时为 true；被其他线程抢先时为 false。
+     */
+    private static boolean reserve(Map<String, Entry> entries, String checkName, Entry stale, Entry mine) {
+        if (stale != null) return entries.replace(checkName, stale, mine);
+        return entries.putIfAbsent(checkName, mine) == null;
+    }
+
+    private PreconditionCheck check(String name) {
+        return checks.computeIfAbsent(name, n -> {
+            if (!context.containsBean(n)) throw new IllegalStateException("找不到前置条件检查: " + n);
+            return context.getBean(n, PreconditionCheck.class);
+        });
+    }
+}
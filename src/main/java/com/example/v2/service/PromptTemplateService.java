@@ -41,4 +41,17 @@ public class PromptTemplateService {
     public String getSimpleChatPrompt() {
         return "你是一个专业的金融助手，但现在用户只是在闲聊，请用友好、简洁的方式回复。";
     }
+
+    /**
+     * 获取用于压缩对话历史的系统级提示词。
+     * @return 一个要求LLM把较早的对话浓缩成摘要的字符串。
+     */
+    public String getHistorySummaryPrompt() {
+        return """
+            请把下面这段较早的对话浓缩成一段简短的中文摘要，供后续对话参考。
+            - 保留用户的诉求、已经提供的关键信息（如姓名、证件号、金额、股票代码）和尚未完成的事项；
+            - 如果开头已有一段此前的摘要，请把它与新的对话合并成一段新的摘要；
+            - 不要编造对话中没有的信息，不要输出JSON，控制在200字以内。
+            """;
+    }
 }
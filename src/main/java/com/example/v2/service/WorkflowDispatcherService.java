@@ -1,48 +1,180 @@
 package com.example.v2.service;
 
+import com.example.v2.metadata.ToolCategory;
+import com.example.v2.metadata.ToolMetadataService;
+import com.example.v2.tool.TypedTool;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationContext;
+import org.springframework.core.ResolvableType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Function;
 
 /**
  * 工作流调度服务 (规则引擎)。
  * 这个服务完全不与LLM交互，它是一个可靠的、基于规则的路由器。
+ * 启动时为每个工具预编译好一个调用器，调度时只需按名称取出并执行。
  */
 @Service
-public class WorkflowDispatcherService {
+public class WorkflowDispatcherService implements SmartInitializingSingleton {
 
+    private static final Logger log = LoggerFactory.getLogger(WorkflowDispatcherService.class);
+
+    @Autowired
+    private ApplicationContext context; // 注入Spring的应用上下文，用于查找工具Bean
+    @Autowired
+    private ToolMetadataService metadataService;
+    @Autowired
+    private DialogueMetrics metrics;
+    @Autowired
+    @Qualifier("toolExecutor")
+    private ThreadPoolTaskExecutor toolExecutor; // 同一条消息中的多个工具调用并发执行
     @Autowired
-    private ApplicationContext context; // 注入Spring的应用上下文，用于动态查找Bean
-    private final ObjectMapper mapper = new ObjectMapper();
+    private ObjectMapper mapper; // Spring Boot 配置的共享实例
+    private final Map<String, ToolInvoker> invokers = new ConcurrentHashMap<>();
+
+    /**
+     * 一次工具调用。
+     * @param intentName 意图名称，即工具Bean的名称。
+     * @param arguments 调用参数。
+     */
+    public record Invocation(String intentName, Map<String, Object> arguments) {}
+
+    /**
+     * 预编译的工具调用器。
+     */
+    @FunctionalInterface
+    private interface ToolInvoker {
+        Object invoke(Map<String, Object> arguments) throws IOException;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (ToolMetadataService.ToolMetadata tool : metadataService.getAllTools()) {
+            if (tool.category() != ToolCategory.CONTROL) {
+                invokers.put(tool.toolName(), compile(tool.toolName()));
+            }
+        }
+    }
 
     /**
-     * 根据意图名称，从Spring容器中查找对应的工具Bean并执行它。
+     * 根据意图名称，找到预编译的调用器并执行对应的工具。
      * @param intentName 意图名称，必须与工具Bean的名称完全匹配。
      * @param arguments LLM提取的、用于调用工具的Map格式参数。
      * @return 一个包含执行结果的Map。
      */
     public Map<String, Object> dispatch(String intentName, Map<String, Object> arguments) {
-        System.out.println("--- [工作流] 正在调度意图: " + intentName + " ---");
+        log.debug("[工作流] 正在调度意图: {}", intentName);
+        long start = System.nanoTime();
+        String outcome = "error";
         try {
-            // 根据意图名称，动态地从Spring容器中获取对应的Bean
-            Function<String, ?> toolFunction = (Function<String, ?>) context.getBean(intentName);
-            // 将参数Map转换为JSON字符串，以符合工具的输入要求
-            String argumentsJson = mapper.writeValueAsString(arguments);
-
-            // 执行工具函数
-            Object result = toolFunction.apply(argumentsJson);
-
-            System.out.println("--- [工作流] 执行成功。 ---");
+            // 热加载的工具在第一次调度时编译
+            ToolInvoker invoker = invokers.computeIfAbsent(intentName, this::compile);
+            Object result = invoker.invoke(arguments);
+            outcome = "success";
             return Map.of("status", "success", "data", result);
 
         } catch (Exception e) {
-            System.err.println("--- [工作流] 调度或执行意图时出错: " + e.getMessage());
-            e.printStackTrace();
-            return Map.of("status", "error", "message", e.getMessage());
+            log.warn("[工作流] 调度或执行意图 {} 时出错", intentName, e);
+            return Map.of("status", "error", "message", String.valueOf(e.getMessage()));
+        } finally {
+            metrics.recordStage("tool_execution", intentName, outcome, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 并发执行一组彼此独立的工具调用（服务商在一次回复中返回的多个工具调用），全部完成后按调用顺序返回结果。
+     * 每个结果与 {@link #dispatch} 的相同，单个工具失败不影响其他工具：执行线程异常结束、被取消或等待被中断时，
+     * 该调用的结果记为 status=error。
+     * 只有一个调用，或工具线程池已满时，在当前线程上执行。
+     */
+    public List<Map<String, Object>> dispatchAll(List<Invocation> invocations) {
+        if (invocations.size() == 1) {
+            Invocation only = invocations.get(0);
+            return List.of(dispatch(only.intentName(), only.arguments()));
+        }
+        long start = System.nanoTime();
+        List<Future<Map<String, Object>>> futures = new ArrayList<>(invocations.size());
+        for (Invocation invocation : invocations) {
+            try {
+                futures.add(toolExecutor.submit(() -> dispatch(invocation.intentName(), invocation.arguments())));
+            } catch (RejectedExecutionException e) {
+                futures.add(CompletableFuture.completedFuture(dispatch(invocation.intentName(), invocation.arguments())));
+            }
+        }
+        List<Map<String, Object>> results = new ArrayList<>(futures.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) results.add(await(futures.get(i), invocations.get(i)));
+            return results;
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+            metrics.recordStage("tool_batch", null, "parallel", System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 等待一个调用的结果。被中断时恢复中断标记，其余调用随之记为失败，不再等待。
+     */
+    private Map<String, Object> await(Future<Map<String, Object>> future, Invocation invocation) {
+        Throwable failure;
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (CancellationException e) {
+            failure = e;
+        }
+        log.warn("[工作流] 并发执行意图 {} 失败", invocation.intentName(), failure);
+        return Map.of("status", "error", "message", String.valueOf(failure.getMessage()));
+    }
+
+    /**
+     * 为一个工具构建调用器。
+     * TypedTool：参数Map经由TokenBuffer直接绑定到请求记录（使用缓存的ObjectReader），不产生中间JSON字符串；
+     * 其他 Function&lt;String, ?&gt; 工具：保留原有的JSON字符串契约。
+     */
+    @SuppressWarnings("unchecked")
+    private ToolInvoker compile(String toolName) {
+        Object bean = context.getBean(toolName);
+        if (bean instanceof TypedTool<?, ?> typedTool) {
+            Class<?> requestType = ResolvableType.forInstance(typedTool).as(TypedTool.class).resolveGeneric(0);
+            if (requestType != null) {
+                TypedTool<Object, ?> tool = (TypedTool<Object, ?>) typedTool;
+                // 参数中会带有自动注入的userId等额外字段
+                ObjectReader reader = mapper.readerFor(requestType).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+                return arguments -> tool.execute(bindArguments(reader, arguments));
+            }
+        }
+        Function<String, ?> toolFunction = (Function<String, ?>) bean;
+        return arguments -> toolFunction.apply(mapper.writeValueAsString(arguments));
+    }
+
+    private Object bindArguments(ObjectReader reader, Map<String, Object> arguments) throws IOException {
+        try (TokenBuffer buffer = new TokenBuffer(mapper, false)) {
+            mapper.writeValue(buffer, arguments);
+            return reader.readValue(buffer.asParserOnFirstToken());
         }
     }
-}
\ No newline at end of file
+}
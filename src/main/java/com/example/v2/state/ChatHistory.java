@@ -0,0 +1,134 @@
+package com.example.v2.state;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 不可变、只追加的对话历史。
+ * 每个实例是共享底层数组的一个前缀视图 (存储 + 长度)：
+ * <ul>
+ *   <li>构造新的 {@link DialogueState} 时直接共享同一个实例，不再复制整段历史；</li>
+ *   <li>{@link #append} 在当前实例恰好是底层数组的末端时原地写入下一个槽位，摊还O(1)；
+ *       如果末端已被其他实例占用（同一历史被分叉追加），才复制出一份新的存储。</li>
+ * </ul>
+ * 已经发布出去的实例内容永远不会改变，因此可以在线程间安全共享。
+ * 每个实例还带着一份近似的堆内存占用 ({@link #weightBytes})，在追加和替换前缀时增量维护，读取为O(1)。
+ */
+public final class ChatHistory extends AbstractList<ChatMessage> implements RandomAccess {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final ChatHistory EMPTY = new ChatHistory(new Storage(new ChatMessage[0], 0), 0, 0);
+
+    /**
+     * 底层数组。used 记录已被占用的槽位数，通过CAS保证同一槽位只会被一个追加者写入。
+     */
+    private static final class Storage {
+        final ChatMessage[] elements;
+        final AtomicInteger used;
+
+        Storage(ChatMessage[] elements, int used) {
+            this.elements = elements;
+            this.used = new AtomicInteger(used);
+        }
+    }
+
+    private final Storage storage;
+    private final int size;
+    private final long weightBytes;
+
+    private ChatHistory(Storage storage, int size, long weightBytes) {
+        this.storage = storage;
+        this.size = size;
+        this.weightBytes = weightBytes;
+    }
+
+    /**
+     * 一条消息大致占用的堆内存（字节）：对象头与字段，加上UTF-16的内容。
+     */
+    static long weigh(ChatMessage message) {
+        return 64 + (message.content() == null ? 0 : 2L * message.content().length());
+    }
+
+    public static ChatHistory empty() {
+        return EMPTY;
+    }
+
+    public static ChatHistory of(Collection<ChatMessage> messages) {
+        if (messages instanceof ChatHistory history) return history;
+        if (messages == null || messages.isEmpty()) return EMPTY;
+        ChatMessage[] elements = messages.toArray(new ChatMessage[Math.max(INITIAL_CAPACITY, messages.size())]);
+        long weight = 0;
+        for (int i = 0; i < messages.size(); i++) weight += weigh(elements[i]);
+        return new ChatHistory(new Storage(elements, messages.size()), messages.size(), weight);
+    }
+
+    /**
+     * 返回追加了一条消息的新历史，当前实例不变。
+     */
+    public ChatHistory append(ChatMessage message) {
+        Objects.requireNonNull(message, "message");
+        long weight = weightBytes + weigh(message);
+        if (size < storage.elements.length && storage.used.compareAndSet(size, size + 1)) {
+            storage.elements[size] = message;
+            return new ChatHistory(storage, size + 1, weight);
+        }
+        ChatMessage[] elements = Arrays.copyOf(storage.elements, Math.max(INITIAL_CAPACITY, size * 2));
+        Arrays.fill(elements, size, elements.length, null);
+        elements[size] = message;
+        return new ChatHistory(new Storage(elements, size + 1), size + 1, weight);
+    }
+
+    /**
+     * 前 length 条消息组成的历史，与当前实例共享存储。占用按去掉的尾部扣减，耗时与尾部长度成正比。
+     */
+    public ChatHistory prefix(int length) {
+        Objects.checkIndex(length, size + 1);
+        if (length == size) return this;
+        long weight = weightBytes;
+        for (int i = length; i < size; i++) weight -= weigh(storage.elements[i]);
+        return new ChatHistory(storage, length, weight);
+    }
+
+    /**
+     * 用一条消息（例如历史摘要）替换前 length 条消息，返回新的历史。
+     */
+    public ChatHistory replacePrefix(int length, ChatMessage replacement) {
+        Objects.checkIndex(length, size + 1);
+        int newSize = size - length + 1;
+        ChatMessage[] elements = new ChatMessage[Math.max(INITIAL_CAPACITY, newSize * 2)];
+        elements[0] = replacement;
+        System.arraycopy(storage.elements, length, elements, 1, size - length);
+        long weight = weightBytes + weigh(replacement);
+        for (int i = 0; i < length; i++) weight -= weigh(storage.elements[i]);
+        return new ChatHistory(new Storage(elements, newSize), newSize, weight);
+    }
+
+    /**
+     * 所有消息近似占用的堆内存（字节），O(1)。
+     */
+    public long weightBytes() {
+        return weightBytes;
+    }
+
+    /**
+     * 最后一条消息；历史为空时返回null。
+     */
+    public ChatMessage last() {
+        return size == 0 ? null : storage.elements[size - 1];
+    }
+
+    @Override
+    public ChatMessage get(int index) {
+        Objects.checkIndex(index, size);
+        return storage.elements[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
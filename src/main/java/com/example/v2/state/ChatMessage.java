@@ -1,9 +1,41 @@
 package com.example.v2.state;
 
+import com.fasterxml.jackson.annotation.JsonValue;
+
 /**
  * 对话消息的数据模型 (DTO)。
  * 用于标准地表示一次对话中的单条消息。
- * @param role 角色 (例如 "user", "assistant", "system")。
+ * @param role 角色。序列化为OpenAI接口使用的小写字符串 ("user", "assistant", "system")。
  * @param content 消息的具体内容。
  */
-public record ChatMessage(String role, String content) {}
+public record ChatMessage(Role role, String content) {
+
+    public enum Role {
+        SYSTEM("system"),
+        USER("user"),
+        ASSISTANT("assistant");
+
+        private final String value;
+
+        Role(String value) {
+            this.value = value;
+        }
+
+        @JsonValue
+        public String value() {
+            return value;
+        }
+    }
+
+    public static ChatMessage system(String content) {
+        return new ChatMessage(Role.SYSTEM, content);
+    }
+
+    public static ChatMessage user(String content) {
+        return new ChatMessage(Role.USER, content);
+    }
+
+    public static ChatMessage assistant(String content) {
+        return new ChatMessage(Role.ASSISTANT, content);
+    }
+}
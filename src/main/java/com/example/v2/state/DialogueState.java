@@ -1,6 +1,5 @@
 package com.example.v2.state;
 
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -12,7 +11,7 @@ import java.util.Set;
  * @param collectedSlots 当前已收集到的槽位和对应的值。
  * @param status 当前对话的状态。
  * @param originatingIntent 触发当前任务的“父任务”。
- * @param chatHistory 本次任务的对话历史记录，用于联合上下文。
+ * @param chatHistory 本次任务的对话历史记录，用于联合上下文。不可变，推进状态时在新旧状态间直接共享。
  */
 public record DialogueState(
     String conversationId,
@@ -21,7 +20,7 @@ public record DialogueState(
     Map<String, Object> collectedSlots,
     Status status,
     OriginatingIntent originatingIntent,
-    List<ChatMessage> chatHistory // 记录组件名为 chatHistory
+    ChatHistory chatHistory // 记录组件名为 chatHistory
 ) {
     public enum Status {
         GATHERING_INFO,      // 正在收集中
@@ -33,25 +32,28 @@ public record DialogueState(
     public record OriginatingIntent(String intentName, Map<String, Object> arguments) {}
 
     /**
-     * 这是一个对记录的规范构造器的显式声明。
-     * **修正点**: 将参数名 history 改为 chatHistory，以匹配记录组件的名称，这是Java record规范的要求。
-     * 我们在这里显式声明它，是为了确保传入的chatHistory列表是可变的，通过创建一个ArrayList副本。
+     * 规范构造器：历史为null时视为空历史。历史本身不可变，这里不再复制。
      */
-    public DialogueState(String conversationId, String intentName, Set<String> requiredSlots, Map<String, Object> collectedSlots, Status status, OriginatingIntent originatingIntent, List<ChatMessage> chatHistory) {
-        this.conversationId = conversationId;
-        this.intentName = intentName;
-        this.requiredSlots = requiredSlots;
-        this.collectedSlots = collectedSlots;
-        this.status = status;
-        this.originatingIntent = originatingIntent;
-        this.chatHistory = new java.util.ArrayList<>(chatHistory); // 创建一个可变副本
+    public DialogueState {
+        chatHistory = chatHistory == null ? ChatHistory.empty() : chatHistory;
     }
 
     /**
      * 提供一个不带父任务但带历史的便捷构造器。
      * **修正点**: 将参数名 history 改为 chatHistory，以正确地委托给上面的规范构造器。
      */
-    public DialogueState(String conversationId, String intentName, Set<String> requiredSlots, Map<String, Object> collectedSlots, Status status, List<ChatMessage> chatHistory) {
+    public DialogueState(String conversationId, String intentName, Set<String> requiredSlots, Map<String, Object> collectedSlots, Status status, ChatHistory chatHistory) {
         this(conversationId, intentName, requiredSlots, collectedSlots, status, null, chatHistory);
     }
+
+    /**
+     * 返回追加了一条消息的新状态，其余字段不变。
+     */
+    public DialogueState withMessage(ChatMessage message) {
+        return withChatHistory(chatHistory.append(message));
+    }
+
+    public DialogueState withChatHistory(ChatHistory history) {
+        return new DialogueState(conversationId, intentName, requiredSlots, collectedSlots, status, originatingIntent, history);
+    }
 }
\ No newline at end of file
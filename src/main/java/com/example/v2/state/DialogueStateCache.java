@@ -0,0 +1,189 @@
+package com.example.v2.state;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有界的对话状态缓存。
+ * <ul>
+ *   <li>空闲过期：超过 idleTtl 未被访问的会话视为已放弃；</li>
+ *   <li>条数上限：最多保留 maxEntries 个会话；</li>
+ *   <li>内存上限：按对话历史估算每个会话的大小，总量不超过 maxWeightBytes。</li>
+ * </ul>
+ * 读写路径上只做O(1)的操作；扫描和淘汰由后台线程周期性执行，超出上限时会额外触发一次。
+ * 淘汰时按最久未访问优先，并回调 {@link DialogueStateEvictionListener}（例如归档过期会话）。
+ */
+public class DialogueStateCache implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(DialogueStateCache.class);
+
+    public enum EvictionCause { EXPIRED, SIZE, WEIGHT }
+
+    /**
+     * 命中/未命中/淘汰等统计的快照。
+     */
+    public record Stats(long hits, long misses, long evictions, int size, long weightBytes) {}
+
+    private static final class Entry {
+        final DialogueState state;
+        final long weight;
+        volatile long lastAccessNanos;
+
+        Entry(DialogueState state, long weight, long now) {
+            this.state = state;
+            this.weight = weight;
+            this.lastAccessNanos = now;
+        }
+    }
+
+    // 每次淘汰到上限的这个比例以下，避免刚淘汰完又立即超限
+    private static final double EVICTION_LOW_WATERMARK = 0.9;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong totalWeight = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicBoolean sweepPending = new AtomicBoolean();
+
+    private final long idleTtlNanos;
+    private final int maxEntries;
+    private final long maxWeightBytes;
+    private final List<DialogueStateEvictionListener> listeners;
+    private final ScheduledExecutorService sweeper;
+
+    public DialogueStateCache(Duration idleTtl, int maxEntries, long maxWeightBytes, Duration sweepInterval,
+                              List<DialogueStateEvictionListener> listeners) {
+        this.idleTtlNanos = idleTtl.toNanos();
+        this.maxEntries = maxEntries;
+        this.maxWeightBytes = maxWeightBytes;
+        this.listeners = List.copyOf(listeners);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dialogue-state-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long intervalMs = sweepInterval.toMillis();
+        sweeper.scheduleWithFixedDelay(this::sweep, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public DialogueState get(String conversationId) {
+        Entry entry = entries.get(conversationId);
+        long now = System.nanoTime();
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (now - entry.lastAccessNanos > idleTtlNanos) {
+            // 已过期但后台还没来得及清理：按未命中处理，顺手移除（单个条目，O(1)）
+            misses.increment();
+            if (entries.remove(conversationId, entry)) onEvicted(conversationId, entry, EvictionCause.EXPIRED);
+            return null;
+        }
+        entry.lastAccessNanos = now;
+        hits.increment();
+        return entry.state;
+    }
+
+    public void put(String conversationId, DialogueState state) {
+        Entry entry = new Entry(state, weigh(state), System.nanoTime());
+        Entry previous = entries.put(conversationId, entry);
+        totalWeight.addAndGet(entry.weight - (previous == null ? 0 : previous.weight));
+        if (entries.size() > maxEntries || totalWeight.get() > maxWeightBytes) {
+            requestSweep();
+        }
+    }
+
+    public void remove(String conversationId) {
+        Entry previous = entries.remove(conversationId);
+        if (previous != null) totalWeight.addAndGet(-previous.weight);
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), totalWeight.get());
+    }
+
+    /**
+     * 超出上限时异步触发一次扫描；已有扫描在排队时不重复提交。
+     */
+    private void requestSweep() {
+        if (sweepPending.compareAndSet(false, true)) {
+            sweeper.execute(this::sweep);
+        }
+    }
+
+    /**
+     * 清理过期会话；仍超出条数或内存上限时，按最久未访问优先继续淘汰。
+     */
+    void sweep() {
+        sweepPending.set(false);
+        try {
+            long now = System.nanoTime();
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                if (now - entry.lastAccessNanos > idleTtlNanos && entries.remove(e.getKey(), entry)) {
+                    onEvicted(e.getKey(), entry, EvictionCause.EXPIRED);
+                }
+            }
+
+            if (entries.size() <= maxEntries && totalWeight.get() <= maxWeightBytes) return;
+
+            long entryTarget = (long) (maxEntries * EVICTION_LOW_WATERMARK);
+            long weightTarget = (long) (maxWeightBytes * EVICTION_LOW_WATERMARK);
+            List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccessNanos));
+            for (Map.Entry<String, Entry> e : candidates) {
+                boolean overSize = entries.size() > entryTarget;
+                boolean overWeight = totalWeight.get() > weightTarget;
+                if (!overSize && !overWeight) break;
+                if (entries.remove(e.getKey(), e.getValue())) {
+                    onEvicted(e.getKey(), e.getValue(), overSize ? EvictionCause.SIZE : EvictionCause.WEIGHT);
+                }
+            }
+        } catch (RuntimeException e) {
+            // 后台任务中的异常不能终止周期调度
+            log.error("[状态缓存] 淘汰扫描失败", e);
+        }
+    }
+
+    private void onEvicted(String conversationId, Entry entry, EvictionCause cause) {
+        totalWeight.addAndGet(-entry.weight);
+        evictions.increment();
+        for (DialogueStateEvictionListener listener : listeners) {
+            try {
+                listener.onEviction(conversationId, entry.state, cause);
+            } catch (RuntimeException e) {
+                log.warn("[状态缓存] 淘汰监听器执行失败 conversationId={}", conversationId, e);
+            }
+        }
+    }
+
+    /**
+     * 估算一个会话状态占用的堆内存（字节）。主要开销在对话历史的字符串上，由 {@link ChatHistory} 增量维护，这里O(1)读取。
+     */
+    static long weigh(DialogueState state) {
+        long weight = 128 + state.chatHistory().weightBytes();
+        if (state.collectedSlots() != null) {
+            weight += 96L * state.collectedSlots().size();
+        }
+        return weight;
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
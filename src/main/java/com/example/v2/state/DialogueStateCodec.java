@@ -0,0 +1,238 @@
+package com.example.v2.state;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * {@link DialogueState} 的紧凑二进制编码，供持久化的状态存储使用。
+ * 字符串为 "变长长度 + UTF-8字节"，整数使用变长编码；槽位值按类型打标签，消息角色按枚举序号存储。
+ */
+public final class DialogueStateCodec {
+
+    private static final byte T_NULL = 0, T_STRING = 1, T_LONG = 2, T_DOUBLE = 3, T_BOOLEAN = 4, T_MAP = 5, T_LIST = 6;
+
+    private static final ChatMessage.Role[] ROLES = ChatMessage.Role.values();
+
+    private DialogueStateCodec() {}
+
+    public static byte[] encode(DialogueState state) {
+        Writer out = new Writer(256);
+        out.string(state.conversationId());
+        out.string(state.intentName());
+        out.stringCollection(state.requiredSlots());
+        out.map(state.collectedSlots());
+        out.varint(state.status() == null ? 0 : state.status().ordinal() + 1);
+        DialogueState.OriginatingIntent origin = state.originatingIntent();
+        out.bool(origin != null);
+        if (origin != null) {
+            out.string(origin.intentName());
+            out.map(origin.arguments());
+        }
+        ChatHistory history = state.chatHistory();
+        out.varint(history.size());
+        for (ChatMessage message : history) {
+            out.varint(message.role().ordinal());
+            out.string(message.content());
+        }
+        return out.toByteArray();
+    }
+
+    public static DialogueState decode(ByteBuffer buffer) {
+        Reader in = new Reader(buffer);
+        String conversationId = in.string();
+        String intentName = in.string();
+        Set<String> requiredSlots = in.stringSet();
+        Map<String, Object> collectedSlots = in.map();
+        int status = in.varint();
+        OriginatingIntentHolder origin = in.bool() ? new OriginatingIntentHolder(in.string(), in.map()) : null;
+        int historySize = in.varint();
+        List<ChatMessage> history = new ArrayList<>(historySize);
+        for (int i = 0; i < historySize; i++) {
+            history.add(new ChatMessage(ROLES[in.varint()], in.string()));
+        }
+        return new DialogueState(conversationId, intentName, requiredSlots, collectedSlots,
+            status == 0 ? null : DialogueState.Status.values()[status - 1],
+            origin == null ? null : new DialogueState.OriginatingIntent(origin.intentName, origin.arguments),
+            ChatHistory.of(history));
+    }
+
+    private record OriginatingIntentHolder(String intentName, Map<String, Object> arguments) {}
+
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+        }
+
+        void varint(long value) {
+            ensure(10);
+            // zigzag，使负数也保持紧凑
+            long v = (value << 1) ^ (value >> 63);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void bool(boolean value) {
+            ensure(1);
+            buf[pos++] = (byte) (value ? 1 : 0);
+        }
+
+        void string(String value) {
+            if (value == null) {
+                varint(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        void stringCollection(Collection<String> values) {
+            if (values == null) {
+                varint(-1);
+                return;
+            }
+            varint(values.size());
+            for (String value : values) string(value);
+        }
+
+        void map(Map<String, Object> map) {
+            if (map == null) {
+                varint(-1);
+                return;
+            }
+            varint(map.size());
+            for (Map.Entry<String, Object> e : map.entrySet()) {
+                string(e.getKey());
+                value(e.getValue());
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void value(Object value) {
+            ensure(1);
+            if (value == null) {
+                buf[pos++] = T_NULL;
+            } else if (value instanceof String s) {
+                buf[pos++] = T_STRING;
+                string(s);
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                buf[pos++] = T_LONG;
+                varint(((Number) value).longValue());
+            } else if (value instanceof Number n) {
+                buf[pos++] = T_DOUBLE;
+                varint(Double.doubleToRawLongBits(n.doubleValue()));
+            } else if (value instanceof Boolean b) {
+                buf[pos++] = T_BOOLEAN;
+                bool(b);
+            } else if (value instanceof Map<?, ?> m) {
+                buf[pos++] = T_MAP;
+                map((Map<String, Object>) m);
+            } else if (value instanceof Collection<?> c) {
+                buf[pos++] = T_LIST;
+                varint(c.size());
+                for (Object item : c) value(item);
+            } else {
+                buf[pos++] = T_STRING;
+                string(value.toString());
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buf;
+
+        Reader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        int varint() {
+            return (int) varlong();
+        }
+
+        long varlong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get();
+                v |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        boolean bool() {
+            return buf.get() != 0;
+        }
+
+        String string() {
+            int length = varint();
+            if (length < 0) return null;
+            String value;
+            if (buf.hasArray()) {
+                value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+                buf.position(buf.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                buf.get(bytes);
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return value;
+        }
+
+        Set<String> stringSet() {
+            int size = varint();
+            if (size < 0) return null;
+            Set<String> values = new LinkedHashSet<>();
+            for (int i = 0; i < size; i++) values.add(string());
+            return values;
+        }
+
+        Map<String, Object> map() {
+            int size = varint();
+            if (size < 0) return null;
+            Map<String, Object> map = new HashMap<>();
+            for (int i = 0; i < size; i++) map.put(string(), value());
+            return map;
+        }
+
+        Object value() {
+            byte tag = buf.get();
+            return switch (tag) {
+                case T_NULL -> null;
+                case T_STRING -> string();
+                case T_LONG -> {
+                    long v = varlong();
+                    yield (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) ? (Object) (int) v : (Object) v;
+                }
+                case T_DOUBLE -> Double.longBitsToDouble(varlong());
+                case T_BOOLEAN -> bool();
+                case T_MAP -> map();
+                case T_LIST -> {
+                    int size = varint();
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) list.add(value());
+                    yield list;
+                }
+                default -> throw new IllegalStateException("未知的槽位值类型标签: " + tag);
+            };
+        }
+    }
+}
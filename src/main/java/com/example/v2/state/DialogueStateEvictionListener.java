@@ -0,0 +1,11 @@
+package com.example.v2.state;
+
+/**
+ * 对话状态被缓存淘汰时的回调。
+ * 容器中实现了此接口的Bean会被自动注册，可用于归档过期或被挤出的会话。
+ * 回调在后台淘汰线程（或读取到过期条目的请求线程）上执行，实现应当足够轻量。
+ */
+@FunctionalInterface
+public interface DialogueStateEvictionListener {
+    void onEviction(String conversationId, DialogueState state, DialogueStateCache.EvictionCause cause);
+}
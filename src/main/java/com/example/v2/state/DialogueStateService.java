@@ -1,37 +1,57 @@
 package com.example.v2.state;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 对话状态服务 (机器人的短期记忆)。
  * 负责在多轮对话中追踪一个特定任务的进展。
- * 在生产环境中，这应该被替换为Redis、数据库或其他分布式缓存方案。
+ * 状态实际保存在可插拔的 {@link DialogueStateStore} 中（进程内缓存或内嵌的持久化日志）。
  */
 @Service
 public class DialogueStateService {
 
-    // 使用线程安全的ConcurrentHashMap来存储不同用户的对话状态
+    private static final Logger log = LoggerFactory.getLogger(DialogueStateService.class);
+
     // Key: conversationId (可以是 userId 或其他唯一会话标识)
     // Value: 该会话的当前状态
-    private final Map<String, DialogueState> stateCache = new ConcurrentHashMap<>();
+    private final DialogueStateStore stateStore;
+
+    public DialogueStateService(DialogueStateStore stateStore) {
+        this.stateStore = stateStore;
+    }
 
     public void saveState(String conversationId, DialogueState state) {
-        System.out.println("--- [状态服务] 保存状态 for " + conversationId + ": " + state + " ---");
-        stateCache.put(conversationId, state);
+        // 只记录几个摘要字段：DialogueState.toString() 包含整段对话历史，代价随对话长度增长
+        log.atDebug().setMessage("[状态服务] 保存状态")
+            .addKeyValue("intent", state.intentName())
+            .addKeyValue("status", state.status())
+            .addKeyValue("historySize", state.chatHistory().size())
+            .log();
+        stateStore.put(conversationId, state);
     }
 
     public Optional<DialogueState> getState(String conversationId) {
-        DialogueState state = stateCache.get(conversationId);
-        System.out.println("--- [状态服务] 获取状态 for " + conversationId + ": " + state + " ---");
-        return Optional.ofNullable(state);
+        Optional<DialogueState> state = stateStore.get(conversationId);
+        log.atDebug().setMessage("[状态服务] 获取状态")
+            .addKeyValue("found", state.isPresent())
+            .addKeyValue("intent", () -> state.map(DialogueState::intentName).orElse(null))
+            .log();
+        return state;
     }
 
     public void clearState(String conversationId) {
-        System.out.println("--- [状态服务] 清除状态 for " + conversationId + " ---");
-        stateCache.remove(conversationId);
+        log.debug("[状态服务] 清除状态");
+        stateStore.remove(conversationId);
+    }
+
+    /**
+     * 当前保存的会话数。
+     */
+    public long size() {
+        return stateStore.size();
     }
 }
@@ -0,0 +1,26 @@
+package com.example.v2.state;
+
+import java.util.Optional;
+
+/**
+ * 对话状态存储的SPI。
+ * {@link DialogueStateService} 通过它读写状态，具体的存储后端由配置项 dialogue.state.store 选择：
+ * <ul>
+ *   <li>memory（默认）：进程内有界缓存，见 {@link InMemoryDialogueStateStore}；</li>
+ *   <li>journal：内嵌的内存映射日志文件，重启后可恢复，见 {@link MappedJournalDialogueStateStore}。</li>
+ * </ul>
+ * 实现必须是线程安全的。
+ */
+public interface DialogueStateStore {
+
+    Optional<DialogueState> get(String conversationId);
+
+    void put(String conversationId, DialogueState state);
+
+    void remove(String conversationId);
+
+    /**
+     * 当前保存的会话数。
+     */
+    long size();
+}
@@ -0,0 +1,58 @@
+package com.example.v2.state;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Optional;
+
+/**
+ * 基于进程内有界缓存的状态存储（默认后端）。重启后状态会丢失。
+ */
+public class InMemoryDialogueStateStore implements DialogueStateStore, MeterBinder, AutoCloseable {
+
+    private final DialogueStateCache cache;
+
+    public InMemoryDialogueStateStore(DialogueStateCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Optional<DialogueState> get(String conversationId) {
+        return Optional.ofNullable(cache.get(conversationId));
+    }
+
+    @Override
+    public void put(String conversationId, DialogueState state) {
+        cache.put(conversationId, state);
+    }
+
+    @Override
+    public void remove(String conversationId) {
+        cache.remove(conversationId);
+    }
+
+    @Override
+    public long size() {
+        return cache.stats().size();
+    }
+
+    public DialogueStateCache.Stats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("dialogue.state.cache.hits", cache, c -> c.stats().hits()).register(registry);
+        FunctionCounter.builder("dialogue.state.cache.misses", cache, c -> c.stats().misses()).register(registry);
+        FunctionCounter.builder("dialogue.state.cache.evictions", cache, c -> c.stats().evictions()).register(registry);
+        Gauge.builder("dialogue.state.cache.size", cache, c -> c.stats().size()).register(registry);
+        Gauge.builder("dialogue.state.cache.weight", cache, c -> c.stats().weightBytes()).baseUnit("bytes").register(registry);
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+}
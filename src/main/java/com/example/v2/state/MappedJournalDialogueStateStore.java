@@ -0,0 +1,618 @@
+package com.example.v2.state;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * 内嵌的持久化状态存储：只追加的内存映射日志段文件，不依赖任何外部服务。
+ * <ul>
+ *   <li>写入：每次保存把 {@link DialogueStateCodec} 编码后的状态追加到当前活动段，内存中的索引指向最新记录；</li>
+ *   <li>刷盘：后台线程按固定间隔统一 force()（组提交）；开启 durableWrites 时，写入方等到覆盖自己的那次刷盘后才返回；</li>
+ *   <li>压缩：最老的已封存段中存活数据比例过低（或封存段过多）时，把仍然存活的记录搬到活动段后删除该段；</li>
+ *   <li>恢复：启动时顺序扫描所有段，只读出每条记录的会话ID来重建索引，遇到校验失败的残缺尾部即停止；</li>
+ *   <li>淘汰：与 {@link DialogueStateCache} 相同的约定——超过 idleTtl 未被访问的会话过期，会话数超过 maxEntries
+ *       或存活数据超过 maxWeightBytes 时按最久未访问优先淘汰，淘汰时写入删除记录并回调 {@link DialogueStateEvictionListener}。
+ *       访问时间只在内存中，重启后从恢复时刻重新计算。</li>
+ * </ul>
+ * 记录格式：[int 负载长度][int CRC32(类型+负载)][byte 类型][负载]；
+ * PUT 的负载为 [short 会话ID长度][会话ID][编码后的状态]，DELETE 的负载为会话ID。长度为0表示段内数据结束。
+ */
+public class MappedJournalDialogueStateStore implements DialogueStateStore, MeterBinder, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedJournalDialogueStateStore.class);
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_BYTES = 9;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * 一条记录在日志中的位置。length 为包含记录头在内的总长度。
+     */
+    private record Location(long segmentId, int offset, int length) {}
+
+    /**
+     * 索引项：会话最新记录的位置和最近一次访问的时间。每次保存都换成新的索引项。
+     */
+    private static final class Entry {
+        final Location location;
+        volatile long lastAccessNanos;
+
+        Entry(Location location, long now) {
+            this.location = location;
+            this.lastAccessNanos = now;
+        }
+    }
+
+    // 每次淘汰到上限的这个比例以下，避免刚淘汰完又立即超限
+    private static final double EVICTION_LOW_WATERMARK = 0.9;
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        final AtomicLong liveBytes = new AtomicLong();
+        int writePosition; // 由 writeLock 保护
+        volatile boolean dirty;
+
+        Segment(long id, Path path, int size) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        ByteBuffer slice(int offset, int length) {
+            return buffer.slice(offset, length);
+        }
+
+        void force() {
+            dirty = false;
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean durableWrites;
+    private final long flushIntervalNanos;
+    private final double compactionThreshold;
+    private final int maxSealedSegments;
+    private final long idleTtlNanos;
+    private final int maxEntries;
+    private final long maxWeightBytes;
+    private final List<DialogueStateEvictionListener> listeners;
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Object flushMonitor = new Object();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicBoolean sweepPending = new AtomicBoolean();
+    private Segment active; // 由 writeLock 保护
+    private volatile long appendedSequence;
+    private volatile long flushedSequence;
+    private volatile boolean closed;
+
+    private final Thread flusher;
+    private final ScheduledExecutorService compactor; // 同时执行淘汰扫描
+
+    /**
+     * @param idleTtl 会话空闲多久后过期。
+     * @param maxEntries 最多保存的会话数。
+     * @param maxWeightBytes 存活记录（编码后的状态）的总字节数上限。
+     * @param sweepInterval 淘汰扫描的间隔；超出上限时会额外触发一次。
+     */
+    public MappedJournalDialogueStateStore(Path directory, int segmentSize, boolean durableWrites, Duration flushInterval,
+                                           Duration compactionInterval, double compactionThreshold, int maxSealedSegments,
+                                           Duration idleTtl, int maxEntries, long maxWeightBytes, Duration sweepInterval,
+                                           List<DialogueStateEvictionListener> listeners) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.durableWrites = durableWrites;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.compactionThreshold = compactionThreshold;
+        this.maxSealedSegments = maxSealedSegments;
+        this.idleTtlNanos = idleTtl.toNanos();
+        this.maxEntries = maxEntries;
+        this.maxWeightBytes = maxWeightBytes;
+        this.listeners = List.copyOf(listeners);
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法打开对话状态日志目录: " + directory, e);
+        }
+
+        this.flusher = new Thread(this::flushLoop, "dialogue-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dialogue-journal-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        long intervalMs = compactionInterval.toMillis();
+        compactor.scheduleWithFixedDelay(this::compactSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        long sweepMs = sweepInterval.toMillis();
+        compactor.scheduleWithFixedDelay(this::sweep, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+        if (overLimits()) requestSweep();
+    }
+
+    @Override
+    public Optional<DialogueState> get(String conversationId) {
+        Entry entry = index.get(conversationId);
+        long now = System.nanoTime();
+        if (entry == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        if (now - entry.lastAccessNanos > idleTtlNanos) {
+            // 已过期但后台还没来得及清理：按未命中处理，顺手淘汰
+            misses.increment();
+            evict(conversationId, entry, DialogueStateCache.EvictionCause.EXPIRED, now);
+            return Optional.empty();
+        }
+        entry.lastAccessNanos = now;
+        DialogueState state = read(conversationId);
+        if (state == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        return Optional.of(state);
+    }
+
+    /**
+     * 读出索引指向的最新记录，不更新访问时间。
+     * @return 会话不存在时为null。
+     */
+    private DialogueState read(String conversationId) {
+        // 读取与压缩并发时，记录所在的段可能刚被删除；此时索引已指向新位置，重试即可
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Entry entry = index.get(conversationId);
+            if (entry == null) return null;
+            Location location = entry.location;
+            Segment segment = segments.get(location.segmentId());
+            if (segment == null) continue;
+            ByteBuffer payload = segment.slice(location.offset() + HEADER_BYTES, location.length() - HEADER_BYTES);
+            payload.position(Short.BYTES + Short.toUnsignedInt(payload.getShort()));
+            return DialogueStateCodec.decode(payload.slice());
+        }
+        throw new IllegalStateException("读取对话状态失败，日志段已被压缩: " + conversationId);
+    }
+
+    @Override
+    public void put(String conversationId, DialogueState state) {
+        byte[] key = conversationId.getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = DialogueStateCodec.encode(state);
+        ByteBuffer payload = ByteBuffer.allocate(Short.BYTES + key.length + encoded.length);
+        payload.putShort((short) key.length).put(key).put(encoded).flip();
+
+        long sequence;
+        writeLock.lock();
+        try {
+            Location location = append(PUT, payload);
+            replaceIndexEntry(conversationId, location, System.nanoTime());
+            sequence = ++appendedSequence;
+        } finally {
+            writeLock.unlock();
+        }
+        if (overLimits()) requestSweep();
+        awaitDurable(sequence);
+    }
+
+    @Override
+    public void remove(String conversationId) {
+        long sequence;
+        writeLock.lock();
+        try {
+            Entry previous = index.get(conversationId);
+            if (previous == null) return;
+            delete(conversationId, previous);
+            sequence = appendedSequence;
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * 命中/未命中/淘汰等统计的快照，weightBytes 为存活记录的总字节数。
+     */
+    public DialogueStateCache.Stats stats() {
+        return new DialogueStateCache.Stats(hits.sum(), misses.sum(), evictions.sum(), index.size(), liveBytes.get());
+    }
+
+    @Override
+    public long size() {
+        return index.size();
+    }
+
+    // ------------------------------------------------------------------ 写入
+
+    /**
+     * @param lastAccessNanos 新索引项的访问时间；搬迁记录时沿用原来的。
+     */
+    private void replaceIndexEntry(String conversationId, Location location, long lastAccessNanos) {
+        Entry previous = index.put(conversationId, new Entry(location, lastAccessNanos));
+        segments.get(location.segmentId()).liveBytes.addAndGet(location.length());
+        liveBytes.addAndGet(location.length());
+        if (previous != null) release(previous.location);
+    }
+
+    /**
+     * 从索引中移除并追加删除记录。调用方必须持有 writeLock，且 entry 是该会话当前的索引项。
+     */
+    private void delete(String conversationId, Entry entry) {
+        index.remove(conversationId, entry);
+        release(entry.location);
+        append(DELETE, ByteBuffer.wrap(conversationId.getBytes(StandardCharsets.UTF_8)));
+        ++appendedSequence;
+    }
+
+    private void release(Location location) {
+        Segment segment = segments.get(location.segmentId());
+        if (segment != null) segment.liveBytes.addAndGet(-location.length());
+        liveBytes.addAndGet(-location.length());
+    }
+
+    /**
+     * 追加一条记录到活动段，空间不足时先切换到新段。调用方必须持有 writeLock。
+     */
+    private Location append(byte type, ByteBuffer payload) {
+        int payloadLength = payload.remaining();
+        int recordLength = HEADER_BYTES + payloadLength;
+        if (recordLength > segmentSize) {
+            throw new IllegalArgumentException("对话状态过大 (" + recordLength + " 字节)，超过日志段大小 " + segmentSize);
+        }
+        if (active.writePosition + recordLength > segmentSize) {
+            rollSegment();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload.duplicate());
+
+        int offset = active.writePosition;
+        ByteBuffer target = active.buffer.duplicate();
+        target.position(offset + 4);
+        target.putInt((int) crc.getValue()).put(type).put(payload);
+        // 长度最后写入：恢复时长度为0的位置被视为数据结尾
+        active.buffer.putInt(offset, payloadLength);
+        active.writePosition = offset + recordLength;
+        active.dirty = true;
+        return new Location(active.id, offset, recordLength);
+    }
+
+    private void rollSegment() {
+        try {
+            Segment next = openSegment(active.id + 1);
+            segments.put(next.id, next);
+            active = next;
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法创建新的日志段", e);
+        }
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        return new Segment(id, path, segmentSize);
+    }
+
+    // ------------------------------------------------------------------ 组提交刷盘
+
+    private void awaitDurable(long sequence) {
+        if (!durableWrites) return;
+        LockSupport.unpark(flusher);
+        synchronized (flushMonitor) {
+            while (flushedSequence < sequence && !closed) {
+                try {
+                    flushMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            LockSupport.parkNanos(flushIntervalNanos);
+            flush();
+        }
+    }
+
+    /**
+     * 一次性把所有脏段刷到磁盘，并唤醒在此之前写入、正在等待持久化的调用方。
+     */
+    private void flush() {
+        long target = appendedSequence;
+        if (target == flushedSequence) return;
+        for (Segment segment : segments.values()) {
+            if (segment.dirty) segment.force();
+        }
+        synchronized (flushMonitor) {
+            flushedSequence = target;
+            flushMonitor.notifyAll();
+        }
+    }
+
+    // ------------------------------------------------------------------ 压缩
+
+    private void compactSafely() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            log.error("[状态日志] 压缩失败", e);
+        }
+    }
+
+    /**
+     * 从最老的封存段开始压缩。只处理最老的段，因此其中的删除标记可以直接丢弃，不会让更老的数据“复活”。
+     */
+    void compact() {
+        while (!closed) {
+            Map.Entry<Long, Segment> oldestEntry = segments.firstEntry();
+            Segment oldest = oldestEntry.getValue();
+            Segment current;
+            writeLock.lock();
+            try {
+                current = active;
+            } finally {
+                writeLock.unlock();
+            }
+            if (oldest == current) return;
+
+            int sealedSegments = segments.size() - 1;
+            double liveRatio = oldest.writePosition == 0 ? 0 : (double) oldest.liveBytes.get() / oldest.writePosition;
+            if (liveRatio > compactionThreshold && sealedSegments <= maxSealedSegments) return;
+
+            relocateLiveRecords(oldest);
+            // 搬迁后的记录必须先落盘，才能删除旧段
+            flush();
+            segments.remove(oldest.id);
+            oldest.close();
+            try {
+                Files.deleteIfExists(oldest.path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            compactions.incrementAndGet();
+        }
+    }
+
+    private void relocateLiveRecords(Segment segment) {
+        int position = 0;
+        while (position + HEADER_BYTES <= segment.writePosition) {
+            int payloadLength = segment.buffer.getInt(position);
+            if (payloadLength <= 0) break;
+            int recordLength = HEADER_BYTES + payloadLength;
+            if (segment.buffer.get(position + 8) == PUT) {
+                ByteBuffer payload = segment.slice(position + HEADER_BYTES, payloadLength);
+                String key = readKey(payload.duplicate());
+                Location location = new Location(segment.id, position, recordLength);
+                writeLock.lock();
+                try {
+                    // 只搬迁索引仍指向此处的记录；其间被覆盖或删除的已经是垃圾
+                    Entry entry = index.get(key);
+                    if (entry != null && location.equals(entry.location)) {
+                        replaceIndexEntry(key, append(PUT, payload), entry.lastAccessNanos);
+                        ++appendedSequence;
+                    }
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+            position += recordLength;
+        }
+    }
+
+    // ------------------------------------------------------------------ 恢复
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(directory)) {
+            listing.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(files::add);
+        }
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            Segment segment = new Segment(id, file, segmentSize);
+            segments.put(id, segment);
+            segment.writePosition = replay(segment);
+        }
+
+        if (segments.isEmpty()) {
+            Segment first = openSegment(1);
+            segments.put(first.id, first);
+        }
+        active = segments.lastEntry().getValue();
+    }
+
+    /**
+     * 重放一个段中的所有记录，返回有效数据的结尾位置。
+     */
+    private int replay(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        CRC32 crc = new CRC32();
+        long now = System.nanoTime();
+        int position = 0;
+        while (position + HEADER_BYTES <= segmentSize) {
+            int payloadLength = buffer.getInt(position);
+            if (payloadLength <= 0 || position + HEADER_BYTES + payloadLength > segmentSize) break;
+
+            crc.reset();
+            crc.update(buffer.slice(position + 8, 1 + payloadLength));
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) break; // 残缺的尾部记录
+
+            byte type = buffer.get(position + 8);
+            ByteBuffer payload = segment.slice(position + HEADER_BYTES, payloadLength);
+            int recordLength = HEADER_BYTES + payloadLength;
+            if (type == PUT) {
+                replaceIndexEntry(readKey(payload), new Location(segment.id, position, recordLength), now);
+            } else if (type == DELETE) {
+                Entry previous = index.remove(StandardCharsets.UTF_8.decode(payload).toString());
+                if (previous != null) release(previous.location);
+            }
+            position += recordLength;
+        }
+        return position;
+    }
+
+    private static String readKey(ByteBuffer payload) {
+        int keyLength = Short.toUnsignedInt(payload.getShort());
+        byte[] key = new byte[keyLength];
+        payload.get(key);
+        return new String(key, StandardCharsets.UTF_8);
+    }
+
+    // ------------------------------------------------------------------ 淘汰
+
+    private boolean overLimits() {
+        return index.size() > maxEntries || liveBytes.get() > maxWeightBytes;
+    }
+
+    /**
+     * 超出上限时异步触发一次扫描；已有扫描在排队时不重复提交。
+     */
+    private void requestSweep() {
+        if (sweepPending.compareAndSet(false, true)) {
+            try {
+                compactor.execute(this::sweep);
+            } catch (RejectedExecutionException e) {
+                sweepPending.set(false); // 已关闭
+            }
+        }
+    }
+
+    /**
+     * 淘汰过期会话；仍超出条数或存活数据上限时，按最久未访问优先继续淘汰。
+     */
+    void sweep() {
+        sweepPending.set(false);
+        try {
+            long now = System.nanoTime();
+            for (Map.Entry<String, Entry> e : index.entrySet()) {
+                if (now - e.getValue().lastAccessNanos > idleTtlNanos) {
+                    evict(e.getKey(), e.getValue(), DialogueStateCache.EvictionCause.EXPIRED, now);
+                }
+            }
+            if (!overLimits()) return;
+
+            long entryTarget = (long) (maxEntries * EVICTION_LOW_WATERMARK);
+            long weightTarget = (long) (maxWeightBytes * EVICTION_LOW_WATERMARK);
+            List<Map.Entry<String, Entry>> candidates = new ArrayList<>(index.entrySet());
+            candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccessNanos));
+            for (Map.Entry<String, Entry> e : candidates) {
+                boolean overSize = index.size() > entryTarget;
+                if (!overSize && liveBytes.get() <= weightTarget) break;
+                evict(e.getKey(), e.getValue(), overSize ? DialogueStateCache.EvictionCause.SIZE : DialogueStateCache.EvictionCause.WEIGHT, -1);
+            }
+        } catch (RuntimeException e) {
+            // 后台任务中的异常不能终止周期调度
+            log.error("[状态日志] 淘汰扫描失败", e);
+        }
+    }
+
+    /**
+     * 淘汰一个会话：写入删除记录，再回调监听器。
+     * @param now 大于等于0时只淘汰到这一刻仍然过期的会话（其间被访问过的保留）；按容量淘汰时为-1。
+     */
+    private void evict(String conversationId, Entry entry, DialogueStateCache.EvictionCause cause, long now) {
+        DialogueState state = listeners.isEmpty() ? null : read(conversationId);
+        writeLock.lock();
+        try {
+            // 其间被重新保存、删除或访问过的会话不再淘汰
+            if (index.get(conversationId) != entry) return;
+            if (now >= 0 && now - entry.lastAccessNanos <= idleTtlNanos) return;
+            delete(conversationId, entry);
+        } finally {
+            writeLock.unlock();
+        }
+        evictions.increment();
+        for (DialogueStateEvictionListener listener : listeners) {
+            try {
+                listener.onEviction(conversationId, state, cause);
+            } catch (RuntimeException e) {
+                log.warn("[状态日志] 淘汰监听器执行失败 conversationId={}", conversationId, e);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------ 监控与关闭
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("dialogue.state.journal.hits", hits, LongAdder::sum).register(registry);
+        FunctionCounter.builder("dialogue.state.journal.misses", misses, LongAdder::sum).register(registry);
+        FunctionCounter.builder("dialogue.state.journal.evictions", evictions, LongAdder::sum).register(registry);
+        Gauge.builder("dialogue.state.journal.entries", index, Map::size).register(registry);
+        Gauge.builder("dialogue.state.journal.segments", segments, Map::size).register(registry);
+        Gauge.builder("dialogue.state.journal.live", liveBytes, AtomicLong::get).baseUnit("bytes").register(registry);
+        FunctionCounter.builder("dialogue.state.journal.compactions", compactions, AtomicLong::get).register(registry);
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        flush();
+        closed = true;
+        LockSupport.unpark(flusher);
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+        segments.values().forEach(Segment::close);
+    }
+}
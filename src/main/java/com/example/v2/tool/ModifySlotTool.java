@@ -0,0 +1,21 @@
+package com.example.v2.tool;
+
+import com.example.v2.metadata.Slot;
+import com.example.v2.metadata.Tool;
+import com.example.v2.metadata.ToolCategory;
+import org.springframework.stereotype.Component;
+
+/**
+ * 修改槽位的控制工具。
+ * 只在确认阶段提供给LLM，用于识别“某一项信息填错了”的意图；它本身没有执行逻辑，由对话流直接处理。
+ */
+@Component(ModifySlotTool.NAME)
+@Tool(
+    name = ModifySlotTool.NAME,
+    description = "当用户在最后确认信息阶段，明确指出某一项信息错误并提供新值时使用此功能。",
+    category = ToolCategory.CONTROL,
+    slots = {@Slot(name = "slot_name"), @Slot(name = "slot_value")}
+)
+public class ModifySlotTool {
+    public static final String NAME = "modify_slot";
+}
@@ -1,21 +1,46 @@
 package com.example.v2.tool;
 
+import com.example.v2.metadata.Slot;
+import com.example.v2.metadata.SlotType;
+import com.example.v2.metadata.Tool;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.function.Function;
-
 /**
  * 开户工具服务。
  * @Service("open_account") 定义了这个Bean的名称，必须与元数据中的toolName一致。
- * 实现了Function<String, Response>接口，使其可以被工作流调度器统一调用。
+ * 实现了TypedTool<Request, Response>接口，使其可以被工作流调度器统一调用。
  */
 @Service("open_account")
-public class OpenAccountService implements Function<String, OpenAccountService.Response> {
+@Tool(
+    name = "open_account",
+    displayName = "开户",
+    description = "为用户开立一个新的账户。需要提供学历、职业和住址信息。",
+    request = OpenAccountService.Request.class,
+    slots = {
+        @Slot(name = "education", question = "请问您的学历是？", type = SlotType.CHOICE,
+            options = {"小学", "初中", "高中", "中专", "大专", "本科", "硕士", "博士"}),
+        @Slot(name = "occupation", question = "您的职业是什么呢？"),
+        @Slot(name = "address", question = "您的常住地址是哪里？")
+    },
+    replyTemplate = "您的账户已经开立成功，欢迎使用我们的服务！"
+)
+public class OpenAccountService implements TypedTool<OpenAccountService.Request, OpenAccountService.Response> {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenAccountService.class);
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectReader requestReader;
+    private final ShareholderAccounts accounts;
+
+    public OpenAccountService(ShareholderAccounts accounts, ObjectMapper mapper) {
+        this.accounts = accounts;
+        this.requestReader = mapper.readerFor(Request.class);
+    }
 
     // 定义工具的输入参数结构
     public record Request(
@@ -29,26 +54,30 @@ public class OpenAccountService implements Function<String, OpenAccountService.R
     public record Response(String status, String message) {}
 
     /**
-     * 工具的执行入口。
-     * @param argumentsJson LLM传来的、包含所有参数的JSON字符串。
-     * @return 执行结果。
+     * 兼容入口：接收LLM传来的、包含所有参数的JSON字符串。
      */
     @Override
     public Response apply(String argumentsJson) {
         try {
-            // 1. 将JSON字符串参数反序列化为Java对象
-            Request request = mapper.readValue(argumentsJson, Request.class);
-
-            // 2. 执行具体的业务逻辑（此处为模拟）
-            System.out.println("--- [工具执行] ---");
-            System.out.println("正在执行开户操作，参数为: " + request);
-            System.out.println("----------------------");
-
-            // 3. 返回结构化的执行结果
-            return new Response("SUCCESS", "为用户 " + request.userId() + " 开户成功。");
+            return execute(requestReader.readValue(argumentsJson));
         } catch (JsonProcessingException e) {
             // 在真实的业务中，这里应该有更完善的异常处理
             throw new RuntimeException("解析开户参数时出错", e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 工具的执行入口。
+     * @param request 开户参数。
+     * @return 执行结果。
+     */
+    @Override
+    public Response execute(Request request) {
+        // 执行具体的业务逻辑（此处为模拟）
+        log.debug("[工具执行] 正在执行开户操作，参数为: {}", request);
+        accounts.open(request.userId());
+
+        // 返回结构化的执行结果
+        return new Response("SUCCESS", "为用户 " + request.userId() + " 开户成功。");
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.v2.tool;
+
+/**
+ * 工具前置条件的检查，Bean名称即 {@link com.example.v2.metadata.Precondition#check()} 引用的名称。
+ * 检查可能访问下游服务（例如查询账户），由 {@link com.example.v2.service.PreconditionChecker} 在工具线程池上异步调用，并按用户缓存结果。
+ */
+@FunctionalInterface
+public interface PreconditionCheck {
+
+    /**
+     * @param userId 用户ID（即会话ID）。
+     * @return 前置条件满足时为 true。
+     */
+    boolean isMet(String userId);
+}
@@ -0,0 +1,23 @@
+package com.example.v2.tool;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * 前置条件：用户已有股东账户。
+ */
+@Component(ShareholderAccountCheck.NAME)
+public class ShareholderAccountCheck implements PreconditionCheck {
+
+    public static final String NAME = "shareholder_account";
+
+    private final ShareholderAccounts accounts;
+
+    public ShareholderAccountCheck(ShareholderAccounts accounts) {
+        this.accounts = accounts;
+    }
+
+    @Override
+    public boolean isMet(String userId) {
+        return accounts.hasAccount(userId);
+    }
+}
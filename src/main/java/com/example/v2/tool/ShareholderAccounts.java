@@ -0,0 +1,33 @@
+package com.example.v2.tool;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 模拟的股东账户服务：开户工具在这里登记，购买股票前在这里查询。
+ * 为了演示，"user_with_account" 总是有账户；其余用户开户后才有。只保留最近开户的 MAX_ACCOUNTS 个用户，压测时不会无限增长。
+ */
+@Component
+public class ShareholderAccounts {
+
+    private static final int MAX_ACCOUNTS = 100_000;
+
+    private final Set<String> opened = Collections.newSetFromMap(Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_ACCOUNTS;
+        }
+    }));
+
+    public boolean hasAccount(String userId) {
+        return "user_with_account".equals(userId) || opened.contains(userId);
+    }
+
+    public void open(String userId) {
+        if (userId != null) opened.add(userId);
+    }
+}
@@ -1,19 +1,45 @@
 package com.example.v2.tool;
 
+import com.example.v2.metadata.Precondition;
+import com.example.v2.metadata.Slot;
+import com.example.v2.metadata.SlotType;
+import com.example.v2.metadata.Tool;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.function.Function;
-
 /**
  * 股票购买工具服务。
  */
 @Service("stock_purchase")
-public class StockPurchaseService implements Function<String, StockPurchaseService.Response> {
+@Tool(
+    name = "stock_purchase",
+    displayName = "股票买入",
+    description = "为用户购买指定数量的股票。需要提供股票代码和购买数量。",
+    request = StockPurchaseService.Request.class,
+    slots = {
+        // A股为6位数字代码，美股为1-5位大写字母
+        @Slot(name = "ticker", question = "好的，请问您想购买哪只股票的代码？", type = SlotType.PATTERN, pattern = "\\d{6}|[A-Z]{1,5}"),
+        @Slot(name = "quantity", question = "您计划购买多少股？", type = SlotType.INTEGER, unit = "股")
+    },
+    preconditions = @Precondition(check = ShareholderAccountCheck.NAME, dependency = "open_account"),
+    replyTemplate = "交易已完成：{message}。"
+)
+public class StockPurchaseService implements TypedTool<StockPurchaseService.Request, StockPurchaseService.Response> {
+
+    private static final Logger log = LoggerFactory.getLogger(StockPurchaseService.class);
+
+    private final ObjectReader requestReader;
+    private final ShareholderAccounts accounts;
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    public StockPurchaseService(ShareholderAccounts accounts, ObjectMapper mapper) {
+        this.accounts = accounts;
+        this.requestReader = mapper.readerFor(Request.class);
+    }
 
     // 定义工具的输入参数结构
     public record Request(
@@ -36,30 +62,31 @@ public class StockPurchaseService implements Function<String, StockPurchaseServi
     @Override
     public Response apply(String argumentsJson) {
         try {
-            Request request = mapper.readValue(argumentsJson, Request.class);
-
-            // --- 步骤 1: 前置条件检查 ---
-            System.out.println("--- [工具执行] 正在检查用户 " + request.userId() + " 的前置条件... ---");
-            if (!hasShareholderAccount(request.userId())) {
-                System.out.println("--- [工具执行] 前置条件检查失败：缺少股东账户。 ---");
-                return Response.preconditionFailed("用户缺少股东账户", "open_account");
-            }
-            System.out.println("--- [工具执行] 前置条件检查通过。 ---");
-
-            // --- 步骤 2: 执行核心业务逻辑 ---
-            System.out.println("--- [工具执行] 正在执行股票购买操作，参数为: " + request + " ---");
-            return Response.success("成功购买 " + request.quantity() + " 股 " + request.ticker());
-
+            return execute(requestReader.readValue(argumentsJson));
         } catch (JsonProcessingException e) {
             throw new RuntimeException("解析股票购买参数时出错", e);
         }
     }
 
+    @Override
+    public Response execute(Request request) {
+        // --- 步骤 1: 前置条件检查 ---
+        // 识别意图时已经按声明的前置条件检查过，这里在执行前再确认一次，以执行时的结果为准
+        log.debug("[工具执行] 正在检查用户 {} 的前置条件", request.userId());
+        if (!hasShareholderAccount(request.userId())) {
+            log.info("[工具执行] 前置条件检查失败：缺少股东账户 userId={}", request.userId());
+            return Response.preconditionFailed("用户缺少股东账户", "open_account");
+        }
+
+        // --- 步骤 2: 执行核心业务逻辑 ---
+        log.debug("[工具执行] 正在执行股票购买操作，参数为: {}", request);
+        return Response.success("成功购买 " + request.quantity() + " 股 " + request.ticker());
+    }
+
     /**
-     * 模拟一个检查用户是否拥有股东账户的服务。
-     * 为了演示，我们假设除了“user_with_account”之外的所有用户都没有账户。
+     * 查询模拟的股东账户服务，见 {@link ShareholderAccounts}。
      */
     private boolean hasShareholderAccount(String userId) {
-        return "user_with_account".equals(userId);
+        return accounts.hasAccount(userId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package com.example.v2.tool;
+
+import java.util.function.Function;
+
+/**
+ * 强类型的工具契约。
+ * 工作流调度器会在启动时解析出泛型参数 Q，并把LLM提取的参数直接转换为 Q 后调用 {@link #execute}，
+ * 不再经过 "Map -> JSON字符串 -> 记录" 的往返。
+ * 继承的 {@code Function<String, R>} 作为兼容入口保留，接收JSON字符串参数。
+ * @param <Q> 工具的输入参数结构 (Request)。
+ * @param <R> 工具的输出结果结构 (Response)。
+ */
+public interface TypedTool<Q, R> extends Function<String, R> {
+
+    /**
+     * 工具的执行入口。
+     * @param request 已经反序列化好的参数。
+     * @return 执行结果。
+     */
+    R execute(Q request);
+}
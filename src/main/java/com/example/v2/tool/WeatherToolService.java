@@ -1,23 +1,39 @@
 package com.example.v2.tool;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.example.v2.metadata.Tool;
+import com.example.v2.metadata.ToolCategory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
-import java.util.function.Function;
-
 /**
  * 天气查询工具服务（用于演示“偏离处理”）。
  * @Service("check_weather") 定义了这个Bean的名称。
  */
 @Service("check_weather")
-public class WeatherToolService implements Function<String, WeatherToolService.Response> {
+@Tool(
+    name = "check_weather",
+    displayName = "天气查询",
+    description = "查询指定城市的天气情况。如果用户没有指定城市，可以默认为杭州。",
+    category = ToolCategory.DIGRESSION,
+    request = WeatherToolService.Request.class,
+    replyTemplate = "{city}今天天气{weather}，气温{temperature}。"
+)
+public class WeatherToolService implements TypedTool<WeatherToolService.Request, WeatherToolService.Response> {
+
+    private static final Logger log = LoggerFactory.getLogger(WeatherToolService.class);
+
+    private final ObjectReader requestReader;
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    public WeatherToolService(ObjectMapper mapper) {
+        this.requestReader = mapper.readerFor(Request.class);
+    }
 
-    // 天气工具的输入参数
-    public record Request(@JsonProperty(required = true) String city) {}
+    // 天气工具的输入参数（城市可选，缺省为杭州）
+    public record Request(String city) {}
 
     // 天气工具的输出结果
     public record Response(String city, String weather, String temperature) {}
@@ -26,18 +42,23 @@ public class WeatherToolService implements Function<String, WeatherToolService.R
     public Response apply(String argumentsJson) {
         try {
             // 模拟提取参数，即使没有提供城市，也给一个默认值
-            Request request = argumentsJson.contains("city") 
-                ? mapper.readValue(argumentsJson, Request.class)
-                : new Request("杭州");
-
-            System.out.println("--- [工具执行] ---");
-            System.out.println("正在执行天气查询操作，参数为: " + request);
-            System.out.println("----------------------");
-
-            // 模拟返回固定的天气数据
-            return new Response(request.city(), "晴朗", "25°C");
+            Request request = argumentsJson.contains("city")
+                ? requestReader.<Request>readValue(argumentsJson)
+                : new Request(null);
+            return execute(request);
         } catch (JsonProcessingException e) {
             throw new RuntimeException("解析天气查询参数时出错", e);
         }
     }
+
+    @Override
+    public Response execute(Request request) {
+        // 没有提供城市时，默认为杭州
+        String city = (request.city() == null || request.city().isBlank()) ? "杭州" : request.city();
+
+        log.debug("[工具执行] 正在执行天气查询操作，城市为: {}", city);
+
+        // 模拟返回固定的天气数据
+        return new Response(city, "晴朗", "25°C");
+    }
 }
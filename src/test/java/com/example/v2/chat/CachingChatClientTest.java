@@ -0,0 +1,141 @@
+package com.example.v2.chat;
+
+import com.example.v2.state.ChatMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingChatClientTest {
+
+    private static final ChatOptions CHAT = new ChatOptions(null, ChatStage.CHAT);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * 每次调用返回不同的回复，便于区分命中与重新调用。
+     */
+    private final ChatClient upstream = prompt -> new ChatResponse(new AssistantMessage("回复" + calls.incrementAndGet(), null));
+
+    @AfterEach
+    void close() {
+        registry.close();
+    }
+
+    private CachingChatClient cache(ChatClient delegate, int window, Duration ttl) {
+        return new CachingChatClient(delegate, "model", Map.of(ChatStage.CHAT, window), 100, ttl, registry);
+    }
+
+    /**
+     * 系统提示词 + 交替的用户/助手消息，最后一条是用户消息。
+     */
+    private static Prompt conversation(String... turns) {
+        List<Object> messages = new ArrayList<>();
+        messages.add(new SystemMessage("你是一个友好的助手"));
+        for (int i = 0; i < turns.length; i++) {
+            messages.add(i % 2 == 0 ? ChatMessage.user(turns[i]) : ChatMessage.assistant(turns[i]));
+        }
+        return new Prompt(messages, CHAT);
+    }
+
+    private double requests(String result) {
+        var counter = registry.find("llm.cache.requests").tag("result", result).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    void sameGreetingInDifferentConversationsIsShared() {
+        CachingChatClient client = cache(upstream, 1, Duration.ofMinutes(10));
+
+        String first = client.call(conversation("你好")).result().content();
+        String second = client.call(conversation("你好")).result().content();
+
+        assertThat(second).isEqualTo(first);
+        assertThat(calls).hasValue(1);
+    }
+
+    @Test
+    void followUpIsKeyedOnThePreviousAssistantReply() {
+        CachingChatClient client = cache(upstream, 1, Duration.ofMinutes(10));
+
+        String afterFunds = client.call(conversation("基金能买吗", "目前不建议买入", "为什么？")).result().content();
+        String afterStocks = client.call(conversation("股票能买吗", "可以少量配置", "为什么？")).result().content();
+        String sameContext = client.call(conversation("我想买基金", "目前不建议买入", "为什么？")).result().content();
+
+        assertThat(afterStocks).isNotEqualTo(afterFunds);
+        assertThat(sameContext).isEqualTo(afterFunds);
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    void stagesNotListedAreNotCached() {
+        CachingChatClient client = cache(upstream, 1, Duration.ofMinutes(10));
+        Prompt extraction = new Prompt(List.of(ChatMessage.user("本科")), new ChatOptions(null, ChatStage.EXTRACTION));
+
+        client.call(extraction);
+        client.call(extraction);
+
+        assertThat(calls).hasValue(2);
+        assertThat(client.size()).isZero();
+    }
+
+    @Test
+    void expiredEntryIsFetchedAgain() {
+        CachingChatClient client = cache(upstream, 1, Duration.ZERO);
+
+        client.call(conversation("你好"));
+        client.call(conversation("你好"));
+
+        assertThat(calls).hasValue(2);
+        assertThat(registry.get("llm.cache.evictions").tag("cause", "expired").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void failureOfTheInFlightCallReachesEveryWaiterAndIsNotCached() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger failing = new AtomicInteger(1);
+        ChatClient delegate = prompt -> {
+            if (failing.getAndDecrement() > 0) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+            }
+            return upstream.call(prompt);
+        };
+        CachingChatClient client = cache(delegate, 1, Duration.ofMinutes(10));
+
+        CompletableFuture<ChatResponse> leader = CompletableFuture.supplyAsync(() -> client.call(conversation("你好")));
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<ChatResponse> follower = CompletableFuture.supplyAsync(() -> client.call(conversation("你好")));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (requests("coalesced") == 0 && System.nanoTime() < deadline) Thread.onSpinWait();
+        release.countDown();
+
+        assertThatThrownBy(leader::join).hasCauseInstanceOf(HttpServerErrorException.class);
+        assertThatThrownBy(follower::join).hasCauseInstanceOf(HttpServerErrorException.class);
+        assertThat(requests("coalesced")).isEqualTo(1);
+        assertThat(client.size()).isZero();
+
+        assertThat(client.call(conversation("你好")).result().content()).isEqualTo("回复1");
+        assertThat(requests("miss")).isEqualTo(2);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.v2.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ChatCompletionCodecTest {
+
+    @Test
+    void readsTheFirstChoiceAndUsage() throws IOException {
+        ChatResponse response = ChatCompletionCodec.readResponse(json("""
+            {"id":"x","choices":[{"index":0,"message":{"role":"assistant","content":"好的"}}],
+             "usage":{"prompt_tokens":12,"completion_tokens":3,"total_tokens":15}}"""));
+
+        assertThat(response.result().content()).isEqualTo("好的");
+        assertThat(response.usage().promptTokens()).isEqualTo(12);
+    }
+
+    @Test
+    void responseWithoutChoicesIsNotAnIoFailure() {
+        // IOException 会被 RestTemplate 包成 ResourceAccessException，被路由和放行控制当作端点故障
+        assertThatThrownBy(() -> ChatCompletionCodec.readResponse(json("{\"choices\":[]}")))
+            .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> ChatCompletionCodec.readResponse(json("{\"choices\":[{\"index\":0}]}")))
+            .isInstanceOf(IllegalStateException.class);
+    }
+
+    private static InputStream json(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
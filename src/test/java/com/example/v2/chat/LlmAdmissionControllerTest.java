@@ -0,0 +1,156 @@
+package com.example.v2.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LlmAdmissionControllerTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static LlmAdmissionController controller(int initialLimit, int maxQueue, int tokensPerMinute) {
+        return new LlmAdmissionController(initialLimit, 1, 100, 0.5, 2.0, 0, tokensPerMinute, Duration.ofSeconds(1),
+            maxQueue, Duration.ofSeconds(1));
+    }
+
+    private static long in(long millis) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static void release(LlmAdmissionController controller, LlmAdmissionController.Signal signal) {
+        controller.release(signal, ChatStage.CHAT, false, RTT, 0, Duration.ZERO);
+    }
+
+    /**
+     * 在新线程上排队，直到控制器看到它排进队列才返回。
+     */
+    private static Thread enqueue(LlmAdmissionController controller, int priority, Runnable onAdmitted) throws InterruptedException {
+        int queued = controller.queued();
+        Thread thread = new Thread(() -> {
+            try {
+                controller.acquire(priority, 0, in(5000));
+                onAdmitted.run();
+                release(controller, LlmAdmissionController.Signal.IGNORED);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        while (controller.queued() == queued) Thread.sleep(1);
+        return thread;
+    }
+
+    @Test
+    void rateLimitedCallMultipliesTheLimitByTheBackoffRatio() throws InterruptedException {
+        LlmAdmissionController controller = controller(20, 10, 0);
+
+        controller.acquire(0, 0, in(100));
+        release(controller, LlmAdmissionController.Signal.RATE_LIMITED);
+        assertThat(controller.limit()).isEqualTo(10);
+
+        controller.acquire(0, 0, in(100));
+        release(controller, LlmAdmissionController.Signal.DROPPED);
+        assertThat(controller.limit()).isEqualTo(9);
+
+        for (int i = 0; i < 10; i++) {
+            controller.acquire(0, 0, in(100));
+            release(controller, LlmAdmissionController.Signal.RATE_LIMITED);
+        }
+        assertThat(controller.limit()).isEqualTo(1);
+    }
+
+    @Test
+    void limitGrowsOnlyWhileItsSlotsAreBusy() throws InterruptedException {
+        LlmAdmissionController busy = controller(4, 10, 0);
+        for (int i = 0; i < 4; i++) busy.acquire(0, 0, in(100));
+        // 始终占满4个名额：每完成一个立即补上一个，一轮10个样本后上限加性增长
+        for (int i = 0; i < 10; i++) {
+            release(busy, LlmAdmissionController.Signal.SUCCESS);
+            busy.acquire(0, 0, in(100));
+        }
+        assertThat(busy.limit()).isEqualTo(6);
+
+        LlmAdmissionController idle = controller(4, 10, 0);
+        for (int i = 0; i < 30; i++) {
+            idle.acquire(0, 0, in(100));
+            release(idle, LlmAdmissionController.Signal.SUCCESS);
+        }
+        assertThat(idle.limit()).isEqualTo(4);
+    }
+
+    @Test
+    void queuedCallsAreAdmittedByPriorityThenArrival() throws InterruptedException {
+        LlmAdmissionController controller = controller(1, 10, 0);
+        controller.acquire(0, 0, in(100));
+
+        Queue<String> admitted = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(enqueue(controller, 5, () -> admitted.add("chit-chat")));
+        threads.add(enqueue(controller, 1, () -> admitted.add("task-1")));
+        threads.add(enqueue(controller, 3, () -> admitted.add("summary")));
+        threads.add(enqueue(controller, 1, () -> admitted.add("task-2")));
+
+        release(controller, LlmAdmissionController.Signal.IGNORED);
+        for (Thread thread : threads) thread.join(5000);
+
+        assertThat(admitted).containsExactly("task-1", "task-2", "summary", "chit-chat");
+        assertThat(controller.inFlight()).isZero();
+    }
+
+    @Test
+    void fullQueueAndMissedDeadlineAreRejected() throws InterruptedException {
+        LlmAdmissionController controller = controller(1, 1, 0);
+        controller.acquire(0, 0, in(100));
+        Thread waiting = enqueue(controller, 0, () -> { });
+
+        assertThatThrownBy(() -> controller.acquire(0, 0, in(5000)))
+            .isInstanceOf(LlmOverloadedException.class)
+            .hasMessageContaining("排队已满");
+
+        release(controller, LlmAdmissionController.Signal.IGNORED);
+        waiting.join(5000);
+        controller.acquire(0, 0, in(100));
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> controller.acquire(0, 0, in(50)))
+            .isInstanceOf(LlmOverloadedException.class)
+            .hasMessageContaining("超时");
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(controller.queued()).isZero();
+        assertThat(controller.inFlight()).isEqualTo(1);
+    }
+
+    @Test
+    void pauseLongerThanTheDeadlineIsRejectedWithoutWaiting() throws InterruptedException {
+        LlmAdmissionController controller = controller(10, 10, 0);
+        controller.acquire(0, 0, in(100));
+        controller.release(LlmAdmissionController.Signal.RATE_LIMITED, ChatStage.CHAT, false, RTT, 0, Duration.ofSeconds(30));
+
+        long start = System.nanoTime();
+        assertThatThrownBy(() -> controller.acquire(0, 0, in(5000)))
+            .isInstanceOfSatisfying(LlmOverloadedException.class,
+                e -> assertThat(e.retryAfter()).isGreaterThan(Duration.ofSeconds(29)));
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void tokenRefundNeverFillsTheBucketPastItsCapacity() throws InterruptedException {
+        // 每分钟600个Token、突发1秒：桶容量10个，每秒补充10个
+        LlmAdmissionController controller = controller(10, 10, 600);
+        controller.acquire(0, 10, in(100));
+        // 预扣10个，实际只用了极少：退还远超容量的数量
+        controller.release(LlmAdmissionController.Signal.SUCCESS, ChatStage.CHAT, false, RTT, -1000, Duration.ZERO);
+
+        controller.acquire(0, 10, in(100));
+        // 退还被截断在容量上，刚才的调用已经用完了桶；再要10个需要约1秒
+        assertThatThrownBy(() -> controller.acquire(0, 10, in(100)))
+            .isInstanceOf(LlmOverloadedException.class);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.v2.chat;
+
+import com.example.v2.metadata.ToolMetadataService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 连接复用：通过 {@link CustomOpenAiChatClient} 对本地模拟服务端连续发出的请求应落在同一条TCP连接上
+ * （服务端看到的客户端端口不变）；读不完的大响应和流式响应在关闭时直接断开，不等服务端发完。
+ */
+class PooledHttpRequestFactoryTest {
+
+    private static final Prompt PROMPT = new Prompt(List.of(new UserMessage("你好")), new ChatOptions(null, ChatStage.CHAT));
+    private static final byte[] COMPLETION = """
+        {"id":"x","choices":[{"index":0,"message":{"role":"assistant","content":"好的"}}]}""".getBytes(StandardCharsets.UTF_8);
+    // 解析器读到JSON结束就停下，尾随的空白留在流里，要靠关闭时读完
+    private static final byte[] SMALL_BODY = concat(COMPLETION, " ".repeat(8 * 1024).getBytes(StandardCharsets.UTF_8));
+    private static final long SLOW_TAIL_MILLIS = 3000;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private PooledHttpRequestFactory factory;
+    private URI base;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/small", exchange -> respond(exchange, "application/json", SMALL_BODY, SMALL_BODY.length, false));
+        // 声明了1MB，先发出完整的JSON，其余部分很久之后才发
+        server.createContext("/large", exchange -> respond(exchange, "application/json", COMPLETION, 1 << 20, true));
+        // 流式回复发完 [DONE] 后连接上还有迟迟不结束的数据
+        byte[] events = """
+            data: {"choices":[{"index":0,"delta":{"role":"assistant","content":"好的"}}]}
+
+            data: [DONE]
+
+            """.getBytes(StandardCharsets.UTF_8);
+        server.createContext("/stream", exchange -> respond(exchange, "text/event-stream", events, 0, true));
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.start();
+        base = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+        factory = new PooledHttpRequestFactory(HttpClient.Version.HTTP_1_1, 4, Duration.ofSeconds(2),
+            Duration.ofSeconds(2), Duration.ofSeconds(5), Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void stop() {
+        factory.close();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * @param length 响应头中的长度，0 表示分块传输。
+     * @param slowTail 发完 body 之后是否再等一段时间、补齐声明的长度才结束。
+     */
+    private void respond(HttpExchange exchange, String contentType, byte[] body, long length, boolean slowTail) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        try (InputStream in = exchange.getRequestBody()) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+            out.flush();
+            if (slowTail) {
+                Thread.sleep(SLOW_TAIL_MILLIS);
+                if (length > body.length) out.write(new byte[(int) (length - body.length)]);
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // 客户端已断开
+        }
+    }
+
+    private CustomOpenAiChatClient client(String path) {
+        return new CustomOpenAiChatClient("key", Map::of, new ToolMetadataService(List.of()), new RestTemplate(factory),
+            base.resolve(path).toString());
+    }
+
+    @Test
+    void sequentialCallsReuseOneConnection() {
+        CustomOpenAiChatClient client = client("/small");
+        for (int i = 0; i < 20; i++) {
+            assertThat(client.call(PROMPT).result().content()).isEqualTo("好的");
+        }
+        assertThat(clientPorts).hasSize(1);
+        assertThat(factory.availablePermits()).isEqualTo(4);
+    }
+
+    @Test
+    void largeBodyIsNotDrainedOnClose() {
+        CustomOpenAiChatClient client = client("/large");
+        long start = System.nanoTime();
+        for (int i = 0; i < 2; i++) {
+            assertThat(client.call(PROMPT).result().content()).isEqualTo("好的");
+        }
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(SLOW_TAIL_MILLIS));
+        assertThat(clientPorts).hasSize(2);
+        assertThat(factory.availablePermits()).isEqualTo(4);
+    }
+
+    @Test
+    void streamIsClosedWithoutWaitingForTheServer() {
+        CustomOpenAiChatClient client = client("/stream");
+        StringBuilder deltas = new StringBuilder();
+        long start = System.nanoTime();
+        assertThat(client.stream(PROMPT, deltas::append).result().content()).isEqualTo("好的");
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(SLOW_TAIL_MILLIS));
+        assertThat(deltas.toString()).isEqualTo("好的");
+        assertThat(factory.availablePermits()).isEqualTo(4);
+    }
+
+    @Test
+    void responseClosedBeforeBodyIsReadStillReturnsConnectionToPool() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            var request = factory.createRequest(base.resolve("/small"), HttpMethod.POST);
+            request.getBody().write("{\"model\":\"m\"}".getBytes(StandardCharsets.UTF_8));
+            try (ClientHttpResponse response = request.execute()) {
+                assertThat(response.getStatusCode().value()).isEqualTo(200);
+                assertThat(response.getBody().read()).isEqualTo('{');
+            }
+        }
+        assertThat(clientPorts).hasSize(1);
+        assertThat(factory.availablePermits()).isEqualTo(4);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] joined = new byte[a.length + b.length];
+        System.arraycopy(a, 0, joined, 0, a.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.v2.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoutingChatClientTest {
+
+    private static final Prompt EXTRACTION = new Prompt(List.of(), new ChatOptions(null, ChatStage.EXTRACTION));
+    private static final Prompt CHAT = new Prompt(List.of(), new ChatOptions(null, ChatStage.CHAT));
+
+    /**
+     * 可以切换行为的端点：正常、变慢或返回5xx。
+     */
+    private static final class ScriptedEndpoint implements ChatClient {
+        private final String name;
+        volatile long delayMillis;
+        volatile boolean failing;
+
+        ScriptedEndpoint(String name, long delayMillis) {
+            this.name = name;
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            if (failing) throw new HttpServerErrorException(HttpStatus.BAD_GATEWAY);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+            return new ChatResponse(new AssistantMessage(name, null));
+        }
+    }
+
+    /**
+     * 每个任务一个新线程；限额用完后提交的任务只排队、永不执行，模拟对冲任务还没开始主调用就已返回。
+     */
+    private static final class HoldingExecutor implements Executor {
+        final AtomicInteger runBudget = new AtomicInteger(Integer.MAX_VALUE);
+        final Queue<Runnable> held = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void execute(Runnable task) {
+            if (runBudget.getAndDecrement() > 0) new Thread(task).start();
+            else held.add(task);
+        }
+    }
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void close() {
+        registry.close();
+    }
+
+    private double state(String endpoint) {
+        return registry.get("llm.endpoint.state").tag("endpoint", endpoint).gauge().value();
+    }
+
+    @Test
+    void hedgeCancelledBeforeItStartsReleasesTheProbeSlot() throws InterruptedException {
+        ScriptedEndpoint a = new ScriptedEndpoint("a", 0);
+        ScriptedEndpoint b = new ScriptedEndpoint("b", 10);
+        HoldingExecutor executor = new HoldingExecutor();
+        RoutingChatClient client = new RoutingChatClient(
+            List.of(new RoutingChatClient.Endpoint("a", a), new RoutingChatClient.Endpoint("b", b)),
+            new RoutingChatClient.Settings(1, Duration.ofMillis(50), Set.of(ChatStage.EXTRACTION), 0.5, Duration.ofMillis(20), 1.0),
+            executor, registry);
+
+        // 攒够耗时样本，算出对冲阈值；a 更快，之后总是被选为主调用
+        for (int i = 0; i < 64; i++) client.call(EXTRACTION);
+
+        // b 熔断，断开到期后下一个调用成为它的试探调用
+        b.failing = true;
+        a.failing = true;
+        for (int i = 0; i < 4 && state("b") != 2; i++) {
+            try {
+                client.call(CHAT);
+            } catch (RuntimeException ignored) {
+            }
+        }
+        assertThat(state("b")).isEqualTo(2);
+        a.failing = false;
+        b.failing = false;
+        Thread.sleep(60);
+
+        // 主调用变慢触发对冲，对冲发给试探中的 b，但在开始执行前主调用已经返回
+        a.delayMillis = 150;
+        executor.runBudget.set(1);
+        assertThat(client.call(EXTRACTION).result().content()).isEqualTo("a");
+        assertThat(executor.held).hasSize(1);
+        executor.runBudget.set(Integer.MAX_VALUE);
+
+        // b 的试探名额已归还：a 失败时仍能转移到 b
+        a.failing = true;
+        assertThat(client.call(CHAT).result().content()).isEqualTo("b");
+        assertThat(state("b")).isZero();
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.v2.metadata;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChineseNumeralsTest {
+
+    @ParameterizedTest
+    @CsvSource({
+        "500, 500",
+        "零, 0",
+        "十, 10",
+        "十五, 15",
+        "二十, 20",
+        "一百零五, 105",
+        "一千零十, 1010",
+        "两千, 2000",
+        "三千二百, 3200",
+        "一万二千, 12000",
+        "一万零五, 10005",
+        "二十万, 200000",
+        "一百二十万, 1200000",
+        "1万, 10000",
+        "1000万, 10000000",
+        "一亿零五万, 100050000",
+        "三亿二千万, 320000000",
+        "92233720368亿, 9223372036800000000"
+    })
+    void parsesValidForms(String text, long expected) {
+        assertThat(ChineseNumerals.parse(text)).isEqualTo(expected);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "一百一千",        // 单位顺序颠倒
+        "一千一千",
+        "十十",
+        "五十十",
+        "一万一万",
+        "一万二亿",
+        "一亿一亿",
+        "一百五",          // 口语省略，有歧义
+        "一万二",
+        "五五",
+        "百",
+        "999999999999亿",  // 超出long范围
+        "92233720369亿",
+        "9999999999999",   // 超过12位
+        "abc",
+        ""
+    })
+    void rejectsMalformedOrOverflowingNumbers(String text) {
+        assertThat(ChineseNumerals.parse(text)).isEqualTo(-1);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.v2.metadata;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SlotParserTest {
+
+    private final SlotParser shares = SlotParser.integer("股");
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', value = {
+        "500|500",
+        "500股|500",
+        "1,000|1000",
+        "两千股|2000",
+        "十五|15",
+        " 一百零五 。|105",
+        "1万|10000",
+        "一万二千股|12000"
+    })
+    void parsesWholeIntegerAnswers(String answer, int expected) {
+        assertThat(shares.parse(answer)).contains(expected);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "买500股",
+        "五五",
+        "一百一千",
+        "999999999999亿",
+        "30亿",            // 超出int范围
+        "0",
+        "零股",
+        "不知道"
+    })
+    void leavesUnclearIntegerAnswersToTheLlm(String answer) {
+        assertThat(shares.parse(answer)).isEmpty();
+    }
+
+    @Test
+    void choiceNeedsExactlyOneOptionWithoutNegation() {
+        SlotParser education = SlotParser.choice(List.of("本科", "硕士", "博士"));
+
+        assertThat(education.parse("我是本科")).contains("本科");
+        assertThat(education.parse("硕士毕业。")).contains("硕士");
+        assertThat(education.parse("不是本科")).isEmpty();
+        assertThat(education.parse("本科或者硕士")).isEmpty();
+        assertThat(education.parse("我上学的时候读的本科")).isEmpty();
+    }
+
+    @Test
+    void patternMatchesTheWholeTrimmedAnswer() {
+        SlotParser stockCode = SlotParser.pattern(Pattern.compile("\\d{6}"));
+
+        assertThat(stockCode.parse(" 600519。")).contains("600519");
+        assertThat(stockCode.parse("代码600519")).isEmpty();
+        assertThat(stockCode.parse(null)).isEmpty();
+    }
+}
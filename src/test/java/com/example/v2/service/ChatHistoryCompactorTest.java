@@ -0,0 +1,96 @@
+package com.example.v2.service;
+
+import com.example.v2.chat.AssistantMessage;
+import com.example.v2.chat.ChatResponse;
+import com.example.v2.state.ChatHistory;
+import com.example.v2.state.ChatMessage;
+import com.example.v2.state.DialogueState;
+import com.example.v2.state.DialogueStateCache;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 待应用的摘要不会无限积累：会话被淘汰、过期或超出上限时丢弃，新摘要总能放入。
+ */
+class ChatHistoryCompactorTest {
+
+    /**
+     * 在提交任务的线程上直接执行，摘要在 scheduleCompaction 返回前已经生成。
+     */
+    private static final ThreadPoolTaskExecutor INLINE = new ThreadPoolTaskExecutor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    private static ChatHistoryCompactor compactor(int maxPending, Duration ttl) {
+        return new ChatHistoryCompactor(prompt -> new ChatResponse(new AssistantMessage("用户在办理开户", null)),
+            new PromptTemplateService(), INLINE, 1, 1, maxPending, ttl, 1500, 2000, 1500);
+    }
+
+    /**
+     * 三轮对话：保留最后一轮原文，前两轮足够生成一次摘要。
+     */
+    private static DialogueState conversation(String id) {
+        ChatHistory history = ChatHistory.of(List.of(
+            ChatMessage.user("我要开户"), ChatMessage.assistant("请问您的学历是？"),
+            ChatMessage.user("本科"), ChatMessage.assistant("请问您的职业是？"),
+            ChatMessage.user("工程师"), ChatMessage.assistant("请问您的住址是？")));
+        return new DialogueState(id, "open_account", Set.of(), new HashMap<>(), DialogueState.Status.GATHERING_INFO, history);
+    }
+
+    @Test
+    void pendingSummaryReplacesThePrefixOnTheNextTurn() {
+        ChatHistoryCompactor compactor = compactor(10, Duration.ofMinutes(30));
+        DialogueState state = conversation("c1");
+
+        compactor.scheduleCompaction(state);
+        DialogueState compacted = compactor.applyPendingSummary(state);
+
+        assertThat(compacted.chatHistory()).hasSize(3);
+        assertThat(compacted.chatHistory().get(0).content()).startsWith(ChatHistoryCompactor.SUMMARY_PREFIX);
+        assertThat(compactor.pendingSummaries()).isZero();
+    }
+
+    @Test
+    void evictedConversationDropsItsSummary() {
+        ChatHistoryCompactor compactor = compactor(10, Duration.ofMinutes(30));
+        DialogueState state = conversation("c1");
+
+        compactor.scheduleCompaction(state);
+        compactor.onEviction("c1", state, DialogueStateCache.EvictionCause.EXPIRED);
+
+        assertThat(compactor.pendingSummaries()).isZero();
+        assertThat(compactor.applyPendingSummary(state)).isSameAs(state);
+    }
+
+    @Test
+    void expiredSummaryIsNotApplied() {
+        ChatHistoryCompactor compactor = compactor(10, Duration.ZERO);
+        DialogueState state = conversation("c1");
+
+        compactor.scheduleCompaction(state);
+
+        assertThat(compactor.applyPendingSummary(state)).isSameAs(state);
+    }
+
+    @Test
+    void overTheBoundTheOldestSummariesAreDroppedAndCompactionKeepsWorking() {
+        ChatHistoryCompactor compactor = compactor(10, Duration.ofMinutes(30));
+        for (int i = 0; i < 25; i++) compactor.scheduleCompaction(conversation("abandoned-" + i));
+
+        assertThat(compactor.pendingSummaries()).isLessThanOrEqualTo(10);
+        DialogueState active = conversation("active");
+        compactor.scheduleCompaction(active);
+        assertThat(compactor.applyPendingSummary(active).chatHistory()).hasSize(3);
+        assertThat(compactor.applyPendingSummary(conversation("abandoned-0"))).matches(s -> s.chatHistory().size() == 6);
+    }
+}
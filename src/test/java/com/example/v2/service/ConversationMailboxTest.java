@@ -0,0 +1,118 @@
+package com.example.v2.service;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link ConversationMailbox} 的并发压力测试：大量线程同时向少数几个会话发消息（模拟连点发送、网关重试）。
+ * 每轮对话是一次非原子的 读-改-写（中间停顿模拟LLM调用），同一会话的轮次一旦并发执行就会丢失消息。
+ * 校验同一会话从未有两轮同时执行、每条消息恰好被处理一次，且同一发送方发往同一会话的消息保持发送顺序。
+ */
+class ConversationMailboxTest {
+
+    private static final int SENDERS = 32;
+    private static final int MESSAGES_PER_SENDER = 100;
+    private static final int CONVERSATIONS = 8;
+    private static final long TURN_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final Map<String, List<String>> processed = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> sent = new ConcurrentHashMap<>();
+    private final LongAdder turns = new LongAdder();
+    private final LongAdder overlaps = new LongAdder();
+
+    @ParameterizedTest(name = "coalesce={0}, async={1}")
+    @CsvSource({"false, false", "false, true", "true, false", "true, true"})
+    void turnsAreSerializedPerConversationAndNoMessageIsLost(boolean coalesce, boolean async) throws InterruptedException {
+        ConversationMailbox mailbox = new ConversationMailbox(coalesce, Duration.ZERO);
+        ExecutorService turnExecutor = Executors.newFixedThreadPool(16);
+        ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+        for (int i = 0; i < CONVERSATIONS; i++) {
+            processed.put("conv-" + i, new ArrayList<>());
+            inFlight.put("conv-" + i, new AtomicInteger());
+            sent.put("conv-" + i, Collections.synchronizedList(new ArrayList<>()));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+        for (int s = 0; s < SENDERS; s++) {
+            int sender = s;
+            senders.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < MESSAGES_PER_SENDER; i++) {
+                        String id = "conv-" + ThreadLocalRandom.current().nextInt(CONVERSATIONS);
+                        String message = sender + ":" + i;
+                        sent.get(id).add(message);
+                        var response = async
+                            ? mailbox.submit(id, message, null, turnExecutor, this::turn).join()
+                            : mailbox.call(id, message, null, this::turn);
+                        assertThat(response.reply()).isEqualTo("ok");
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            });
+        }
+        start.countDown();
+        senders.shutdown();
+        assertThat(senders.awaitTermination(60, TimeUnit.SECONDS)).isTrue();
+        turnExecutor.shutdownNow();
+
+        assertThat(failures).isEmpty();
+        assertThat(overlaps.sum()).as("同一会话同时执行的轮次").isZero();
+        for (String id : processed.keySet()) {
+            assertThat(processed.get(id)).as(id).containsExactlyInAnyOrderElementsOf(sent.get(id));
+            assertThat(perSender(processed.get(id))).as(id + " 各发送方的消息顺序").allSatisfy((sender, indexes) ->
+                assertThat(indexes).isSorted());
+        }
+        assertThat(mailbox.activeConversations()).isZero();
+        if (!coalesce) assertThat(turns.sum()).isEqualTo((long) SENDERS * MESSAGES_PER_SENDER);
+    }
+
+    /**
+     * 一轮对话：读出已处理的消息，停顿一下再写回，同一会话的轮次并发时后写者会覆盖前者。
+     */
+    private DialogueFlowService.DialogueResponse turn(String conversationId, String message, Consumer<String> replySink) {
+        if (inFlight.get(conversationId).incrementAndGet() != 1) overlaps.increment();
+        try {
+            List<String> before = processed.get(conversationId);
+            List<String> after = new ArrayList<>(before);
+            LockSupport.parkNanos(TURN_NANOS);
+            message.lines().forEach(after::add);
+            processed.put(conversationId, after);
+            turns.increment();
+            return new DialogueFlowService.DialogueResponse("ok", false);
+        } finally {
+            inFlight.get(conversationId).decrementAndGet();
+        }
+    }
+
+    private static Map<String, List<Integer>> perSender(List<String> messages) {
+        Map<String, List<Integer>> bySender = new HashMap<>();
+        for (String message : messages) {
+            String[] parts = message.split(":");
+            bySender.computeIfAbsent(parts[0], k -> new ArrayList<>()).add(Integer.parseInt(parts[1]));
+        }
+        return bySender;
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.v2.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 词典与 local-intents.properties 中的一致，阈值与 application.properties 中的一致。
+ */
+class LocalIntentClassifierTest {
+
+    private final LocalIntentClassifier classifier = new LocalIntentClassifier(
+        Map.of(
+            LocalIntentClassifier.AFFIRM, List.of("是", "是的", "对", "对的", "没错", "正确", "确认", "确定", "好", "好的", "可以", "行", "没问题"),
+            LocalIntentClassifier.DENY, List.of("不对", "不是", "错了", "不正确", "有误", "不行", "不可以"),
+            LocalIntentClassifier.CANCEL, List.of("取消", "算了", "不办了", "不要了", "退出"),
+            "check_weather", List.of("天气", "查天气", "天气怎么样", "今天天气"),
+            "open_account", List.of("开户", "开个户", "开账户", "办开户")),
+        Map.of("check_weather", 0.9),
+        List.of("我", "要", "想", "帮", "请", "吧", "啊", "呢", "了", "的", "嗯", "哦", "呀", "那", "就", "一下", "麻烦"),
+        0.8);
+
+    @ParameterizedTest
+    @CsvSource({
+        "是的, affirm",
+        "好的！, affirm",
+        "嗯，没问题, affirm",
+        "不对, deny",
+        "不是, deny",
+        "不行, deny",
+        "不可以, deny",
+        "不正确, deny",
+        "取消吧, cancel",
+        "算了算了, cancel",
+        "我要开户, open_account",
+        "帮我开个户吧, open_account"
+    })
+    void shortUnambiguousMessagesAreClassifiedLocally(String message, String intent) {
+        assertThat(classifier.classify(message)).hasValueSatisfying(c -> assertThat(c.intent()).isEqualTo(intent));
+    }
+
+    @Test
+    void negationOutranksTheAffirmationItContains() {
+        // "不对" 中的 "对"、"不可以" 中的 "可以" 被更长的否定短语包含，不计
+        assertThat(classifier.classify("不对")).contains(new LocalIntentClassifier.Classification(LocalIntentClassifier.DENY, 1.0));
+        assertThat(classifier.classify("不可以")).contains(new LocalIntentClassifier.Classification(LocalIntentClassifier.DENY, 1.0));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "是不是",           // "是" 与 "不是" 重叠，肯定和否定都命中
+        "对，但地址填错了",  // 肯定和否定都命中，覆盖率也不够
+        "确定不办了",        // 肯定和取消
+        "北京天气怎么样",    // 城市需要提取，覆盖率低于 check_weather 的阈值
+        "好的北京",          // 覆盖率低于默认阈值
+        "你好，今天几号",    // 没有整句命中
+        "，。！",           // 没有有效字符
+        ""
+    })
+    void ambiguousOrPartialMessagesGoToTheLlm(String message) {
+        assertThat(classifier.classify(message)).isEmpty();
+    }
+
+    @Test
+    void confidenceIsTheCoveredShareIgnoringPunctuation() {
+        assertThat(classifier.classify("今天天气，怎么样")).isEmpty();
+        assertThat(classifier.classify("天气怎么样？")).contains(new LocalIntentClassifier.Classification("check_weather", 1.0));
+        assertThat(classifier.classify("好的吗")).isEmpty(); // "吗" 不是填充词：2/3 低于 0.8
+    }
+
+    @Test
+    void emptyDictionaryOrNullMessageNeverClassifies() {
+        LocalIntentClassifier disabled = new LocalIntentClassifier(Map.of(), Map.of(), List.of("我"), 0.8);
+
+        assertThat(disabled.classify("是的")).isEmpty();
+        assertThat(classifier.classify(null)).isEmpty();
+    }
+}
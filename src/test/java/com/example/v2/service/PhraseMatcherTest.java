@@ -0,0 +1,60 @@
+package com.example.v2.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PhraseMatcherTest {
+
+    @Test
+    void findsOverlappingAndNestedPhrasesInOnePass() {
+        PhraseMatcher matcher = new PhraseMatcher(Map.of("w", List.of("he", "she", "his", "hers")));
+
+        assertThat(matcher.findAll("ushers")).containsExactlyInAnyOrder(
+            new PhraseMatcher.Match("w", 1, 4),  // she
+            new PhraseMatcher.Match("w", 2, 4),  // he
+            new PhraseMatcher.Match("w", 2, 6)); // hers
+    }
+
+    @Test
+    void reportsEveryOccurrenceOfNegationAndAffirmation() {
+        PhraseMatcher matcher = new PhraseMatcher(Map.of(
+            "affirm", List.of("是", "对"),
+            "deny", List.of("不是", "不对")));
+
+        assertThat(matcher.findAll("是不是")).containsExactly(
+            new PhraseMatcher.Match("affirm", 0, 1),
+            new PhraseMatcher.Match("deny", 1, 3),
+            new PhraseMatcher.Match("affirm", 2, 3));
+        assertThat(matcher.findAll("不对")).containsExactlyInAnyOrder(
+            new PhraseMatcher.Match("deny", 0, 2),
+            new PhraseMatcher.Match("affirm", 1, 2));
+    }
+
+    @Test
+    void followsFailureLinksAfterAPartialMatch() {
+        PhraseMatcher matcher = new PhraseMatcher(Map.of("x", List.of("abcd", "bce")));
+
+        assertThat(matcher.findAll("abce")).containsExactly(new PhraseMatcher.Match("x", 1, 4));
+    }
+
+    @Test
+    void samePhraseUnderTwoLabelsHitsBoth() {
+        PhraseMatcher matcher = new PhraseMatcher(Map.of("a", List.of("好"), "b", List.of("好")));
+
+        assertThat(matcher.findAll("好")).extracting(PhraseMatcher.Match::label).containsExactlyInAnyOrder("a", "b");
+    }
+
+    @Test
+    void ignoresCaseAndBlankPhrases() {
+        PhraseMatcher matcher = new PhraseMatcher(Map.of("ok", List.of(" OK ", "", "  ")));
+
+        assertThat(matcher.findAll("Ok，ok")).containsExactly(
+            new PhraseMatcher.Match("ok", 0, 2),
+            new PhraseMatcher.Match("ok", 3, 5));
+        assertThat(matcher.findAll("没有命中")).isEmpty();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.v2.service;
+
+import com.example.v2.metadata.ToolMetadataService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 并发执行的一组工具调用中，单个调用失败只影响它自己的结果。
+ */
+class WorkflowDispatcherServiceTest {
+
+    private final GenericApplicationContext context = new GenericApplicationContext();
+    private final ThreadPoolTaskExecutor toolExecutor = new ThreadPoolTaskExecutor();
+    private final WorkflowDispatcherService dispatcher = new WorkflowDispatcherService();
+
+    @BeforeEach
+    void setUp() {
+        Function<String, String> quote = arguments -> "贵州茅台 1700.00";
+        // Error 不会被 dispatch 自己捕获，会让执行线程异常结束
+        Function<String, String> broken = arguments -> {
+            throw new AssertionError("行情服务未初始化");
+        };
+        Function<String, String> rejecting = arguments -> {
+            throw new IllegalArgumentException("缺少股票代码");
+        };
+        context.registerBean("query_quote", Function.class, () -> quote);
+        context.registerBean("query_news", Function.class, () -> broken);
+        context.registerBean("query_report", Function.class, () -> rejecting);
+        context.refresh();
+        toolExecutor.initialize();
+
+        ToolMetadataService metadataService = new ToolMetadataService(List.of());
+        ReflectionTestUtils.setField(dispatcher, "context", context);
+        ReflectionTestUtils.setField(dispatcher, "metadataService", metadataService);
+        ReflectionTestUtils.setField(dispatcher, "metrics", new DialogueMetrics(new SimpleMeterRegistry(), metadataService));
+        ReflectionTestUtils.setField(dispatcher, "toolExecutor", toolExecutor);
+        ReflectionTestUtils.setField(dispatcher, "mapper", new ObjectMapper());
+    }
+
+    @AfterEach
+    void tearDown() {
+        toolExecutor.shutdown();
+        context.close();
+    }
+
+    @Test
+    void failedInvocationsAreReportedPerToolAndTheRestSucceed() {
+        List<Map<String, Object>> results = dispatcher.dispatchAll(List.of(
+            new WorkflowDispatcherService.Invocation("query_news", Map.of()),
+            new WorkflowDispatcherService.Invocation("query_quote", Map.of("code", "600519")),
+            new WorkflowDispatcherService.Invocation("query_report", Map.of())));
+
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0)).containsEntry("status", "error").containsEntry("message", "行情服务未初始化");
+        assertThat(results.get(1)).containsEntry("status", "success").containsEntry("data", "贵州茅台 1700.00");
+        assertThat(results.get(2)).containsEntry("status", "error").containsEntry("message", "缺少股票代码");
+    }
+
+    @Test
+    void interruptedCallerGetsErrorResultsAndKeepsItsInterruptFlag() {
+        Thread.currentThread().interrupt();
+        try {
+            List<Map<String, Object>> results = dispatcher.dispatchAll(List.of(
+                new WorkflowDispatcherService.Invocation("query_quote", Map.of()),
+                new WorkflowDispatcherService.Invocation("query_quote", Map.of())));
+
+            assertThat(results).hasSize(2).allSatisfy(result -> assertThat(result).containsKey("status"));
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
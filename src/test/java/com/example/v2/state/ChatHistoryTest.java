@@ -0,0 +1,38 @@
+package com.example.v2.state;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatHistoryTest {
+
+    private static long recomputed(ChatHistory history) {
+        return history.stream().mapToLong(ChatHistory::weigh).sum();
+    }
+
+    @Test
+    void runningWeightMatchesTheMessagesAfterEveryOperation() {
+        ChatHistory history = ChatHistory.of(List.of(ChatMessage.user("我要开户"), ChatMessage.assistant("请问您的学历是？")));
+        assertThat(history.weightBytes()).isEqualTo(recomputed(history));
+
+        ChatHistory longer = history.append(ChatMessage.user("本科")).append(ChatMessage.assistant("请问您的职业是？"));
+        assertThat(longer.weightBytes()).isEqualTo(recomputed(longer));
+
+        // 同一历史分叉追加：第二个分支复制存储，占用各自独立
+        ChatHistory fork = history.append(ChatMessage.user("硕士研究生"));
+        assertThat(fork.weightBytes()).isEqualTo(recomputed(fork));
+        assertThat(longer.weightBytes()).isEqualTo(recomputed(longer));
+
+        ChatHistory prefix = longer.prefix(1);
+        assertThat(prefix.weightBytes()).isEqualTo(recomputed(prefix));
+
+        ChatHistory compacted = longer.replacePrefix(3, ChatMessage.system("摘要：用户在办理开户，学历本科"));
+        assertThat(compacted).hasSize(2);
+        assertThat(compacted.weightBytes()).isEqualTo(recomputed(compacted));
+
+        assertThat(ChatHistory.empty().weightBytes()).isZero();
+        assertThat(ChatHistory.empty().append(ChatMessage.user(null)).weightBytes()).isEqualTo(64);
+    }
+}
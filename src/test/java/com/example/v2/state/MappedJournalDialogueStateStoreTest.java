@@ -0,0 +1,250 @@
+package com.example.v2.state;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MappedJournalDialogueStateStoreTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    private record Evicted(String conversationId, DialogueState state, DialogueStateCache.EvictionCause cause) {}
+
+    @TempDir
+    Path directory;
+
+    // 超出上限时 put 也会在后台触发扫描
+    private final List<Evicted> evicted = new CopyOnWriteArrayList<>();
+    private MappedJournalDialogueStateStore store;
+
+    @AfterEach
+    void close() {
+        if (store != null) store.close();
+    }
+
+    /**
+     * 后台压缩和扫描间隔设得足够长，测试里直接调用 compact() 和 sweep()。
+     */
+    private MappedJournalDialogueStateStore open(Duration idleTtl, int maxEntries) {
+        if (store != null) store.close();
+        store = new MappedJournalDialogueStateStore(directory, SEGMENT_SIZE, false, Duration.ofMillis(1),
+            Duration.ofHours(1), 0.5, Integer.MAX_VALUE, idleTtl, maxEntries, Long.MAX_VALUE, Duration.ofHours(1),
+            List.of((id, state, cause) -> evicted.add(new Evicted(id, state, cause))));
+        return store;
+    }
+
+    private MappedJournalDialogueStateStore reopen() {
+        return open(Duration.ofHours(1), Integer.MAX_VALUE);
+    }
+
+    private static DialogueState state(String id, String lastAnswer) {
+        return new DialogueState(id, "open_account", Set.of("education"), new HashMap<>(Map.of("education", lastAnswer)),
+            DialogueState.Status.GATHERING_INFO, ChatHistory.of(List.of(ChatMessage.user(lastAnswer))));
+    }
+
+    private static Object education(MappedJournalDialogueStateStore store, String id) {
+        return store.get(id).orElseThrow().collectedSlots().get("education");
+    }
+
+    @Test
+    void reopenedJournalRecoversTheLatestStateOfEachConversation() {
+        MappedJournalDialogueStateStore store = reopen();
+        store.put("c1", state("c1", "本科"));
+        store.put("c2", state("c2", "硕士"));
+        store.put("c1", state("c1", "博士"));
+        store.remove("c2");
+
+        store = reopen();
+
+        assertThat(education(store, "c1")).isEqualTo("博士");
+        assertThat(store.get("c2")).isEmpty();
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    void tornTailIsDroppedAndOverwrittenByTheNextRecord() throws IOException {
+        MappedJournalDialogueStateStore store = reopen();
+        store.put("c1", state("c1", "本科"));
+        store.put("c2", state("c2", "硕士"));
+        store.put("c3", state("c3", "博士"));
+        store.close();
+
+        // 最后一条记录只写了头部和一半数据就断电
+        Path segment = onlySegment();
+        List<Integer> offsets = recordOffsets(segment);
+        int last = offsets.get(offsets.size() - 1);
+        int payloadLength = readInt(segment, last);
+        zero(segment, last + 9 + payloadLength / 2, payloadLength - payloadLength / 2);
+
+        store = reopen();
+        assertThat(education(store, "c1")).isEqualTo("本科");
+        assertThat(education(store, "c2")).isEqualTo("硕士");
+        assertThat(store.get("c3")).isEmpty();
+
+        // 新记录从残缺记录的位置开始写，再次恢复时可以读到
+        store.put("c4", state("c4", "大专"));
+        store = reopen();
+        assertThat(recordOffsets(onlySegment())).contains(last);
+        assertThat(education(store, "c4")).isEqualTo("大专");
+        assertThat(store.size()).isEqualTo(3);
+    }
+
+    @Test
+    void crcMismatchStopsReplayOfThatSegment() throws IOException {
+        MappedJournalDialogueStateStore store = reopen();
+        store.put("c1", state("c1", "本科"));
+        store.put("c2", state("c2", "硕士"));
+        store.put("c3", state("c3", "博士"));
+        store.close();
+
+        // 第二条记录的数据被改写，长度仍然合法：校验和不再匹配，之后的记录不可信
+        Path segment = onlySegment();
+        int second = recordOffsets(segment).get(1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, second + 12);
+            b.put(0, (byte) (b.get(0) ^ 0x5a)).rewind();
+            channel.write(b, second + 12);
+        }
+
+        store = reopen();
+        assertThat(education(store, "c1")).isEqualTo("本科");
+        assertThat(store.get("c2")).isEmpty();
+        assertThat(store.get("c3")).isEmpty();
+    }
+
+    @Test
+    void compactionRelocatesLiveRecordsAndDeletesTheOldSegment() throws IOException {
+        MappedJournalDialogueStateStore store = reopen();
+        // 反复覆盖同几个会话，写满多个段，旧段几乎全是垃圾
+        for (int round = 0; round < 40; round++) {
+            for (int i = 0; i < 4; i++) store.put("c" + i, state("c" + i, "第" + round + "轮"));
+        }
+        store.put("keep", state("keep", "本科"));
+        for (int i = 0; i < 4; i++) store.put("c" + i, state("c" + i, "最终"));
+        long before = segmentCount();
+        assertThat(before).isGreaterThan(2);
+
+        for (int i = 0; i < 8; i++) store.compact(); // 每次压缩一个段
+
+        assertThat(segmentCount()).isLessThan(before);
+        assertThat(education(store, "keep")).isEqualTo("本科");
+        store = reopen();
+        assertThat(store.size()).isEqualTo(5);
+        assertThat(education(store, "keep")).isEqualTo("本科");
+        for (int i = 0; i < 4; i++) assertThat(education(store, "c" + i)).isEqualTo("最终");
+    }
+
+    @Test
+    void idleConversationsExpireAndStayDeletedAfterRestart() throws InterruptedException {
+        MappedJournalDialogueStateStore store = open(Duration.ofMillis(500), Integer.MAX_VALUE);
+        store.put("idle", state("idle", "本科"));
+        store.put("active", state("active", "硕士"));
+        Thread.sleep(300);
+        store.get("active");
+        Thread.sleep(300);
+
+        store.sweep();
+
+        assertThat(evicted).singleElement().satisfies(e -> {
+            assertThat(e.conversationId()).isEqualTo("idle");
+            assertThat(e.cause()).isEqualTo(DialogueStateCache.EvictionCause.EXPIRED);
+            assertThat(e.state().collectedSlots().get("education")).isEqualTo("本科");
+        });
+        assertThat(store.get("active")).isPresent();
+        assertThat(reopen().get("idle")).isEmpty();
+    }
+
+    @Test
+    void overTheEntryLimitTheLeastRecentlyUsedAreEvicted() throws InterruptedException {
+        MappedJournalDialogueStateStore store = open(Duration.ofHours(1), 10);
+        for (int i = 0; i < 10; i++) store.put("c" + i, state("c" + i, "本科"));
+        Thread.sleep(2);
+        store.get("c0");
+        for (int i = 10; i < 12; i++) store.put("c" + i, state("c" + i, "本科"));
+
+        store.sweep();
+
+        // 超限的 put 可能已在后台淘汰到水位线以下，这里的扫描就不再淘汰
+        assertThat(store.size()).isLessThanOrEqualTo(10);
+        assertThat(evicted).allMatch(e -> e.cause() == DialogueStateCache.EvictionCause.SIZE);
+        assertThat(evicted).extracting(Evicted::conversationId).doesNotContain("c0", "c10", "c11").contains("c1");
+        assertThat(store.get("c0")).isPresent();
+    }
+
+    @Test
+    void statsCountHitsMissesAndEvictions() {
+        MappedJournalDialogueStateStore store = open(Duration.ZERO, Integer.MAX_VALUE);
+        store.put("c1", state("c1", "本科"));
+
+        assertThat(store.get("c1")).isEmpty(); // 立即过期
+        assertThat(store.get("missing")).isEmpty();
+
+        DialogueStateCache.Stats stats = store.stats();
+        assertThat(stats.hits()).isZero();
+        assertThat(stats.misses()).isEqualTo(2);
+        assertThat(stats.evictions()).isEqualTo(1);
+        assertThat(stats.size()).isZero();
+        assertThat(stats.weightBytes()).isZero();
+    }
+
+    // ------------------------------------------------------------------ 日志文件
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".seg")).sorted().findFirst().orElseThrow();
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+
+    /**
+     * 按 [payloadLen][crc][type][payload] 的格式顺序列出记录的起始位置。
+     */
+    private static List<Integer> recordOffsets(Path segment) throws IOException {
+        List<Integer> offsets = new ArrayList<>();
+        int position = 0;
+        while (position + 9 <= SEGMENT_SIZE) {
+            int payloadLength = readInt(segment, position);
+            if (payloadLength <= 0) break;
+            offsets.add(position);
+            position += 9 + payloadLength;
+        }
+        return offsets;
+    }
+
+    private static int readInt(Path file, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(b, position);
+            return b.getInt(0);
+        }
+    }
+
+    private static void zero(Path file, int position, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(length), position);
+        }
+    }
+}